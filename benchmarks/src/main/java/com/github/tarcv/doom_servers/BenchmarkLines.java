@@ -0,0 +1,28 @@
+package com.github.tarcv.doom_servers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Console-like lines of a given length for benchmarks
+ */
+final class BenchmarkLines {
+    private static final String ALPHABET = "abcdefghijklmnopqrstuvwxyz ABCDEFGHIJKLMNOPQRSTUVWXYZ 0123456789:.-";
+
+    private BenchmarkLines() {
+    }
+
+    static List<String> create(int count, int length) {
+        Random random = new Random(42);
+        List<String> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder line = new StringBuilder(length);
+            for (int j = 0; j < length; j++) {
+                line.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+            }
+            lines.add(line.toString());
+        }
+        return lines;
+    }
+}
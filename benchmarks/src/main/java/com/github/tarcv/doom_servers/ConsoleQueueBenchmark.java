@@ -0,0 +1,62 @@
+package com.github.tarcv.doom_servers;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Buffering of console lines between the engine output reader and the sender:
+ * {@link ConsoleRingBuffer} compared to the ArrayBlockingQueue drained by the former console pumping thread.
+ * Each operation offers a batch of lines and drains it. Ring buffer entries include their allocation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConsoleQueueBenchmark {
+    private static final int CAPACITY = 1000;
+    // only references are queued, so the length doesn't matter
+    private static final int LINE_LENGTH = 80;
+
+    @Param({"1", "100", "1000"})
+    public int batchSize;
+
+    private List<String> lines;
+    private ConsoleRingBuffer ringBuffer;
+    private ArrayBlockingQueue<String> blockingQueue;
+    private List<String> batch;
+    private List<ConsoleLine> ringBatch;
+
+    @Setup
+    public void setUp() {
+        lines = BenchmarkLines.create(batchSize, LINE_LENGTH);
+        ringBuffer = new ConsoleRingBuffer(CAPACITY, OverflowPolicy.DROP_OLDEST);
+        blockingQueue = new ArrayBlockingQueue<>(CAPACITY);
+        batch = new ArrayList<>(CAPACITY);
+        ringBatch = new ArrayList<>(CAPACITY);
+    }
+
+    @Benchmark
+    public void ringBuffer(Blackhole blackhole) {
+        for (String line : lines) {
+            ringBuffer.offer(new ConsoleLine(line, 0));
+        }
+        ringBatch.clear();
+        blackhole.consume(ringBuffer.drainTo(ringBatch, CAPACITY));
+    }
+
+    @Benchmark
+    public void arrayBlockingQueue(Blackhole blackhole) throws InterruptedException {
+        for (String line : lines) {
+            blockingQueue.put(line);
+        }
+        batch.clear();
+        blackhole.consume(blockingQueue.drainTo(batch, CAPACITY));
+    }
+}
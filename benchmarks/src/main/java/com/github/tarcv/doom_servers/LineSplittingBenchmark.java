@@ -0,0 +1,83 @@
+package com.github.tarcv.doom_servers;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Splitting of raw engine output into lines: {@link LineReader} compared to a BufferedReader
+ * and to the previous Piped*Stream + Scanner pipeline
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LineSplittingBenchmark {
+    private static final int LINES = 1000;
+
+    @Param({"16", "80", "512"})
+    public int lineLength;
+
+    private byte[] output;
+
+    @Setup
+    public void setUp() {
+        StringBuilder text = new StringBuilder();
+        for (String line : BenchmarkLines.create(LINES, lineLength)) {
+            text.append(line).append('\n');
+        }
+        output = text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void lineReader(Blackhole blackhole) throws IOException {
+        new LineReader(new ByteArrayInputStream(output), StandardCharsets.UTF_8, blackhole::consume).readLines();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void bufferedReader(Blackhole blackhole) throws IOException {
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new ByteArrayInputStream(output), StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            blackhole.consume(line);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void pipedScanner(Blackhole blackhole) throws Exception {
+        PipedOutputStream outputStream = new PipedOutputStream();
+        PipedInputStream inputStream = new PipedInputStream(outputStream);
+        // Blackhole can't be used outside of the benchmark thread, so the scanner thread only counts characters
+        long[] chars = new long[1];
+        Thread scannerThread = new Thread(() -> {
+            Scanner scanner = new Scanner(inputStream, StandardCharsets.UTF_8.name());
+            while (scanner.hasNextLine()) {
+                chars[0] += scanner.nextLine().length();
+            }
+        });
+        scannerThread.start();
+
+        // the same chunking as zt-exec pumps use
+        for (int offset = 0; offset < output.length; offset += 1024) {
+            outputStream.write(output, offset, Math.min(1024, output.length - offset));
+        }
+        outputStream.close();
+        scannerThread.join();
+        blackhole.consume(chars[0]);
+    }
+}
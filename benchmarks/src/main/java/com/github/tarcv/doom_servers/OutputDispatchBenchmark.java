@@ -0,0 +1,80 @@
+package com.github.tarcv.doom_servers;
+
+import com.github.tarcv.doom_servers.messages.Message;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-line path of engine output after a server is started:
+ * {@link CommandPipeline} demultiplexing into a {@link ConsoleBatcher} which batches lines on the shared scheduler.
+ * The burst size models the output rate: how many lines arrive between two linger flushes.
+ * Scores are bursts per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OutputDispatchBenchmark {
+    @Param({"16", "80", "512"})
+    public int lineLength;
+
+    @Param({"1", "100", "1000"})
+    public int burst;
+
+    private List<String> lines;
+    private ScheduledExecutorService scheduler;
+    private CommandPipeline pipeline;
+
+    @Setup
+    public void setUp() {
+        lines = BenchmarkLines.create(burst, lineLength);
+        scheduler = Executors.newScheduledThreadPool(2);
+        ConsoleBatcher batcher = new ConsoleBatcher("benchmark",
+                new ConsoleRingBuffer(1000, OverflowPolicy.DROP_OLDEST),
+                scheduler,
+                new NullConnection(),
+                new ConsoleBatcher.Limits(1000, 65536, 20));
+        pipeline = new CommandPipeline(
+                // commands are not executed in this benchmark, so nothing is written anyway
+                new ConsoleInput(OutputStream.nullOutputStream(), StandardCharsets.UTF_8), batcher);
+    }
+
+    @TearDown
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Benchmark
+    public void dispatchBurst() {
+        for (String line : lines) {
+            pipeline.onOutputLine(line);
+        }
+    }
+
+    private static class NullConnection implements Connection {
+        @Override
+        public void connect() {
+        }
+
+        @Override
+        public void send(Message message) {
+        }
+
+        @Override
+        public void publish(Message message) {
+        }
+
+        @Override
+        public void sendBinary(ByteBuffer frame) {
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.github.tarcv.doom_servers;
+
+import com.github.tarcv.doom_servers.messages.ConsoleBuffer;
+import com.github.tarcv.doom_servers.messages.Mapper;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding of a {@link ConsoleBuffer}: JSON through {@link Mapper} compared to {@link BinaryCodec}.
+ * Besides throughput each benchmark reports the encoded size of one batch as the {@code encodedBytes} counter
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+    @Param({"16", "80", "512"})
+    public int lineLength;
+
+    @Param({"1", "100", "1000"})
+    public int batchSize;
+
+    private ConsoleBuffer message;
+    private final BinaryCodec codec = new BinaryCodec();
+    private final ByteArrayOutputStream json = new ByteArrayOutputStream();
+
+    @Setup
+    public void setUp() {
+        message = new ConsoleBuffer("benchmark", BenchmarkLines.create(batchSize, lineLength));
+    }
+
+    @Benchmark
+    public void mapper(EncodedSize size, Blackhole blackhole) throws IOException {
+        json.reset();
+        Mapper.writeValue(json, message);
+        size.encodedBytes = json.size();
+        blackhole.consume(json.size());
+    }
+
+    @Benchmark
+    public void binary(EncodedSize size, Blackhole blackhole) {
+        ByteBuffer frame = codec.encode(message, false);
+        size.encodedBytes = frame.remaining();
+        blackhole.consume(frame);
+    }
+
+    @Benchmark
+    public void binaryDeflate(EncodedSize size, Blackhole blackhole) {
+        ByteBuffer frame = codec.encode(message, true);
+        size.encodedBytes = frame.remaining();
+        blackhole.consume(frame);
+    }
+
+    /**
+     * Event counters are reported as they are, so the last size assigned is the size of a batch
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class EncodedSize {
+        public long encodedBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            encodedBytes = 0;
+        }
+    }
+}
@@ -1,35 +1,79 @@
 package com.github.tarcv.doom_servers;
 
 import com.github.tarcv.doom_servers.messages.*;
+import com.github.tarcv.doom_servers.messages.Error;
 import org.jetbrains.annotations.Nullable;
 
 import javax.websocket.ClientEndpoint;
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.List;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.*;
+import java.util.regex.Pattern;
 
 @ClientEndpoint
 public class Agent implements ConnectionListener {
     private static final int CONSOLE_BUFFER_CAPACITY = 1000;
-    private static final long CONSOLE_PUMP_PERIOD = 500;
+    private static final int SCHEDULER_THREADS = 2;
+    private static final int MAX_HISTORY_LINES = 10000;
+    private static final Pattern SERVER_ID_PATTERN = Pattern.compile("[A-Za-z0-9_-][A-Za-z0-9_.-]*");
     private final WebsocketConnectionFactory connectionFactory;
     private final Path executable;
     private final Path workDir;
-    private Server server = null;
+    private final int consoleBufferCapacity;
+    private final OverflowPolicy consoleOverflowPolicy;
+    private final ConsoleBatcher.Limits consoleBatchLimits;
+    private final CoalescingMode consoleCoalescingMode;
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(SCHEDULER_THREADS, runnable -> {
+        Thread thread = new Thread(null, runnable, "AgentScheduler");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ServerRegistry servers = new ServerRegistry();
+    @Nullable
+    private final EngineProcessPool enginePool;
+    @Nullable
+    private final EngineIsolation engineIsolation;
+    private final long resourceSampleInterval;
+    private final int clockTicksPerSecond;
+    private final long statusPollInterval;
+    private final long statusTtl;
+    private final int defaultLauncherPort;
+    @Nullable
+    private final HuffmanCodec launcherCodec;
+    @Nullable
+    private StatusPoller statusPoller;
+    private final ConcurrentMap<String, ConsoleHistoryLog> consoleHistories = new ConcurrentHashMap<>();
+    private final Path historyDir;
+    private final int historySegmentSize;
+    private final int historyMaxSegments;
+    private final ConsoleScanner consoleScanner;
+    private final ConsoleFilter defaultConsoleFilter;
+    // kept across server restarts, so subscribing before RunServer works too
+    private final ConcurrentMap<String, ConsoleFilter> consoleFilters = new ConcurrentHashMap<>();
     private String key;
     private Connection connection;
+    private ConsoleEventBatcher consoleEvents;
 
     public static void main(String[] args) throws IOException {
         Properties properties = loadProperties();
         setupTrustStore(properties);
 
-        new Agent(properties, new WebsocketConnectionFactory()).run();
+        OutboundSpool spool = OutboundSpool.fromProperties(properties);
+        Metrics.get().gauge("spool_pending_records", () -> spool.getLastSequence() - spool.getAcknowledgedSequence());
+        Metrics.get().gauge("spool_dropped_records", spool::getDroppedRecords);
+        startMetricsExport(properties);
+
+        new Agent(properties, new WebsocketConnectionFactory(spool, properties)).run();
     }
 
     private Agent(Properties properties, WebsocketConnectionFactory connectionFactory) {
@@ -49,11 +93,134 @@ public class Agent implements ConnectionListener {
 
         this.executable = executable;
         this.workDir = workDir;
+        this.engineIsolation = EngineIsolation.fromProperties(properties, "engine." + engine + ".");
+        String agentCpus = properties.getProperty("agent.cpus");
+        if (agentCpus != null) {
+            EngineIsolation.pinAgent(agentCpus);
+        }
+
+        this.consoleBufferCapacity = Integer.parseInt(
+                properties.getProperty("console.buffer.capacity", String.valueOf(CONSOLE_BUFFER_CAPACITY)));
+        this.consoleOverflowPolicy = OverflowPolicy.fromProperty(
+                properties.getProperty("console.overflow", "drop-oldest"));
+        this.consoleBatchLimits = ConsoleBatcher.Limits.fromProperties(properties);
+        this.consoleCoalescingMode = CoalescingMode.fromProperty(properties.getProperty("console.coalescing", "exact"));
+
+        this.historyDir = Paths.get(properties.getProperty("history.dir", "history")).toAbsolutePath();
+        this.historySegmentSize = Integer.parseInt(
+                properties.getProperty("history.segment.size", String.valueOf(8 * 1024 * 1024)));
+        this.historyMaxSegments = Integer.parseInt(properties.getProperty("history.max.segments", "8"));
+
+        this.consoleScanner = ConsoleScanner.fromProperties(properties);
+        this.defaultConsoleFilter = ConsoleFilter.fromProperty(properties.getProperty("console.subscription", "all"));
+
+        Map<String, EngineProcessPool.ProfileConfig> poolProfiles = EngineProcessPool.profilesFromProperties(properties);
+        this.enginePool = poolProfiles.isEmpty() ? null : new EngineProcessPool(executable, workDir, poolProfiles);
+
+        Metrics.get().gauge("servers_running", servers::size);
+        Metrics.get().gauge("console_queue_depth", () -> {
+            long depth = 0;
+            for (Server server : servers.getAll()) {
+                depth += server.getConsoleSink().getBuffer().size();
+            }
+            return depth;
+        });
+        Metrics.get().gauge("console_dropped_lines", () -> {
+            long dropped = 0;
+            for (Server server : servers.getAll()) {
+                dropped += server.getConsoleSink().getBuffer().getDroppedLines();
+            }
+            return dropped;
+        });
+
+        this.resourceSampleInterval = Long.parseLong(properties.getProperty("resources.sample.interval", "5000"));
+        // USER_HZ, it is 100 on all common Linux architectures
+        this.clockTicksPerSecond = Integer.parseInt(properties.getProperty("resources.clock.ticks", "100"));
+
+        this.statusPollInterval = Long.parseLong(properties.getProperty("status.poll.interval", "2000"));
+        this.statusTtl = Long.parseLong(properties.getProperty("status.ttl", "5000"));
+        this.defaultLauncherPort = Integer.parseInt(getEngineProperty(properties, engine, "port", "10666"));
+        String huffmanTree = properties.getProperty("status.huffman.tree");
+        try {
+            this.launcherCodec = huffmanTree != null ? HuffmanCodec.fromFile(Paths.get(huffmanTree)) : null;
+        } catch (IOException | IllegalArgumentException e) {
+            throw new ConfigurationException("Failed to read Huffman tree from " + huffmanTree + ": " + e.getMessage());
+        }
     }
 
     private void run() {
         Key key = getKey();
-        connection = connectionFactory.connect(this, "wss://doom-servers:8443/gs-guide-websocket", key);
+        // stops pool refills started while engine processes are killed on exit
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "AgentCloser"));
+        if (enginePool != null) {
+            enginePool.fill();
+        }
+        connection = connectionFactory.create(this, "wss://doom-servers:8443/gs-guide-websocket", key);
+        consoleEvents = new ConsoleEventBatcher(scheduler, connection);
+        scheduler.scheduleAtFixedRate(new ProcessSampler(servers, connection, clockTicksPerSecond),
+                resourceSampleInterval, resourceSampleInterval, TimeUnit.MILLISECONDS);
+        if (statusPollInterval > 0) {
+            if (launcherCodec != null) {
+                startStatusPoller();
+            } else {
+                // compressed responses can't be read, so every server would look unreachable
+                System.err.println("Server status polling is disabled: status.huffman.tree is not set");
+            }
+        }
+        try {
+            connection.connect();
+        } finally {
+            stopStatusPoller();
+            close();
+        }
+    }
+
+    /**
+     * Closes the engine pool and console histories. Safe to call more than once
+     */
+    private void close() {
+        if (enginePool != null) {
+            enginePool.close();
+        }
+        for (String serverId : consoleHistories.keySet()) {
+            closeConsoleHistory(serverId);
+        }
+    }
+
+    private void startStatusPoller() {
+        try {
+            StatusPoller poller = new StatusPoller(this::getLauncherPorts, connection,
+                    new ZandronumLauncherProtocol(launcherCodec),
+                    InetAddress.getLoopbackAddress(), statusPollInterval, statusTtl);
+            Thread thread = new Thread(poller, "StatusPoller");
+            thread.setDaemon(true);
+            thread.start();
+            statusPoller = poller;
+        } catch (IOException e) {
+            System.err.println("Server status polling is disabled: " + e.getMessage());
+        }
+    }
+
+    private void stopStatusPoller() {
+        StatusPoller poller = statusPoller;
+        if (poller != null) {
+            try {
+                poller.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private Map<String, Integer> getLauncherPorts() {
+        Map<String, Integer> ports = new HashMap<>();
+        for (Server server : servers.getAll()) {
+            if (server.getPid() > 0) {
+                ports.put(server.getId(),
+                        StatusPoller.getLauncherPort(server.getConfiguration().getCommandline(), defaultLauncherPort));
+            }
+        }
+        return ports;
     }
 
     private Key getKey() {
@@ -71,6 +238,17 @@ public class Agent implements ConnectionListener {
         System.setProperty("javax.net.ssl.trustStorePassword", trustStorePassword);
     }
 
+    private static void startMetricsExport(Properties properties) throws IOException {
+        MetricsExporter exporter = new MetricsExporter(Metrics.get());
+        if (Boolean.parseBoolean(properties.getProperty("metrics.jmx", "true"))) {
+            exporter.registerJmx();
+        }
+        String httpPort = properties.getProperty("metrics.http.port");
+        if (httpPort != null) {
+            exporter.startHttp(Integer.parseInt(httpPort.trim()));
+        }
+    }
+
     private static Properties loadProperties() {
         Path propertiesPath = Paths.get("agent.properties");
         Properties properties = new Properties();
@@ -87,52 +265,194 @@ public class Agent implements ConnectionListener {
     }
 
     @Override
-    public Message onMessage(Message message) throws TimeoutException, InterruptedException {
+    public Message onMessage(Message message) throws TimeoutException, InterruptedException, IOException {
         if (message instanceof RunServer) {
+            RunServer runServer = (RunServer) message;
             try {
-                ServerConfiguration configuration = ((RunServer)message).getConfiguration();
-                BlockingQueue<String> consoleBlockingSink = runConsolePumping();
-                Server newServer = new Server(this.executable, this.workDir, configuration, consoleBlockingSink);
-                newServer.run();
-                this.server = newServer;
+                startServer(checkServerId(runServer.getServerId()), runServer.getConfiguration());
                 return new ServerStarted(null);
             } catch (Exception e) {
                 return new ServerStarted(e);
             }
+        } else if (message instanceof ReconfigureServer) {
+            ReconfigureServer reconfigure = (ReconfigureServer) message;
+            String serverId = checkServerId(reconfigure.getServerId());
+            ServerConfiguration configuration = reconfigure.getConfiguration();
+            return reconfigureServer(servers.get(serverId), configuration, () -> startServer(serverId, configuration));
         } else if (message instanceof ConsoleCommand) {
-            List<String> command = ((ConsoleCommand) message).getCommand();
-            List<String> lines = server.executeConsole(command);
-            return new ConsoleResult(lines);
+            ConsoleCommand consoleCommand = (ConsoleCommand) message;
+            String serverId = checkServerId(consoleCommand.getServerId());
+            Server server = servers.find(serverId);
+            if (server == null) {
+                return new Error(new IllegalArgumentException("Unknown server id: " + serverId));
+            }
+            ConsoleResultStreamer streamer = new ConsoleResultStreamer(connection, message.getCorrelationId());
+            long droppedLines = server.executeConsole(consoleCommand.getCommand(), streamer);
+            return streamer.finish(droppedLines);
+        } else if (message instanceof SubscribeConsole) {
+            SubscribeConsole subscription = (SubscribeConsole) message;
+            String serverId = checkServerId(subscription.getServerId());
+            ConsoleFilter filter;
+            try {
+                filter = ConsoleFilter.fromMessage(subscription);
+            } catch (InvalidMessageException e) {
+                return new Error(e);
+            }
+            consoleFilters.put(serverId, filter);
+            Server server = servers.find(serverId);
+            if (server != null) {
+                server.setConsoleFilter(filter);
+            }
+            return null;
+        } else if (message instanceof ReadConsoleHistory) {
+            return readConsoleHistory((ReadConsoleHistory) message);
+        } else if (message instanceof ReadFile) {
+            ReadFile readFile = (ReadFile) message;
+            return new FileTransfer(workDir, connection)
+                    .send(message.getCorrelationId(), readFile.getPath(), readFile.getOffset());
         } else {
             return null;
         }
     }
 
-    private BlockingQueue<String> runConsolePumping() {
-        BlockingQueue<String> consoleBlockingSink = new ArrayBlockingQueue<>(CONSOLE_BUFFER_CAPACITY);
-        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
-            Thread thread = new Thread(null, runnable, "ConsolePumper");
-            thread.setDaemon(true);
-            return thread;
-        });
-        List<String> lines = new ArrayList<>(CONSOLE_BUFFER_CAPACITY);
-        Runnable runnable = () -> {
-            // wrap with try-catch to avoid cancelling in ScheduledExecutorService#scheduleAtFixedRate
-            try {
-                synchronized (lines) {
-                    lines.clear();
-                    consoleBlockingSink.drainTo(lines, CONSOLE_BUFFER_CAPACITY);
-                    if (!lines.isEmpty()) {
-                        Message message = new ConsoleBuffer(lines);
-                        connection.send(message);
-                    }
+    /**
+     * Applies the configuration live when the diff allows it, restarts the server when it doesn't
+     * or when the engine rejects one of the commands
+     */
+    static ServerReconfigured reconfigureServer(Server server, ServerConfiguration configuration, Restart restart)
+            throws IOException, TimeoutException, InterruptedException {
+        ConfigurationDiff diff = ConfigurationDiff.between(server.getConfiguration(), configuration);
+        if (diff.isRestartRequired() || !server.reconfigure(configuration, diff)) {
+            restart.run();
+            return new ServerReconfigured(true, Collections.emptyList(), Collections.emptyList());
+        }
+        return new ServerReconfigured(false, diff.getConsoleCommands(), diff.getChangedConfigs());
+    }
+
+    interface Restart {
+        void run() throws IOException, TimeoutException, InterruptedException;
+    }
+
+    /**
+     * Replaces the server with the same id (if any) with a new one
+     */
+    private void startServer(String serverId, ServerConfiguration configuration)
+            throws IOException, TimeoutException, InterruptedException {
+        Server previousServer = servers.remove(serverId);
+        if (previousServer != null) {
+            previousServer.stop();
+            // unmaps its segments, the new server opens the history again
+            closeConsoleHistory(serverId);
+        }
+
+        Server newServer = null;
+        try {
+            ConsoleBatcher consoleSink = createConsoleBatcher(serverId);
+            ConsoleHistoryLog consoleHistory = getConsoleHistory(serverId, true);
+            newServer = new Server(serverId, this.executable, this.workDir, configuration,
+                    consoleSink, consoleHistory, consoleScanner, consoleEvents);
+            newServer.setConsoleFilter(consoleFilters.getOrDefault(serverId, defaultConsoleFilter));
+            newServer.run(enginePool, engineIsolation);
+            servers.put(newServer);
+        } catch (Exception e) {
+            if (newServer != null) {
+                newServer.stop();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Negative fromOffset is counted from the end of the history
+     */
+    private ConsoleHistory readConsoleHistory(ReadConsoleHistory request) throws IOException {
+        String serverId = checkServerId(request.getServerId());
+        ConsoleHistoryLog history = getConsoleHistory(serverId, false);
+        int maxLines = Math.min(request.getMaxLines(), MAX_HISTORY_LINES);
+
+        ConsoleHistoryLog.Range range;
+        if (request.getFromTimestamp() != null) {
+            range = history.readFromTime(request.getFromTimestamp(), maxLines);
+        } else {
+            long fromOffset = request.getFromOffset() != null ? request.getFromOffset() : 0;
+            if (fromOffset < 0) {
+                fromOffset = Math.max(0, history.getNextOffset() + fromOffset);
+            }
+            range = history.readFromOffset(fromOffset, maxLines);
+        }
+        return new ConsoleHistory(serverId, range.getFirstOffset(), range.getTimestamps(), range.getLines());
+    }
+
+    private ConsoleHistoryLog getConsoleHistory(String serverId, boolean create) throws IOException {
+        Path directory = historyDir.resolve(serverId);
+        if (!create && !consoleHistories.containsKey(serverId) && !Files.isDirectory(directory)) {
+            throw new IllegalArgumentException("No console history for server id: " + serverId);
+        }
+        try {
+            return consoleHistories.computeIfAbsent(serverId, id -> {
+                try {
+                    return new ConsoleHistoryLog(directory, historySegmentSize, historyMaxSegments);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
                 }
-            } catch (Exception e) {
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private void closeConsoleHistory(String serverId) {
+        ConsoleHistoryLog history = consoleHistories.remove(serverId);
+        if (history != null) {
+            try {
+                history.close();
+            } catch (IOException e) {
                 e.printStackTrace();
             }
-        };
-        executor.scheduleAtFixedRate(runnable, 0, CONSOLE_PUMP_PERIOD, TimeUnit.MILLISECONDS);
-        return consoleBlockingSink;
+        }
+    }
+
+    /**
+     * Server ids are used as directory names, so only safe ones are accepted
+     */
+    private static String checkServerId(String serverId) {
+        if (serverId == null || !SERVER_ID_PATTERN.matcher(serverId).matches()) {
+            throw new IllegalArgumentException("Invalid server id: " + serverId);
+        }
+        return serverId;
+    }
+
+    @Override
+    public String getOrderingKey(Message message) {
+        if (message instanceof RunServer) {
+            return ((RunServer) message).getServerId();
+        } else if (message instanceof ConsoleCommand) {
+            return ((ConsoleCommand) message).getServerId();
+        } else if (message instanceof ReconfigureServer) {
+            return ((ReconfigureServer) message).getServerId();
+        } else if (message instanceof SubscribeConsole) {
+            return ((SubscribeConsole) message).getServerId();
+        } else if (message instanceof ReadFile) {
+            // a long transfer should not hold other requests
+            return "file:" + ((ReadFile) message).getPath();
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Commands still wait for a start or reconfiguration of their server queued before them,
+     * but run in parallel with each other, see {@link CommandPipeline}
+     */
+    @Override
+    public boolean isConcurrent(Message message) {
+        return message instanceof ConsoleCommand;
+    }
+
+    private ConsoleBatcher createConsoleBatcher(String serverId) {
+        ConsoleRingBuffer consoleBuffer = new ConsoleRingBuffer(consoleBufferCapacity, consoleOverflowPolicy);
+        return new ConsoleBatcher(serverId, consoleBuffer, scheduler, connection, consoleBatchLimits,
+                consoleCoalescingMode);
     }
 
     private static String getEngineProperty(Properties properties, String engine, String key, @Nullable String defaultValue) {
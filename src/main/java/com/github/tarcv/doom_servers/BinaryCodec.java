@@ -0,0 +1,325 @@
+package com.github.tarcv.doom_servers;
+
+import com.github.tarcv.doom_servers.messages.ConsoleBuffer;
+import com.github.tarcv.doom_servers.messages.ConsoleResult;
+import com.github.tarcv.doom_servers.messages.LineRepeat;
+import com.github.tarcv.doom_servers.messages.Message;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compact binary encoding of the most frequent messages ({@link ConsoleBuffer} and {@link ConsoleResult}).<br />
+ * Frame layout:
+ * <pre>
+ * byte    type (TYPE_* constants)
+ * byte    flags (FLAG_DEFLATED: the rest of the frame is raw deflate data)
+ * long    sequence for reliable delivery, 0 if none
+ * string  server id for ConsoleBuffer, correlation id for ConsoleResult
+ * varint  line count
+ * string  line (repeated)
+ * varint  repeat count, ConsoleBuffer only (absent in older frames)
+ * varint  line index, varint count, varlong first timestamp, varlong last minus first timestamp (repeated)
+ * </pre>
+ * where string is varint (UTF-8 length + 1, 0 means null) followed by UTF-8 bytes,
+ * and varint/varlong is an unsigned LEB128 number.<br />
+ * Instances reuse their buffers, so they are not thread-safe.
+ */
+public class BinaryCodec {
+    public static final byte TYPE_CONSOLE_BUFFER = 1;
+    public static final byte TYPE_CONSOLE_RESULT = 2;
+    /**
+     * Frames of {@link FileTransfer}, they have their own layout
+     */
+    public static final byte TYPE_FILE_CHUNK = 3;
+
+    static final byte FLAG_DEFLATED = 1;
+
+    private static final int HEADER_SIZE = 2 + 8;
+
+    /**
+     * Smaller bodies do not gain from compression
+     */
+    private static final int MIN_DEFLATE_SIZE = 256;
+
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+    private final Inflater inflater = new Inflater(true);
+    private byte[] body = new byte[8192];
+    private byte[] deflated = new byte[8192];
+    private int position;
+
+    public static boolean supports(Message message) {
+        return message instanceof ConsoleBuffer || message instanceof ConsoleResult;
+    }
+
+    /**
+     * @return frame which is valid till the next call of this method
+     */
+    public ByteBuffer encode(Message message, boolean deflate) {
+        position = HEADER_SIZE;
+        byte type;
+        List<String> lines;
+        List<LineRepeat> repeats = null;
+        if (message instanceof ConsoleBuffer) {
+            ConsoleBuffer consoleBuffer = (ConsoleBuffer) message;
+            type = TYPE_CONSOLE_BUFFER;
+            writeString(consoleBuffer.getServerId());
+            lines = consoleBuffer.getLines();
+            repeats = consoleBuffer.getRepeats() != null ? consoleBuffer.getRepeats() : Collections.emptyList();
+        } else if (message instanceof ConsoleResult) {
+            ConsoleResult consoleResult = (ConsoleResult) message;
+            type = TYPE_CONSOLE_RESULT;
+            writeString(consoleResult.getCorrelationId());
+            lines = consoleResult.getLines();
+        } else {
+            throw new IllegalArgumentException(message.getClass().getSimpleName() + " has no binary encoding");
+        }
+
+        writeVarint(lines.size());
+        for (String line : lines) {
+            writeString(line);
+        }
+        if (repeats != null) {
+            writeVarint(repeats.size());
+            for (LineRepeat repeat : repeats) {
+                writeVarint(repeat.getIndex());
+                writeVarint(repeat.getCount());
+                writeVarlong(repeat.getFirstTimestamp());
+                writeVarlong(repeat.getLastTimestamp() - repeat.getFirstTimestamp());
+            }
+        }
+        ByteBuffer header = ByteBuffer.wrap(body);
+        header.put(0, type);
+        header.put(1, (byte) 0);
+        header.putLong(2, message.getSequence());
+
+        if (deflate && position - HEADER_SIZE >= MIN_DEFLATE_SIZE) {
+            return deflateBody();
+        }
+        return ByteBuffer.wrap(body, 0, position);
+    }
+
+    /**
+     * Compresses a frame created by {@link #encode(Message, boolean)} without deflation
+     * @return frame which is valid till the next call of this method
+     */
+    public ByteBuffer deflate(ByteBuffer frame) {
+        int size = frame.remaining();
+        if ((frame.get(frame.position() + 1) & FLAG_DEFLATED) != 0 || size - HEADER_SIZE < MIN_DEFLATE_SIZE) {
+            return frame;
+        }
+        position = 0;
+        ensureCapacity(size);
+        frame.duplicate().get(body, 0, size);
+        position = size;
+        return deflateBody();
+    }
+
+    public Message decode(ByteBuffer frame) throws IOException {
+        byte type = frame.get();
+        byte flags = frame.get();
+        long sequence = frame.getLong();
+        if ((flags & FLAG_DEFLATED) != 0) {
+            frame = inflateBody(frame);
+        }
+
+        String id = readString(frame);
+        int lineCount = readVarint(frame);
+        List<String> lines = new ArrayList<>(lineCount);
+        for (int i = 0; i < lineCount; i++) {
+            lines.add(readString(frame));
+        }
+
+        Message message;
+        switch (type) {
+            case TYPE_CONSOLE_BUFFER:
+                message = new ConsoleBuffer(id, lines, readRepeats(frame, lineCount));
+                break;
+            case TYPE_CONSOLE_RESULT:
+                message = new ConsoleResult(lines);
+                message.setCorrelationId(id);
+                break;
+            default:
+                throw new IOException("Unknown binary message type " + type);
+        }
+        message.setSequence(sequence);
+        return message;
+    }
+
+    private static List<LineRepeat> readRepeats(ByteBuffer frame, int lineCount) throws IOException {
+        if (!frame.hasRemaining()) {
+            return Collections.emptyList();
+        }
+        int repeatCount = readVarint(frame);
+        List<LineRepeat> repeats = new ArrayList<>(repeatCount);
+        for (int i = 0; i < repeatCount; i++) {
+            int index = readVarint(frame);
+            if (index >= lineCount) {
+                throw new IOException("Repeat of a missing line " + index);
+            }
+            int count = readVarint(frame);
+            long firstTimestamp = readVarlong(frame);
+            long lastTimestamp = firstTimestamp + readVarlong(frame);
+            repeats.add(new LineRepeat(index, count, firstTimestamp, lastTimestamp));
+        }
+        return repeats;
+    }
+
+    private ByteBuffer deflateBody() {
+        deflater.reset();
+        deflater.setInput(body, HEADER_SIZE, position - HEADER_SIZE);
+        deflater.finish();
+
+        System.arraycopy(body, 0, deflated, 0, HEADER_SIZE);
+        deflated[1] = FLAG_DEFLATED;
+        int deflatedSize = HEADER_SIZE;
+        while (!deflater.finished()) {
+            if (deflatedSize == deflated.length) {
+                deflated = copyOf(deflated, deflated.length * 2);
+            }
+            deflatedSize += deflater.deflate(deflated, deflatedSize, deflated.length - deflatedSize);
+        }
+        return ByteBuffer.wrap(deflated, 0, deflatedSize);
+    }
+
+    private ByteBuffer inflateBody(ByteBuffer frame) throws IOException {
+        byte[] input = new byte[frame.remaining()];
+        frame.get(input);
+        inflater.reset();
+        inflater.setInput(input);
+
+        byte[] output = new byte[Math.max(input.length * 4, 64)];
+        int outputSize = 0;
+        try {
+            while (!inflater.finished()) {
+                if (outputSize == output.length) {
+                    output = copyOf(output, output.length * 2);
+                }
+                int inflatedSize = inflater.inflate(output, outputSize, output.length - outputSize);
+                if (inflatedSize == 0 && inflater.needsInput()) {
+                    throw new IOException("Truncated deflated frame");
+                }
+                outputSize += inflatedSize;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted deflated frame", e);
+        }
+        return ByteBuffer.wrap(output, 0, outputSize);
+    }
+
+    private void writeString(@Nullable String value) {
+        if (value == null) {
+            writeVarint(0);
+            return;
+        }
+
+        int length = value.length();
+        boolean ascii = true;
+        for (int i = 0; i < length && ascii; i++) {
+            ascii = value.charAt(i) < 0x80;
+        }
+
+        if (ascii) {
+            writeVarint(length + 1);
+            ensureCapacity(length);
+            for (int i = 0; i < length; i++) {
+                body[position++] = (byte) value.charAt(i);
+            }
+        } else {
+            byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(encoded.length + 1);
+            ensureCapacity(encoded.length);
+            System.arraycopy(encoded, 0, body, position, encoded.length);
+            position += encoded.length;
+        }
+    }
+
+    private void writeVarint(int value) {
+        ensureCapacity(5);
+        while ((value & ~0x7F) != 0) {
+            body[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        body[position++] = (byte) value;
+    }
+
+    private void writeVarlong(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            body[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        body[position++] = (byte) value;
+    }
+
+    private void ensureCapacity(int extraBytes) {
+        if (position + extraBytes > body.length) {
+            body = copyOf(body, Math.max(body.length * 2, position + extraBytes));
+        }
+    }
+
+    @Nullable
+    private static String readString(ByteBuffer frame) throws IOException {
+        int lengthPlusOne = readVarint(frame);
+        if (lengthPlusOne == 0) {
+            return null;
+        }
+        int length = lengthPlusOne - 1;
+        if (length > frame.remaining()) {
+            throw new IOException("Truncated binary frame");
+        }
+        if (frame.hasArray()) {
+            String value = new String(frame.array(), frame.arrayOffset() + frame.position(), length, StandardCharsets.UTF_8);
+            frame.position(frame.position() + length);
+            return value;
+        } else {
+            byte[] bytes = new byte[length];
+            frame.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static int readVarint(ByteBuffer frame) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (!frame.hasRemaining()) {
+                throw new IOException("Truncated binary frame");
+            }
+            byte b = frame.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private static long readVarlong(ByteBuffer frame) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            if (!frame.hasRemaining()) {
+                throw new IOException("Truncated binary frame");
+            }
+            byte b = frame.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varlong");
+    }
+
+    private static byte[] copyOf(byte[] array, int newLength) {
+        byte[] newArray = new byte[newLength];
+        System.arraycopy(array, 0, newArray, 0, array.length);
+        return newArray;
+    }
+}
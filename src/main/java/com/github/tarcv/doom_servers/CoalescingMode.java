@@ -0,0 +1,69 @@
+package com.github.tarcv.doom_servers;
+
+import java.util.Locale;
+
+/**
+ * Which consecutive console lines {@link ConsoleBatcher} collapses into one entry with a repeat count
+ */
+public enum CoalescingMode {
+    /** Every line is sent */
+    OFF,
+
+    /** Identical lines */
+    EXACT,
+
+    /** Lines which differ only in numbers, e.g. 'Player 12 timed out' and 'Player 13 timed out'. The first one is sent */
+    TEMPLATE;
+
+    public boolean matches(String previous, String line) {
+        switch (this) {
+            case EXACT:
+                return previous.equals(line);
+            case TEMPLATE:
+                return sameTemplate(previous, line);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Parses values like 'exact'
+     */
+    public static CoalescingMode fromProperty(String value) {
+        try {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new ConfigurationException("Unknown console coalescing mode: " + value);
+        }
+    }
+
+    /**
+     * Compares the lines treating every run of digits as equal to any other run of digits
+     */
+    static boolean sameTemplate(String a, String b) {
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            char aChar = a.charAt(i);
+            char bChar = b.charAt(j);
+            if (isDigit(aChar) && isDigit(bChar)) {
+                do {
+                    i++;
+                } while (i < a.length() && isDigit(a.charAt(i)));
+                do {
+                    j++;
+                } while (j < b.length() && isDigit(b.charAt(j)));
+            } else if (aChar == bChar) {
+                i++;
+                j++;
+            } else {
+                return false;
+            }
+        }
+        return i == a.length() && j == b.length();
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
@@ -0,0 +1,261 @@
+package com.github.tarcv.doom_servers;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Executes console commands of one server. Any number of commands can be in flight at once.<br />
+ * Each command is wrapped with markers unique for it:
+ * <pre>
+ * echo DoomConsoleResultBegin:&lt;id&gt;
+ * &lt;command lines&gt;
+ * echo DoomConsoleResultEnd:&lt;id&gt;
+ * </pre>
+ * The engine executes stdin lines in order, so output between the markers of a command is its result.
+ * An end marker with an id other than the one of the current begin marker means marker lines were lost
+ * (e.g. dropped on overflow), both commands are then completed with the lines received so far.
+ * Once nobody waits for the current result (its command timed out), the result is left without its end marker,
+ * so a lost or cut off end marker doesn't hide the console. Lines outside results are passed to the console sink,
+ * stray end markers are dropped.<br />
+ * Results are streamed to the executing thread in chunks of {@link #CHUNK_LINES} lines as they arrive.
+ * Lines are held back till the next chunk is full and more output follows or the command completes, so a result
+ * of at most {@link #CHUNK_LINES} lines is always passed as one chunk however its output is spread in time.
+ * At most {@link #MAX_PENDING_LINES} lines wait for it per command, the rest are dropped and counted.
+ * The timeout is for inactivity: a command fails only when its output stops for that long.<br />
+ * {@link #onOutputLine(String)} must be called from one thread (the output reader).
+ * Markers are found by a {@link ConsoleScanner}, a caller which already scanned the line
+ * passes its result to {@link #onOutputLine(String, ConsoleScanner.Result)}.
+ */
+public class CommandPipeline implements OutputHandler {
+    static final String BEGIN_MARKER = "DoomConsoleResultBegin:";
+    static final String END_MARKER = "DoomConsoleResultEnd:";
+
+    /**
+     * Control plane used to append 'echo DoomConsoleResultEnd' to commands itself. Its output is not a part of results
+     */
+    static final String LEGACY_END_MARKER = "DoomConsoleResultEnd";
+
+    static final int CHUNK_LINES = 500;
+    static final int MAX_PENDING_LINES = 10000;
+
+    private static final ConsoleScanner MARKERS_SCANNER = ConsoleScanner.markersOnly();
+
+    private final ConsoleInput processInputSource;
+    private final OutputHandler consoleSink;
+    private final AtomicLong nextId = new AtomicLong();
+    private final ConcurrentMap<Long, ResultWaiter> waiters = new ConcurrentHashMap<>();
+
+    @Nullable
+    private ResultWaiter currentWaiter = null;
+    private long currentId = -1;
+    private boolean insideResult = false;
+    private final ConsoleScanner.Result scanResult = new ConsoleScanner.Result();
+
+    public CommandPipeline(ConsoleInput processInputSource, OutputHandler consoleSink) {
+        this.processInputSource = processInputSource;
+        this.consoleSink = consoleSink;
+    }
+
+    /**
+     * Executes the command and collects its whole result
+     */
+    public List<String> execute(List<String> command, long timeout, TimeUnit unit)
+            throws IOException, InterruptedException, TimeoutException {
+        List<String> result = new ArrayList<>();
+        execute(command, timeout, unit, result::addAll);
+        return result;
+    }
+
+    /**
+     * Executes the command passing its result to the consumer chunk by chunk, on the calling thread
+     * @param inactivityTimeout maximum time without new result lines
+     * @return number of result lines dropped because the consumer did not keep up
+     */
+    public long execute(List<String> command, long inactivityTimeout, TimeUnit unit, ChunkConsumer consumer)
+            throws IOException, InterruptedException, TimeoutException {
+        long id = nextId.incrementAndGet();
+        ResultWaiter waiter = new ResultWaiter();
+        waiters.put(id, waiter);
+        try {
+            List<String> lines = new ArrayList<>(command.size() + 2);
+            lines.add("echo " + BEGIN_MARKER + id);
+            lines.addAll(command);
+            lines.add("echo " + END_MARKER + id);
+            processInputSource.submit(lines);
+            List<String> chunk;
+            while ((chunk = waiter.awaitChunk(unit.toNanos(inactivityTimeout))) != null) {
+                consumer.onChunk(chunk);
+            }
+            return waiter.getDroppedLines();
+        } finally {
+            waiters.remove(id);
+        }
+    }
+
+    @Override
+    public void onOutputLine(String line) {
+        onOutputLine(line, MARKERS_SCANNER.scan(line, scanResult));
+    }
+
+    /**
+     * @param scan result of scanning this line with any {@link ConsoleScanner}
+     * @return true if the line was passed to the console sink, false if it belongs to a command result
+     */
+    public boolean onOutputLine(String line, ConsoleScanner.Result scan) {
+        int commandIdIndex = scan.getResultBeginEnd();
+        if (commandIdIndex >= 0) {
+            // waiter is null if its command already timed out, lines of such command are discarded
+            currentId = parseId(line, commandIdIndex);
+            currentWaiter = waiters.get(currentId);
+            insideResult = true;
+            return false;
+        }
+
+        if (insideResult && (currentWaiter == null || waiters.get(currentId) != currentWaiter)) {
+            // the command timed out or was never waited for, its end marker may never come
+            leaveResult();
+        }
+
+        if (scan.hasResultEnd()) {
+            long endId = parseId(line, scan.getResultEndEnd());
+            if (endId != currentId) {
+                if (insideResult) {
+                    System.err.println("Console result " + currentId + " ended with the marker of " + endId
+                            + ", marker lines were lost");
+                }
+                ResultWaiter endedWaiter = waiters.get(endId);
+                if (endedWaiter != null) {
+                    endedWaiter.onResultEnd();
+                }
+            }
+            if (currentWaiter != null) {
+                currentWaiter.onResultEnd();
+            }
+            leaveResult();
+            return false;
+        }
+
+        if (!insideResult) {
+            consoleSink.onOutputLine(line);
+            return true;
+        }
+
+        if (!scan.hasLegacyResultEnd()) {
+            currentWaiter.onResultLine(line);
+        }
+        return false;
+    }
+
+    private void leaveResult() {
+        currentWaiter = null;
+        currentId = -1;
+        insideResult = false;
+    }
+
+    /**
+     * @return number of commands waiting for their results
+     */
+    public int getPendingCount() {
+        return waiters.size();
+    }
+
+    private static long parseId(String line, int from) {
+        long id = 0;
+        for (int i = from; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            id = id * 10 + (c - '0');
+        }
+        return id;
+    }
+
+    public interface ChunkConsumer {
+        void onChunk(List<String> lines);
+    }
+
+    private static class ResultWaiter {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition chunkReady = lock.newCondition();
+        private final ArrayDeque<String> pendingLines = new ArrayDeque<>();
+        private boolean ended = false;
+        private long droppedLines = 0;
+        private long lastActivityNanos = System.nanoTime();
+
+        void onResultLine(String line) {
+            lock.lock();
+            try {
+                lastActivityNanos = System.nanoTime();
+                if (pendingLines.size() >= MAX_PENDING_LINES) {
+                    droppedLines++;
+                    return;
+                }
+                pendingLines.add(line);
+                if (pendingLines.size() == CHUNK_LINES + 1) {
+                    chunkReady.signal();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void onResultEnd() {
+            lock.lock();
+            try {
+                ended = true;
+                chunkReady.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * @return next chunk, null when the whole result is passed
+         */
+        @Nullable
+        List<String> awaitChunk(long inactivityTimeoutNanos) throws InterruptedException, TimeoutException {
+            lock.lock();
+            try {
+                // only a chunk followed by more lines is passed before the end
+                while (!ended && pendingLines.size() <= CHUNK_LINES) {
+                    long timeoutLeft = inactivityTimeoutNanos - (System.nanoTime() - lastActivityNanos);
+                    if (timeoutLeft <= 0) {
+                        throw new TimeoutException("Timed out waiting for console result");
+                    }
+                    chunkReady.awaitNanos(timeoutLeft);
+                }
+                if (pendingLines.isEmpty()) {
+                    return null;
+                }
+                List<String> chunk = new ArrayList<>(Math.min(pendingLines.size(), CHUNK_LINES));
+                while (!pendingLines.isEmpty() && chunk.size() < CHUNK_LINES) {
+                    chunk.add(pendingLines.poll());
+                }
+                return chunk;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        long getDroppedLines() {
+            lock.lock();
+            try {
+                return droppedLines;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
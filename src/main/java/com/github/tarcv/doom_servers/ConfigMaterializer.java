@@ -0,0 +1,256 @@
+package com.github.tarcv.doom_servers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Writes server config files into a work directory, skipping files whose content did not change.<br />
+ * A manifest of SHA-256 hashes, sizes and modification times of written files is persisted in the work directory,
+ * so restarts with the same configuration only hash the requested contents and stat the files.
+ * Changed files are written in parallel on a small pool of {@link #WRITER_THREADS} threads shared by all work
+ * directories (blocking file I/O is kept off the common ForkJoinPool), each to a temporary file which is then
+ * atomically renamed, so an engine never sees a half-written config.<br />
+ * There is one instance per work directory, materializations into the same directory are serialized.
+ */
+public class ConfigMaterializer {
+    static final String MANIFEST_FILE = ".config-manifest";
+    static final int WRITER_THREADS = 4;
+
+    private static final ThreadPoolExecutor writers = new ThreadPoolExecutor(
+            WRITER_THREADS, WRITER_THREADS, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+            Thread.ofPlatform().name("ConfigWriter-", 0).daemon(true).factory());
+
+    static {
+        writers.allowCoreThreadTimeOut(true);
+    }
+
+    private static final ConcurrentMap<Path, ConfigMaterializer> instances = new ConcurrentHashMap<>();
+
+    private final Path workDir;
+    private final Path manifestPath;
+
+    // guarded by this, loaded on the first use
+    private Map<String, Entry> manifest = null;
+
+    ConfigMaterializer(Path workDir) {
+        this.workDir = workDir.toAbsolutePath().normalize();
+        this.manifestPath = this.workDir.resolve(MANIFEST_FILE);
+    }
+
+    public static ConfigMaterializer forDirectory(Path workDir) {
+        return instances.computeIfAbsent(workDir.toAbsolutePath().normalize(), ConfigMaterializer::new);
+    }
+
+    /**
+     * @return number of files actually written
+     */
+    public synchronized int materialize(Map<String, List<String>> configs) throws IOException {
+        if (manifest == null) {
+            manifest = loadManifest();
+        }
+
+        List<Entry> changed = new ArrayList<>();
+        for (Map.Entry<String, List<String>> config : configs.entrySet()) {
+            Path configPath = resolve(config.getKey());
+            String name = workDir.relativize(configPath).toString();
+            byte[] content = encode(config.getValue());
+            Entry entry = new Entry(name, configPath, content, sha256(content));
+            if (!isUpToDate(entry)) {
+                changed.add(entry);
+            }
+        }
+        if (changed.isEmpty()) {
+            return 0;
+        }
+
+        // files written before a failure are rechecked next time as the manifest is not updated for them
+        writeAll(changed);
+
+        for (Entry entry : changed) {
+            entry.content = null;
+            manifest.put(entry.name, entry);
+        }
+        saveManifest();
+        return changed.size();
+    }
+
+    private Path resolve(String name) {
+        Path configPath = WorkDirPaths.resolve(workDir, name);
+        if (configPath.equals(manifestPath)) {
+            throw new IllegalArgumentException(name + " is an dangerous path. Discarding request as invalid");
+        }
+        // the file itself is replaced by a rename, a link in its place is replaced too, not followed
+        WorkDirPaths.checkNoSymbolicLinks(workDir, configPath.getParent());
+        return configPath;
+    }
+
+    private boolean isUpToDate(Entry entry) throws IOException {
+        Entry written = manifest.get(entry.name);
+        if (written == null || !written.hash.equals(entry.hash)) {
+            return false;
+        }
+        // the file could be changed or deleted by someone else since it was written
+        try {
+            return Files.size(entry.path) == written.size
+                    && Files.getLastModifiedTime(entry.path).toMillis() == written.lastModified;
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Writes the entries in parallel, returns after all writes are over
+     * @throws IOException the first failure, when any write failed
+     */
+    private static void writeAll(List<Entry> entries) throws IOException {
+        if (entries.size() == 1) {
+            write(entries.get(0));
+            return;
+        }
+
+        List<Future<?>> writes = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            writes.add(writers.submit(() -> {
+                write(entry);
+                return null;
+            }));
+        }
+        IOException failure = null;
+        boolean interrupted = false;
+        for (Future<?> write : writes) {
+            while (true) {
+                try {
+                    write.get();
+                    break;
+                } catch (InterruptedException e) {
+                    // the manifest must not be touched while writes are still running
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause() instanceof IOException
+                                ? (IOException) e.getCause()
+                                : new IOException("Failed to write configs", e.getCause());
+                    }
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static void write(Entry entry) throws IOException {
+        Path parent = entry.path.getParent();
+        Files.createDirectories(parent);
+        Path tempPath = Files.createTempFile(parent, "." + entry.path.getFileName(), ".tmp");
+        try {
+            Files.write(tempPath, entry.content);
+            moveAtomically(tempPath, entry.path);
+        } finally {
+            Files.deleteIfExists(tempPath);
+        }
+        entry.size = entry.content.length;
+        entry.lastModified = Files.getLastModifiedTime(entry.path).toMillis();
+    }
+
+    private static void moveAtomically(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Manifest lines are "hash size lastModified name", unreadable manifests are treated as empty
+     */
+    private Map<String, Entry> loadManifest() {
+        Map<String, Entry> entries = new HashMap<>();
+        if (!Files.exists(manifestPath)) {
+            return entries;
+        }
+        try {
+            for (String line : Files.readAllLines(manifestPath, StandardCharsets.UTF_8)) {
+                String[] parts = line.split(" ", 4);
+                if (parts.length != 4) {
+                    continue;
+                }
+                Entry entry = new Entry(parts[3], workDir.resolve(parts[3]), null, parts[0]);
+                entry.size = Long.parseLong(parts[1]);
+                entry.lastModified = Long.parseLong(parts[2]);
+                entries.put(entry.name, entry);
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Ignoring unreadable config manifest " + manifestPath + ": " + e.toString());
+            entries.clear();
+        }
+        return entries;
+    }
+
+    private void saveManifest() throws IOException {
+        List<String> lines = new ArrayList<>(manifest.size());
+        for (Entry entry : manifest.values()) {
+            lines.add(entry.hash + " " + entry.size + " " + entry.lastModified + " " + entry.name);
+        }
+        Path tempPath = Files.createTempFile(workDir, MANIFEST_FILE, ".tmp");
+        try {
+            Files.write(tempPath, lines, StandardCharsets.UTF_8);
+            moveAtomically(tempPath, manifestPath);
+        } finally {
+            Files.deleteIfExists(tempPath);
+        }
+    }
+
+    /**
+     * Same bytes as {@link Files#write(Path, Iterable, java.nio.charset.Charset, OpenOption...)} produces
+     */
+    private static byte[] encode(List<String> lines) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] separator = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+        for (String line : lines) {
+            byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+            output.write(bytes, 0, bytes.length);
+            output.write(separator, 0, separator.length);
+        }
+        return output.toByteArray();
+    }
+
+    private static String sha256(byte[] content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError("SHA-256 is always supported", e);
+        }
+    }
+
+    private static class Entry {
+        final String name;
+        final Path path;
+        final String hash;
+        byte[] content;
+        long size;
+        long lastModified;
+
+        Entry(String name, Path path, byte[] content, String hash) {
+            this.name = name;
+            this.path = path;
+            this.content = content;
+            this.hash = hash;
+        }
+    }
+}
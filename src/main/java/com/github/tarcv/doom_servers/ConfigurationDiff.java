@@ -0,0 +1,114 @@
+package com.github.tarcv.doom_servers;
+
+import java.util.*;
+
+/**
+ * Changes between the configuration of a running server and a new one, and whether they can be applied live.<br />
+ * The command line is split into engine parameters ('-' options with their values) and
+ * console commands ('+' arguments with their values). Changed or added console commands and changed '.cfg' files
+ * can be applied through the console: the commands are executed and the files are exec'ed after rewriting.
+ * Any change of engine parameters or of other files (nothing makes the engine reload them) requires a restart.
+ * Removed console commands and config files are not reverted, their current values stay.
+ */
+public class ConfigurationDiff {
+    private final boolean restartRequired;
+    private final List<String> consoleCommands;
+    private final List<String> changedConfigs;
+
+    private ConfigurationDiff(boolean restartRequired, List<String> consoleCommands, List<String> changedConfigs) {
+        this.restartRequired = restartRequired;
+        this.consoleCommands = Collections.unmodifiableList(consoleCommands);
+        this.changedConfigs = Collections.unmodifiableList(changedConfigs);
+    }
+
+    public static ConfigurationDiff between(ServerConfiguration current, ServerConfiguration next) {
+        List<String> currentParameters = new ArrayList<>();
+        Map<String, List<String>> currentCommands = new LinkedHashMap<>();
+        splitCommandline(current.getCommandline(), currentParameters, currentCommands);
+        List<String> nextParameters = new ArrayList<>();
+        Map<String, List<String>> nextCommands = new LinkedHashMap<>();
+        splitCommandline(next.getCommandline(), nextParameters, nextCommands);
+
+        if (!currentParameters.equals(nextParameters)) {
+            return new ConfigurationDiff(true, Collections.emptyList(), Collections.emptyList());
+        }
+
+        List<String> consoleCommands = new ArrayList<>();
+        nextCommands.forEach((name, commands) -> {
+            if (!commands.equals(currentCommands.get(name))) {
+                consoleCommands.addAll(commands);
+            }
+        });
+
+        List<String> changedConfigs = new ArrayList<>();
+        Map<String, List<String>> currentConfigs = current.getConfigs();
+        for (Map.Entry<String, List<String>> config : next.getConfigs().entrySet()) {
+            String name = config.getKey();
+            if (!config.getValue().equals(currentConfigs.get(name))) {
+                if (!name.endsWith(".cfg")) {
+                    return new ConfigurationDiff(true, Collections.emptyList(), Collections.emptyList());
+                }
+                changedConfigs.add(name);
+                consoleCommands.add("exec \"" + name.replace("\"", "\\\"") + "\"");
+            }
+        }
+        return new ConfigurationDiff(false, consoleCommands, changedConfigs);
+    }
+
+    /**
+     * Command line arguments before the first '-' or '+' one count as engine parameters.
+     * Values of console commands can start with '-' (e.g. negative numbers), only '-' followed by a letter
+     * starts an engine parameter
+     * @param commands console commands by name, in the order of their first occurrence
+     */
+    static void splitCommandline(List<String> commandline, List<String> parameters,
+                                 Map<String, List<String>> commands) {
+        List<String> commandArguments = null;
+        for (String argument : commandline) {
+            if (argument.startsWith("+")) {
+                addCommand(commandArguments, commands);
+                commandArguments = new ArrayList<>();
+                commandArguments.add(argument);
+            } else if (commandArguments == null || isOption(argument)) {
+                addCommand(commandArguments, commands);
+                commandArguments = null;
+                parameters.add(argument);
+            } else {
+                commandArguments.add(argument);
+            }
+        }
+        addCommand(commandArguments, commands);
+    }
+
+    private static boolean isOption(String argument) {
+        return argument.length() > 1 && argument.charAt(0) == '-' && Character.isLetter(argument.charAt(1));
+    }
+
+    private static void addCommand(List<String> commandArguments, Map<String, List<String>> commands) {
+        if (commandArguments == null) {
+            return;
+        }
+        List<String> converted = EngineProcessPool.toConsoleCommands(commandArguments);
+        assert converted != null && converted.size() == 1;
+        String name = commandArguments.get(0).substring(1);
+        commands.computeIfAbsent(name, key -> new ArrayList<>()).add(converted.get(0));
+    }
+
+    public boolean isRestartRequired() {
+        return restartRequired;
+    }
+
+    /**
+     * Commands applying the changes, executed in this order
+     */
+    public List<String> getConsoleCommands() {
+        return consoleCommands;
+    }
+
+    /**
+     * Names of added or changed config files
+     */
+    public List<String> getChangedConfigs() {
+        return changedConfigs;
+    }
+}
@@ -3,10 +3,31 @@ package com.github.tarcv.doom_servers;
 import com.github.tarcv.doom_servers.messages.Message;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * Created by TarCV on 12.11.2016.
  */
 public interface Connection {
+    /**
+     * Connects and serves the connection (reconnecting when needed) until the agent is disconnected by the server.
+     * Blocks the calling thread
+     */
+    void connect();
+
+    /**
+     * Sends a message right away, e.g. a response. Fails if there is no connection at the moment
+     */
     void send(Message message) throws IOException;
+
+    /**
+     * Queues a stream message (e.g. console output) for reliable delivery. Doesn't wait for the network,
+     * the message is kept and resent after reconnects till the server acknowledges it
+     */
+    void publish(Message message) throws IOException;
+
+    /**
+     * Sends a ready binary frame right away (e.g. a {@link FileTransfer} chunk). Fails if there is no connection
+     */
+    void sendBinary(ByteBuffer frame) throws IOException;
 }
@@ -6,4 +6,21 @@ import org.jetbrains.annotations.Nullable;
 public interface ConnectionListener {
     @Nullable
     Message onMessage(Message message) throws Throwable;
+
+    /**
+     * Messages with the same key are handled one by one in arrival order, see {@link MessageDispatcher}
+     * @return key of the message, null messages are handled in order with each other
+     */
+    @Nullable
+    default String getOrderingKey(Message message) {
+        return null;
+    }
+
+    /**
+     * Concurrent messages wait for the messages queued before them with the same ordering key,
+     * but not for each other, and the messages queued after them don't wait for them
+     */
+    default boolean isConcurrent(Message message) {
+        return false;
+    }
 }
@@ -0,0 +1,175 @@
+package com.github.tarcv.doom_servers;
+
+import com.github.tarcv.doom_servers.messages.ConsoleBuffer;
+import com.github.tarcv.doom_servers.messages.LineRepeat;
+import com.github.tarcv.doom_servers.messages.Message;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sends console output of one server as {@link ConsoleBuffer} batches.<br />
+ * A batch is flushed as soon as it has {@link Limits#maxLines} lines or {@link Limits#maxChars} characters,
+ * or when {@link Limits#lingerMillis} pass after its first line, whichever comes first.
+ * So quiet servers get low latency and spammy servers get reasonably sized batches.<br />
+ * Flushes run on a scheduler shared by all servers. Lines are buffered in a {@link ConsoleRingBuffer},
+ * so {@link #onOutputLine(String)} never blocks the engine output reader.<br />
+ * Consecutive lines matching by the {@link CoalescingMode} are counted into the buffered entry of the first one,
+ * as long as it is not taken by a flush yet. They are sent as one line with a {@link LineRepeat}
+ * giving the count and the first and last timestamps, so floods of the same line cost one entry per batch.
+ */
+public class ConsoleBatcher implements OutputHandler, AutoCloseable {
+    private static final LatencyHistogram BATCH_AGE = Metrics.get().histogram("console_batch_age");
+    private static final LongAdder COALESCED_LINES = Metrics.get().counter("console_coalesced_lines");
+
+    private final String serverId;
+    private final ConsoleRingBuffer buffer;
+    private final ScheduledExecutorService scheduler;
+    private final Connection connection;
+    private final Limits limits;
+    private final CoalescingMode coalescingMode;
+
+    private final AtomicBoolean lingerScheduled = new AtomicBoolean();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final AtomicLong pendingChars = new AtomicLong();
+    // System.nanoTime() of the first line after the last flush, 0 if there is none
+    private final AtomicLong oldestLineNanos = new AtomicLong();
+    private final List<String> batch = new ArrayList<>();
+    private final List<LineRepeat> batchRepeats = new ArrayList<>();
+    private volatile boolean closed = false;
+
+    // the latest buffered entry, only used by the output reader
+    @Nullable
+    private ConsoleLine lastLine = null;
+
+    public ConsoleBatcher(String serverId, ConsoleRingBuffer buffer, ScheduledExecutorService scheduler,
+                          Connection connection, Limits limits) {
+        this(serverId, buffer, scheduler, connection, limits, CoalescingMode.EXACT);
+    }
+
+    public ConsoleBatcher(String serverId, ConsoleRingBuffer buffer, ScheduledExecutorService scheduler,
+                          Connection connection, Limits limits, CoalescingMode coalescingMode) {
+        this.serverId = serverId;
+        this.buffer = buffer;
+        this.scheduler = scheduler;
+        this.connection = connection;
+        this.limits = limits;
+        this.coalescingMode = coalescingMode;
+    }
+
+    @Override
+    public void onOutputLine(String line) {
+        if (closed) {
+            return;
+        }
+        long timestamp = System.currentTimeMillis();
+        ConsoleLine previous = lastLine;
+        if (previous != null && coalescingMode.matches(previous.getText(), line) && previous.tryRepeat(timestamp)) {
+            // the entry is buffered and has a flush scheduled already
+            COALESCED_LINES.increment();
+            return;
+        }
+        ConsoleLine entry = new ConsoleLine(line, timestamp);
+        lastLine = buffer.offer(entry) ? entry : null;
+        if (oldestLineNanos.get() == 0) {
+            oldestLineNanos.compareAndSet(0, System.nanoTime());
+        }
+
+        long chars = pendingChars.addAndGet(line.length());
+        if (buffer.size() >= limits.maxLines || chars >= limits.maxChars) {
+            if (flushScheduled.compareAndSet(false, true)) {
+                scheduler.execute(this::flush);
+            }
+        } else if (lingerScheduled.compareAndSet(false, true)) {
+            scheduler.schedule(this::flush, limits.lingerMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Sends one batch of buffered lines. Called on the scheduler
+     */
+    void flush() {
+        // reset the triggers before draining, so lines added meanwhile schedule another flush
+        flushScheduled.set(false);
+        lingerScheduled.set(false);
+        pendingChars.set(0);
+        long oldestNanos = oldestLineNanos.getAndSet(0);
+        if (oldestNanos != 0) {
+            BATCH_AGE.recordSince(oldestNanos);
+        }
+
+        // wrap with try-catch to avoid killing scheduler threads
+        try {
+            synchronized (batch) {
+                if (drainBatch()) {
+                    Message message = new ConsoleBuffer(serverId, batch, batchRepeats);
+                    connection.publish(message);
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        // send the rest as a separate task, so one spammy server doesn't hold a shared thread
+        if (buffer.size() > 0 && flushScheduled.compareAndSet(false, true)) {
+            scheduler.execute(this::flush);
+        }
+    }
+
+    private boolean drainBatch() {
+        batch.clear();
+        batchRepeats.clear();
+        long chars = 0;
+        ConsoleLine line;
+        while (batch.size() < limits.maxLines && chars < limits.maxChars && (line = buffer.poll()) != null) {
+            line.seal();
+            int count = line.getCount();
+            if (count > 1) {
+                batchRepeats.add(new LineRepeat(batch.size(), count,
+                        line.getFirstTimestamp(), line.getLastTimestamp()));
+            }
+            batch.add(line.getText());
+            chars += line.getText().length();
+        }
+        return !batch.isEmpty();
+    }
+
+    public ConsoleRingBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Stops accepting lines and sends what is already buffered
+     */
+    @Override
+    public void close() {
+        closed = true;
+        scheduler.execute(this::flush);
+    }
+
+    public static class Limits {
+        final int maxLines;
+        final long maxChars;
+        final long lingerMillis;
+
+        public Limits(int maxLines, long maxChars, long lingerMillis) {
+            this.maxLines = maxLines;
+            this.maxChars = maxChars;
+            this.lingerMillis = lingerMillis;
+        }
+
+        public static Limits fromProperties(Properties properties) {
+            return new Limits(
+                    Integer.parseInt(properties.getProperty("console.batch.lines", "1000")),
+                    Long.parseLong(properties.getProperty("console.batch.chars", "65536")),
+                    Long.parseLong(properties.getProperty("console.batch.linger", "20")));
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.github.tarcv.doom_servers;
+
+import com.github.tarcv.doom_servers.messages.ConsoleEvent;
+import com.github.tarcv.doom_servers.messages.ConsoleEvents;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Publishes console events of all servers as {@link ConsoleEvents} batches instead of one message per line.<br />
+ * Events wait in a queue and are flushed on the shared scheduler {@link #LINGER_MILLIS} after the first one,
+ * at most {@link #MAX_BATCH} events per message. When {@link #MAX_QUEUED} events wait, new ones are dropped
+ * and counted. So a flood of matching lines never makes the output reader wait for the spool.
+ */
+public class ConsoleEventBatcher implements ConsoleEventListener {
+    static final int MAX_QUEUED = 10000;
+    static final int MAX_BATCH = 500;
+    static final long LINGER_MILLIS = 100;
+    private static final LongAdder DROPPED_EVENTS = Metrics.get().counter("console_events_dropped");
+
+    private final ScheduledExecutorService scheduler;
+    private final Connection connection;
+    private final ArrayBlockingQueue<ConsoleEvent> queue = new ArrayBlockingQueue<>(MAX_QUEUED);
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    public ConsoleEventBatcher(ScheduledExecutorService scheduler, Connection connection) {
+        this.scheduler = scheduler;
+        this.connection = connection;
+    }
+
+    @Override
+    public void onConsoleEvent(String serverId, ConsoleEventType type, long timestamp, String line) {
+        if (!queue.offer(new ConsoleEvent(serverId, type.name(), timestamp, line))) {
+            DROPPED_EVENTS.increment();
+            return;
+        }
+        if (flushScheduled.compareAndSet(false, true)) {
+            try {
+                scheduler.schedule(this::flush, LINGER_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // the agent is shutting down
+            }
+        }
+    }
+
+    void flush() {
+        // events queued after this schedule their own flush
+        flushScheduled.set(false);
+        List<ConsoleEvent> batch = new ArrayList<>();
+        while (queue.drainTo(batch, MAX_BATCH) > 0) {
+            try {
+                connection.publish(new ConsoleEvents(batch));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            batch = new ArrayList<>();
+        }
+    }
+}
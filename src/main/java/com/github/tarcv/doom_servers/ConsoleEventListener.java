@@ -0,0 +1,8 @@
+package com.github.tarcv.doom_servers;
+
+/**
+ * Receives events found in console output of a server, called on the output reader thread
+ */
+public interface ConsoleEventListener {
+    void onConsoleEvent(String serverId, ConsoleEventType type, long timestamp, String line);
+}
@@ -0,0 +1,33 @@
+package com.github.tarcv.doom_servers;
+
+import java.util.Locale;
+
+/**
+ * Kinds of events detected in engine console output, see {@link ConsoleScanner}
+ */
+public enum ConsoleEventType {
+    SERVER_READY("DoomServerReady"),
+    CONSOLE_READY("DoomConsoleReady"),
+    PLAYER_JOINED("entered the game|has connected"),
+    PLAYER_LEFT("left the game|disconnected|timed out"),
+    FRAG("was fragged by|was killed by|was telefragged by"),
+    MAP_CHANGED("*** MAP|Map changed to"),
+    WARNING("Warning:|WARNING:"),
+    ERROR("Error:|ERROR:|Script error");
+
+    /**
+     * Patterns used when the configuration has none, separated with '|'
+     */
+    final String defaultPatterns;
+
+    ConsoleEventType(String defaultPatterns) {
+        this.defaultPatterns = defaultPatterns;
+    }
+
+    /**
+     * Name of the property which overrides the default patterns, e.g. events.player_joined
+     */
+    String getPropertyName() {
+        return "events." + name().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,101 @@
+package com.github.tarcv.doom_servers;
+
+import com.github.tarcv.doom_servers.messages.SubscribeConsole;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Decides which console lines of a server are sent upstream, set by {@link SubscribeConsole}.<br />
+ * A line passes when the stream is enabled, its severity is at least the minimal one,
+ * and it starts with one of the prefixes or contains a match of the pattern (when any of them are set).
+ * Severity comes from the scan which was already done for the line, so the common cases cost nothing extra.<br />
+ * Instances are immutable.
+ */
+public class ConsoleFilter {
+    public static final ConsoleFilter ALL = new ConsoleFilter(true, ConsoleSeverity.INFO,
+            Collections.emptyList(), null);
+    public static final ConsoleFilter NONE = new ConsoleFilter(false, ConsoleSeverity.INFO,
+            Collections.emptyList(), null);
+
+    private final boolean enabled;
+    private final ConsoleSeverity minSeverity;
+    private final List<String> prefixes;
+    @Nullable
+    private final Pattern pattern;
+
+    public ConsoleFilter(boolean enabled, ConsoleSeverity minSeverity, List<String> prefixes, @Nullable Pattern pattern) {
+        this.enabled = enabled;
+        this.minSeverity = minSeverity;
+        this.prefixes = Collections.unmodifiableList(new ArrayList<>(prefixes));
+        this.pattern = pattern;
+    }
+
+    /**
+     * @throws InvalidMessageException if the severity or the pattern is invalid
+     */
+    public static ConsoleFilter fromMessage(SubscribeConsole subscription) throws InvalidMessageException {
+        if (!subscription.isEnabled()) {
+            return NONE;
+        }
+        List<String> prefixes = subscription.getPrefixes() != null
+                ? subscription.getPrefixes()
+                : Collections.emptyList();
+        Pattern pattern;
+        try {
+            pattern = subscription.getPattern() != null && !subscription.getPattern().isEmpty()
+                    ? Pattern.compile(subscription.getPattern())
+                    : null;
+        } catch (PatternSyntaxException e) {
+            throw new InvalidMessageException("Invalid console pattern: " + subscription.getPattern(), e);
+        }
+        ConsoleSeverity minSeverity;
+        try {
+            minSeverity = ConsoleSeverity.fromString(subscription.getMinSeverity());
+        } catch (IllegalArgumentException e) {
+            throw new InvalidMessageException(e.getMessage(), e);
+        }
+        return new ConsoleFilter(true, minSeverity, prefixes, pattern);
+    }
+
+    /**
+     * Parses 'all' or 'none'
+     */
+    public static ConsoleFilter fromProperty(String value) {
+        switch (value.trim().toLowerCase(Locale.ROOT)) {
+            case "all":
+                return ALL;
+            case "none":
+                return NONE;
+            default:
+                throw new ConfigurationException("Unknown console subscription: " + value);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean accepts(String line, ConsoleScanner.Result scan) {
+        if (!enabled) {
+            return false;
+        }
+        if (minSeverity != ConsoleSeverity.INFO && ConsoleSeverity.of(scan).compareTo(minSeverity) < 0) {
+            return false;
+        }
+        if (prefixes.isEmpty() && pattern == null) {
+            return true;
+        }
+        for (String prefix : prefixes) {
+            if (line.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return pattern != null && pattern.matcher(line).find();
+    }
+}
@@ -0,0 +1,376 @@
+package com.github.tarcv.doom_servers;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Console output of one server kept in rotating memory-mapped segment files.<br />
+ * Every line gets an offset (its number since the log was created) and a timestamp. Record layout:
+ * <pre>
+ * int     UTF-8 length + 1 (0 marks the end of the segment data)
+ * long    timestamp, milliseconds since the epoch
+ * byte[]  UTF-8 line
+ * </pre>
+ * Each segment keeps a sparse in-memory index (every {@link #INDEX_INTERVAL}th line) of offsets,
+ * timestamps and positions, rebuilt by scanning when the log is opened. So range reads by offset or time
+ * touch only the needed part of the files instead of loading them into heap.
+ * Only the newest {@code maxSegments} segments are kept, older ones are unmapped and deleted.<br />
+ * {@link #appendLater(String, long)} only queues the line, so console reading never waits for the files.
+ * Queued lines are written on the shared writer thread, at most {@link #MAX_QUEUED_LINES} wait per log
+ * and the rest are dropped. Reads write queued lines first.<br />
+ * {@link #close()} writes the queued lines and unmaps the segments, later lines are ignored and reads fail.
+ */
+public class ConsoleHistoryLog implements AutoCloseable {
+    static final int INDEX_INTERVAL = 64;
+    private static final int RECORD_HEADER_SIZE = 4 + 8;
+    private static final String SEGMENT_SUFFIX = ".log";
+    static final int MAX_QUEUED_LINES = 10000;
+    private static final LongAdder DROPPED_LINES = Metrics.get().counter("console_history_dropped_lines");
+    private static final Executor sharedWriter = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "ConsoleHistoryWriter");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final List<Segment> segments = new ArrayList<>();
+    private long nextOffset = 0;
+
+    private final Executor writer;
+    private final ConcurrentLinkedQueue<QueuedLine> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queuedCount = new AtomicInteger();
+    private final AtomicBoolean writeScheduled = new AtomicBoolean();
+    private volatile boolean closed = false;
+
+    public ConsoleHistoryLog(Path directory, int segmentSize, int maxSegments) throws IOException {
+        this(directory, segmentSize, maxSegments, sharedWriter);
+    }
+
+    ConsoleHistoryLog(Path directory, int segmentSize, int maxSegments, Executor writer) throws IOException {
+        this.writer = writer;
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+
+        Files.createDirectories(directory);
+        recoverSegments();
+    }
+
+    /**
+     * Queues the line to be appended on the writer thread. Never blocks
+     */
+    public void appendLater(String line, long timestamp) {
+        if (closed) {
+            return;
+        }
+        if (queuedCount.incrementAndGet() > MAX_QUEUED_LINES) {
+            queuedCount.decrementAndGet();
+            DROPPED_LINES.increment();
+            return;
+        }
+        queue.add(new QueuedLine(line, timestamp));
+        if (writeScheduled.compareAndSet(false, true)) {
+            writer.execute(this::writeQueued);
+        }
+    }
+
+    private void writeQueued() {
+        writeScheduled.set(false);
+        try {
+            synchronized (this) {
+                if (!closed) {
+                    appendQueued();
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        // a line queued after the flag was cleared has scheduled its own write
+    }
+
+    // guarded by this
+    private void appendQueued() throws IOException {
+        QueuedLine queued;
+        while ((queued = queue.poll()) != null) {
+            queuedCount.decrementAndGet();
+            append(queued.line, queued.timestamp);
+        }
+    }
+
+    public synchronized void append(String line, long timestamp) throws IOException {
+        checkOpen();
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        int recordSize = RECORD_HEADER_SIZE + bytes.length;
+        Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        // keep space for the end marker
+        if (segment == null || segment.writePosition + recordSize + 4 > segment.buffer.capacity()) {
+            segment = createSegment(nextOffset, Math.max(segmentSize, recordSize + 4));
+            while (segments.size() > maxSegments) {
+                Segment oldest = segments.remove(0);
+                MappedFiles.unmapAndDelete(oldest.buffer, oldest.path);
+            }
+        }
+
+        MappedByteBuffer buffer = segment.buffer;
+        int position = segment.writePosition;
+        buffer.putLong(position + 4, timestamp);
+        ByteBuffer target = buffer.duplicate();
+        target.position(position + RECORD_HEADER_SIZE);
+        target.put(bytes);
+        // length is written last, so a torn record is seen as the end of data on recovery
+        buffer.putInt(position, bytes.length + 1);
+
+        segment.onAppended(nextOffset, timestamp, position, recordSize);
+        nextOffset++;
+    }
+
+    /**
+     * @return up to maxLines lines starting with the given offset (or the oldest kept line if it is older)
+     */
+    public synchronized Range readFromOffset(long offset, int maxLines) throws IOException {
+        checkOpen();
+        appendQueued();
+        for (Segment segment : segments) {
+            if (offset < segment.firstOffset + segment.lineCount) {
+                long startOffset = Math.max(offset, segment.firstOffset);
+                return read(segment, startOffset, segment.findPositionByOffset(startOffset), maxLines);
+            }
+        }
+        return new Range(nextOffset);
+    }
+
+    /**
+     * @return up to maxLines lines starting with the first one logged at or after the given time
+     */
+    public synchronized Range readFromTime(long timestamp, int maxLines) throws IOException {
+        checkOpen();
+        appendQueued();
+        for (Segment segment : segments) {
+            if (segment.lineCount > 0 && timestamp <= segment.lastTimestamp) {
+                long[] found = segment.findByTime(timestamp);
+                return read(segment, found[0], (int) found[1], maxLines);
+            }
+        }
+        return new Range(nextOffset);
+    }
+
+    public synchronized long getNextOffset() throws IOException {
+        checkOpen();
+        appendQueued();
+        return nextOffset;
+    }
+
+    /**
+     * Writes the queued lines and unmaps the segments, their files are kept. Safe to call more than once
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            appendQueued();
+        } finally {
+            closed = true;
+            queue.clear();
+            for (Segment segment : segments) {
+                MappedFiles.unmap(segment.buffer);
+            }
+            segments.clear();
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Console history " + directory + " is closed");
+        }
+    }
+
+    private Range read(Segment segment, long offset, int position, int maxLines) {
+        Range range = new Range(offset);
+        byte[] bytes = new byte[256];
+        int segmentIndex = segments.indexOf(segment);
+        while (range.lines.size() < maxLines) {
+            if (position >= segment.writePosition) {
+                segmentIndex++;
+                if (segmentIndex >= segments.size()) {
+                    break;
+                }
+                segment = segments.get(segmentIndex);
+                position = 0;
+                continue;
+            }
+
+            ByteBuffer buffer = segment.buffer;
+            int length = buffer.getInt(position) - 1;
+            if (bytes.length < length) {
+                bytes = new byte[length];
+            }
+            ByteBuffer source = buffer.duplicate();
+            source.position(position + RECORD_HEADER_SIZE);
+            source.get(bytes, 0, length);
+
+            range.timestamps.add(buffer.getLong(position + 4));
+            range.lines.add(new String(bytes, 0, length, StandardCharsets.UTF_8));
+            position += RECORD_HEADER_SIZE + length;
+        }
+        return range;
+    }
+
+    private Segment createSegment(long firstOffset, int size) throws IOException {
+        Path path = directory.resolve(String.format("%020d%s", firstOffset, SEGMENT_SUFFIX));
+        Segment segment = new Segment(path, firstOffset, MappedFiles.map(path, size));
+        segments.add(segment);
+        return segment;
+    }
+
+    private void recoverSegments() throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            stream.forEach(paths::add);
+        }
+        paths.sort(null);
+
+        for (Path path : paths) {
+            long firstOffset = Long.parseLong(path.getFileName().toString().replace(SEGMENT_SUFFIX, ""));
+            Segment segment = new Segment(path, firstOffset, MappedFiles.map(path, (int) Files.size(path)));
+            ByteBuffer buffer = segment.buffer;
+            int position = 0;
+            long offset = firstOffset;
+            while (position + RECORD_HEADER_SIZE <= buffer.capacity()) {
+                int lengthPlusOne = buffer.getInt(position);
+                int recordSize = RECORD_HEADER_SIZE + lengthPlusOne - 1;
+                if (lengthPlusOne <= 0 || position + recordSize > buffer.capacity()) {
+                    break;
+                }
+                segment.onAppended(offset++, buffer.getLong(position + 4), position, recordSize);
+                position += recordSize;
+            }
+            segments.add(segment);
+            nextOffset = offset;
+        }
+    }
+
+    /**
+     * Consecutive lines starting with {@link #getFirstOffset()}
+     */
+    public static class Range {
+        private final long firstOffset;
+        private final List<Long> timestamps = new ArrayList<>();
+        private final List<String> lines = new ArrayList<>();
+
+        Range(long firstOffset) {
+            this.firstOffset = firstOffset;
+        }
+
+        public long getFirstOffset() {
+            return firstOffset;
+        }
+
+        public List<Long> getTimestamps() {
+            return timestamps;
+        }
+
+        public List<String> getLines() {
+            return lines;
+        }
+    }
+
+    private static class QueuedLine {
+        final String line;
+        final long timestamp;
+
+        QueuedLine(String line, long timestamp) {
+            this.line = line;
+            this.timestamp = timestamp;
+        }
+    }
+
+    private static class Segment {
+        final Path path;
+        final long firstOffset;
+        final MappedByteBuffer buffer;
+        int writePosition = 0;
+        long lineCount = 0;
+        long lastTimestamp = Long.MIN_VALUE;
+
+        // sparse index, entry i describes line firstOffset + i * INDEX_INTERVAL
+        long[] indexTimestamps = new long[16];
+        int[] indexPositions = new int[16];
+        int indexSize = 0;
+
+        Segment(Path path, long firstOffset, MappedByteBuffer buffer) {
+            this.path = path;
+            this.firstOffset = firstOffset;
+            this.buffer = buffer;
+        }
+
+        void onAppended(long offset, long timestamp, int position, int recordSize) {
+            // clocks can go back, keep indexed timestamps monotonic for the binary search
+            lastTimestamp = Math.max(lastTimestamp, timestamp);
+            if ((offset - firstOffset) % INDEX_INTERVAL == 0) {
+                if (indexSize == indexPositions.length) {
+                    indexTimestamps = Arrays.copyOf(indexTimestamps, indexSize * 2);
+                    indexPositions = Arrays.copyOf(indexPositions, indexSize * 2);
+                }
+                indexTimestamps[indexSize] = lastTimestamp;
+                indexPositions[indexSize] = position;
+                indexSize++;
+            }
+            writePosition = position + recordSize;
+            lineCount++;
+        }
+
+        int findPositionByOffset(long offset) {
+            int entry = (int) ((offset - firstOffset) / INDEX_INTERVAL);
+            int position = indexPositions[entry];
+            for (long current = firstOffset + (long) entry * INDEX_INTERVAL; current < offset; current++) {
+                position += RECORD_HEADER_SIZE + buffer.getInt(position) - 1;
+            }
+            return position;
+        }
+
+        /**
+         * @return offset and position of the first line logged at or after the timestamp
+         */
+        long[] findByTime(long timestamp) {
+            // last index entry older than the timestamp, the line is after it
+            int low = 0;
+            int high = indexSize - 1;
+            int entry = 0;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                if (indexTimestamps[middle] < timestamp) {
+                    entry = middle;
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+
+            long offset = firstOffset + (long) entry * INDEX_INTERVAL;
+            int position = indexPositions[entry];
+            while (position < writePosition && buffer.getLong(position + 4) < timestamp) {
+                position += RECORD_HEADER_SIZE + buffer.getInt(position) - 1;
+                offset++;
+            }
+            return new long[]{offset, position};
+        }
+    }
+}
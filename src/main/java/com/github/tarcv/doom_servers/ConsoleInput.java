@@ -0,0 +1,134 @@
+package com.github.tarcv.doom_servers;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Writes console commands straight to the stdin of an engine process.<br />
+ * Submitted lines are queued, and the thread which gets the write lock writes everything queued so far
+ * with one write and one flush. So commands submitted at the same time (e.g. lines of one {@link CommandPipeline}
+ * command together with its markers, or commands to the same server from several threads) cost one system call.
+ * Lines of one submission are always written together and submissions are written in order.<br />
+ * {@link #submit(List)} returns after its lines are written and fails if the write of its lines failed,
+ * whichever thread did the write. The time from submit to write is recorded
+ * in the 'console_input_latency' histogram. The optional write listener is called after each write,
+ * e.g. to make the {@link ConsolePoller} look for the response right away.
+ */
+public class ConsoleInput implements AutoCloseable {
+    private static final LatencyHistogram SUBMIT_TO_WRITE = Metrics.get().histogram("console_input_latency");
+    private static final LongAdder WRITES = Metrics.get().counter("console_input_writes");
+
+    private final OutputStream stream;
+    private final Charset charset;
+    private final ConcurrentLinkedQueue<Submission> queue = new ConcurrentLinkedQueue<>();
+    private final ReentrantLock writeLock = new ReentrantLock();
+    // guarded by writeLock
+    private final StringBuilder text = new StringBuilder();
+    private final Submission[] batch = new Submission[64];
+    private final Runnable writeListener;
+    private volatile boolean closed = false;
+
+    public ConsoleInput(OutputStream stream, Charset charset) {
+        this(stream, charset, () -> {
+        });
+    }
+
+    public ConsoleInput(OutputStream stream, Charset charset, Runnable writeListener) {
+        this.stream = stream;
+        this.charset = charset;
+        this.writeListener = writeListener;
+    }
+
+    public void submit(String line) throws IOException {
+        submit(Collections.singletonList(line));
+    }
+
+    public void submit(List<String> lines) throws IOException {
+        if (closed) {
+            throw new IOException("Console input is closed");
+        }
+        Submission submission = new Submission(lines, System.nanoTime());
+        queue.add(submission);
+        IOException failure;
+        writeLock.lock();
+        try {
+            // empty if the previous lock holder already wrote this submission
+            drain();
+            failure = submission.failure;
+        } finally {
+            writeLock.unlock();
+        }
+        if (failure != null) {
+            throw new IOException("Failed to write console input: " + failure.getMessage(), failure);
+        }
+    }
+
+    /**
+     * Writes everything queued. A failed write fails only the submissions written with it
+     */
+    private void drain() {
+        while (!queue.isEmpty()) {
+            text.setLength(0);
+            int submissions = 0;
+            Submission submission;
+            while (submissions < batch.length && (submission = queue.poll()) != null) {
+                for (String line : submission.lines) {
+                    text.append(line).append('\n');
+                }
+                batch[submissions++] = submission;
+            }
+
+            try {
+                stream.write(text.toString().getBytes(charset));
+                stream.flush();
+                WRITES.increment();
+                for (int i = 0; i < submissions; i++) {
+                    SUBMIT_TO_WRITE.recordSince(batch[i].submitNanos);
+                }
+                writeListener.run();
+            } catch (IOException e) {
+                for (int i = 0; i < submissions; i++) {
+                    batch[i].failure = e;
+                }
+            }
+            for (int i = 0; i < submissions; i++) {
+                batch[i] = null;
+            }
+        }
+    }
+
+    /**
+     * @return number of submissions waiting to be written
+     */
+    int getQueuedCount() {
+        return queue.size();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            stream.close();
+        } catch (IOException e) {
+            // the process is already gone
+        }
+    }
+
+    private static class Submission {
+        final List<String> lines;
+        final long submitNanos;
+        // guarded by writeLock
+        IOException failure;
+
+        Submission(List<String> lines, long submitNanos) {
+            this.lines = lines;
+            this.submitNanos = submitNanos;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.github.tarcv.doom_servers;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Entry of {@link ConsoleRingBuffer}: a console line and how many times it was repeated in a row.<br />
+ * While the entry is buffered, the output reader can count more repeats into it with {@link #tryRepeat(long)}
+ * instead of buffering copies. The sender {@link #seal() seals} the entry when it takes it, after that
+ * repeats go to a new entry. The count and the last timestamp are kept in one atomic word,
+ * so a sealed entry never misses or half-applies a repeat.
+ */
+public class ConsoleLine {
+    static final int MAX_COUNT = (1 << 22) - 1;
+    private static final int COUNT_BITS = 22;
+    private static final long COUNT_MASK = MAX_COUNT;
+    // what fits in the bits left after the count and the sealed (sign) bit
+    private static final long MAX_TIMESTAMP_DELTA = (1L << (63 - COUNT_BITS)) - 1;
+    private static final AtomicLongFieldUpdater<ConsoleLine> STATE =
+            AtomicLongFieldUpdater.newUpdater(ConsoleLine.class, "state");
+
+    private final String text;
+    private final long firstTimestamp;
+    // bits 0-21: count, bits 22-62: milliseconds from the first timestamp to the last one, sign bit: sealed
+    private volatile long state = 1;
+
+    public ConsoleLine(String text, long timestamp) {
+        this.text = text;
+        this.firstTimestamp = timestamp;
+    }
+
+    /**
+     * Counts one more occurrence of this line
+     * @return false if the entry is sealed or full, so the occurrence should be buffered as a new entry
+     */
+    public boolean tryRepeat(long timestamp) {
+        long delta = Math.max(0, timestamp - firstTimestamp);
+        if (delta > MAX_TIMESTAMP_DELTA) {
+            return false;
+        }
+        while (true) {
+            long current = state;
+            long count = current & COUNT_MASK;
+            if (current < 0 || count == MAX_COUNT) {
+                return false;
+            }
+            if (STATE.compareAndSet(this, current, (delta << COUNT_BITS) | (count + 1))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Stops counting repeats into this entry. Safe to call more than once
+     */
+    public void seal() {
+        while (true) {
+            long current = state;
+            if (current < 0 || STATE.compareAndSet(this, current, current | Long.MIN_VALUE)) {
+                return;
+            }
+        }
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public int getCount() {
+        return (int) (state & COUNT_MASK);
+    }
+
+    public long getFirstTimestamp() {
+        return firstTimestamp;
+    }
+
+    public long getLastTimestamp() {
+        return firstTimestamp + ((state & Long.MAX_VALUE) >>> COUNT_BITS);
+    }
+}
@@ -0,0 +1,146 @@
+package com.github.tarcv.doom_servers;
+
+import java.io.IOException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Reads output streams of all engine processes on one shared thread.<br />
+ * Blocking reads of process pipes occupy a platform thread each, even on a virtual thread
+ * (the JDK compensates blocked carriers with new ones). Instead, registered streams are polled
+ * with {@link LineReader#readAvailable()}, which never blocks.<br />
+ * Each stream has its own backoff: a stream which had data is polled again right away, an idle one
+ * is polled after an interval doubling from {@link #MIN_PARK_NANOS} up to {@link #MAX_PARK_NANOS}.
+ * {@link #wakeUp(Process)} resets the backoff of the streams of one process, it is called when a command is written
+ * to the engine, so command results are read within about the time the engine takes to print them.<br />
+ * The cost of idle servers: their unprompted output (e.g. a player joining) is read up to {@link #MAX_PARK_NANOS}
+ * late, and each of them still costs two non-blocking available() calls per {@link #MAX_PARK_NANOS}
+ * (10 system calls a second per server). Busy servers are read without delay.<br />
+ * The thread only reads and splits lines, readers should pass them to a {@link LineHandoff},
+ * so slow handlers of one server do not delay reading of others.<br />
+ * After a process exits, its remaining output is read to EOF on a short-lived virtual thread,
+ * so a pipe kept open by a child of the engine cannot stall the poller.
+ */
+public class ConsolePoller implements Runnable {
+    static final long MIN_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+
+    private static final ConsolePoller shared = new ConsolePoller();
+
+    private final CopyOnWriteArrayList<Registration> registrations = new CopyOnWriteArrayList<>();
+    private volatile Thread thread;
+
+    public static ConsolePoller getShared() {
+        return shared;
+    }
+
+    /**
+     * Starts polling the reader till its stream ends or the process exits
+     */
+    public void register(LineReader reader, Process process) {
+        registrations.add(new Registration(reader, process));
+        ensureStarted();
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Makes the next poll of the streams of the process happen right away
+     */
+    public void wakeUp(Process process) {
+        Thread pollerThread = thread;
+        if (pollerThread == null) {
+            return;
+        }
+        for (Registration registration : registrations) {
+            if (registration.process == process) {
+                registration.wokenUp = true;
+            }
+        }
+        LockSupport.unpark(pollerThread);
+    }
+
+    public int getRegisteredCount() {
+        return registrations.size();
+    }
+
+    private synchronized void ensureStarted() {
+        if (thread == null) {
+            thread = Thread.ofPlatform()
+                    .name("ConsolePoller")
+                    .daemon(true)
+                    .start(this);
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            long now = System.nanoTime();
+            long parkNanos = MAX_PARK_NANOS;
+            for (Registration registration : registrations) {
+                if (registration.wokenUp) {
+                    registration.wokenUp = false;
+                    registration.intervalNanos = MIN_PARK_NANOS;
+                    registration.nextPollNanos = now;
+                }
+                if (now - registration.nextPollNanos >= 0) {
+                    if (poll(registration)) {
+                        // there may be more, poll again without parking
+                        registration.intervalNanos = MIN_PARK_NANOS;
+                        registration.nextPollNanos = now;
+                    } else {
+                        registration.nextPollNanos = now + registration.intervalNanos;
+                        registration.intervalNanos = Math.min(registration.intervalNanos * 2, MAX_PARK_NANOS);
+                    }
+                }
+                parkNanos = Math.min(parkNanos, registration.nextPollNanos - now);
+            }
+
+            if (parkNanos > 0) {
+                LockSupport.parkNanos(this, parkNanos);
+            }
+        }
+    }
+
+    /**
+     * @return true if some output was read
+     */
+    private boolean poll(Registration registration) {
+        try {
+            int readBytes = registration.reader.readAvailable();
+            if (readBytes > 0) {
+                return true;
+            } else if (readBytes < 0) {
+                registrations.remove(registration);
+            } else if (!registration.process.isAlive()) {
+                registrations.remove(registration);
+                Thread.ofVirtual()
+                        .name("ConsoleDrain")
+                        .start(registration.reader);
+            }
+        } catch (IOException e) {
+            // the stream is closed, usually by Process.destroy() before the process is actually gone
+            registrations.remove(registration);
+            registration.reader.finish();
+        } catch (RuntimeException e) {
+            // should not stop polling of other streams
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    private static class Registration {
+        final LineReader reader;
+        final Process process;
+        volatile boolean wokenUp = false;
+        // used by the poller thread only
+        long intervalNanos = MIN_PARK_NANOS;
+        long nextPollNanos = System.nanoTime();
+
+        Registration(LineReader reader, Process process) {
+            this.reader = reader;
+            this.process = process;
+        }
+    }
+}
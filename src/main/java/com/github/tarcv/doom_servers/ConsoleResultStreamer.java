@@ -0,0 +1,70 @@
+package com.github.tarcv.doom_servers;
+
+import com.github.tarcv.doom_servers.messages.ConsoleResult;
+import com.github.tarcv.doom_servers.messages.ConsoleResultChunk;
+import com.github.tarcv.doom_servers.messages.ConsoleResultEnd;
+import com.github.tarcv.doom_servers.messages.Message;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Sends the result of one console command as it arrives.<br />
+ * A result which fits into one chunk is returned as a plain {@link ConsoleResult}, like before streaming existed.
+ * A longer one is sent as {@link ConsoleResultChunk}s numbered from 0 and completed with {@link ConsoleResultEnd}.
+ * All of them carry the correlation id of the command.
+ */
+public class ConsoleResultStreamer implements CommandPipeline.ChunkConsumer {
+    private final Connection connection;
+    private final String correlationId;
+
+    // held back till it is clear the result doesn't fit into one message
+    @Nullable
+    private List<String> firstChunk = null;
+    private int sentChunks = 0;
+    private long sentLines = 0;
+
+    public ConsoleResultStreamer(Connection connection, String correlationId) {
+        this.connection = connection;
+        this.correlationId = correlationId;
+    }
+
+    @Override
+    public void onChunk(List<String> lines) {
+        if (sentChunks == 0 && firstChunk == null) {
+            firstChunk = lines;
+            return;
+        }
+        if (firstChunk != null) {
+            send(firstChunk);
+            firstChunk = null;
+        }
+        send(lines);
+    }
+
+    /**
+     * @return message completing the result
+     */
+    public Message finish(long droppedLines) {
+        if (sentChunks == 0) {
+            return new ConsoleResult(firstChunk != null ? firstChunk : Collections.emptyList());
+        }
+        return new ConsoleResultEnd(sentChunks, sentLines, droppedLines);
+    }
+
+    private void send(List<String> lines) {
+        ConsoleResultChunk chunk = new ConsoleResultChunk(sentChunks, lines);
+        chunk.setCorrelationId(correlationId);
+        try {
+            connection.send(chunk);
+        } catch (IOException e) {
+            // stops the command, the control plane will not get the rest anyway
+            throw new UncheckedIOException(e);
+        }
+        sentChunks++;
+        sentLines += lines.size();
+    }
+}
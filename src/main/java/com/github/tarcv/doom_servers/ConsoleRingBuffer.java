@@ -0,0 +1,157 @@
+package com.github.tarcv.doom_servers;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free queue of console lines between an engine output reader and the console sender
+ * (a bounded MPMC array queue in the style of D. Vyukov's one).<br />
+ * {@link #offer(ConsoleLine)} never blocks, so a slow connection cannot stall the engine. When the buffer is full
+ * the configured {@link OverflowPolicy} decides which lines are lost, and every lost line is counted
+ * (with its repeats, see {@link ConsoleLine}).
+ */
+public class ConsoleRingBuffer {
+    static final String DROPPED_LINES_SUMMARY = "[agent] %d console lines dropped";
+
+    private final AtomicReferenceArray<ConsoleLine> lines;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final OverflowPolicy overflowPolicy;
+    private final AtomicLong droppedLines = new AtomicLong();
+    private final AtomicLong unreportedDroppedLines = new AtomicLong();
+
+    /**
+     * @param capacity is rounded up to a power of two
+     */
+    public ConsoleRingBuffer(int capacity, OverflowPolicy overflowPolicy) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("Capacity should be at least 2");
+        }
+        int actualCapacity = Integer.highestOneBit(capacity - 1) << 1;
+        this.lines = new AtomicReferenceArray<>(actualCapacity);
+        this.sequences = new AtomicLongArray(actualCapacity);
+        for (int i = 0; i < actualCapacity; i++) {
+            sequences.set(i, i);
+        }
+        this.mask = actualCapacity - 1;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Adds a line, applying the overflow policy if the buffer is full. Never blocks
+     * @return false if the line was dropped
+     */
+    public boolean offer(ConsoleLine line) {
+        if (OverflowPolicy.SUMMARIZE == overflowPolicy && unreportedDroppedLines.get() > 0) {
+            long unreported = unreportedDroppedLines.get();
+            ConsoleLine summary = new ConsoleLine(String.format(DROPPED_LINES_SUMMARY, unreported),
+                    line.getFirstTimestamp());
+            if (!tryOffer(summary)) {
+                onDropped(line);
+                return false;
+            }
+            unreportedDroppedLines.addAndGet(-unreported);
+        }
+
+        while (!tryOffer(line)) {
+            if (OverflowPolicy.DROP_OLDEST == overflowPolicy) {
+                ConsoleLine oldest = poll();
+                if (oldest != null) {
+                    onDropped(oldest);
+                }
+            } else {
+                onDropped(line);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Moves up to maxLines entries to the target in FIFO order
+     * @return number of moved entries
+     */
+    public int drainTo(Collection<? super ConsoleLine> target, int maxLines) {
+        int drained = 0;
+        ConsoleLine line;
+        while (drained < maxLines && (line = poll()) != null) {
+            target.add(line);
+            drained++;
+        }
+        return drained;
+    }
+
+    @Nullable
+    public ConsoleLine poll() {
+        while (true) {
+            long position = head.get();
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - (position + 1);
+            if (difference == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    ConsoleLine line = lines.get(index);
+                    lines.lazySet(index, null);
+                    sequences.lazySet(index, position + mask + 1);
+                    return line;
+                }
+            } else if (difference < 0) {
+                return null;
+            }
+        }
+    }
+
+    private boolean tryOffer(ConsoleLine line) {
+        while (true) {
+            long position = tail.get();
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    lines.lazySet(index, line);
+                    sequences.lazySet(index, position + 1);
+                    return true;
+                }
+            } else if (difference < 0) {
+                return false;
+            }
+        }
+    }
+
+    private void onDropped(ConsoleLine line) {
+        line.seal();
+        int count = line.getCount();
+        droppedLines.addAndGet(count);
+        if (OverflowPolicy.SUMMARIZE == overflowPolicy) {
+            unreportedDroppedLines.addAndGet(count);
+        }
+    }
+
+    /**
+     * Approximate number of buffered entries
+     */
+    public int size() {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, mask + 1));
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Total number of lines lost because the buffer was full
+     */
+    public long getDroppedLines() {
+        return droppedLines.get();
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+}
@@ -0,0 +1,142 @@
+package com.github.tarcv.doom_servers;
+
+import java.util.*;
+
+/**
+ * Finds command result markers of {@link CommandPipeline} and {@link ConsoleEventType} patterns
+ * in a console line with a single pass of one {@link MultiPatternMatcher}.<br />
+ * Patterns of each event type can be configured with {@code events.<type>} properties
+ * (e.g. {@code events.player_joined}), separated with '|'.
+ * A pattern can belong to several event types, a line matching it gets all of them.
+ * The scanner is immutable, {@link Result}s are reused by their single owner thread.
+ */
+public class ConsoleScanner {
+    private final MultiPatternMatcher<List<Object>> matcher;
+
+    public ConsoleScanner(Map<ConsoleEventType, List<String>> eventPatterns) {
+        Map<String, List<Object>> patterns = new LinkedHashMap<>();
+        eventPatterns.forEach((type, typePatterns) -> {
+            for (String pattern : typePatterns) {
+                addPattern(patterns, pattern, type);
+            }
+        });
+        addPattern(patterns, CommandPipeline.BEGIN_MARKER, Marker.RESULT_BEGIN);
+        addPattern(patterns, CommandPipeline.END_MARKER, Marker.RESULT_END);
+        addPattern(patterns, CommandPipeline.LEGACY_END_MARKER, Marker.LEGACY_RESULT_END);
+        matcher = new MultiPatternMatcher<>(patterns);
+    }
+
+    private static void addPattern(Map<String, List<Object>> patterns, String pattern, Object value) {
+        List<Object> values = patterns.computeIfAbsent(pattern, key -> new ArrayList<>(1));
+        if (!values.contains(value)) {
+            values.add(value);
+        }
+    }
+
+    /**
+     * Scanner of result markers only
+     */
+    public static ConsoleScanner markersOnly() {
+        return new ConsoleScanner(Collections.emptyMap());
+    }
+
+    public static ConsoleScanner fromProperties(Properties properties) {
+        Map<ConsoleEventType, List<String>> eventPatterns = new EnumMap<>(ConsoleEventType.class);
+        for (ConsoleEventType type : ConsoleEventType.values()) {
+            String patterns = properties.getProperty(type.getPropertyName(), type.defaultPatterns);
+            List<String> typePatterns = new ArrayList<>();
+            for (String pattern : patterns.split("\\|")) {
+                if (!pattern.isEmpty()) {
+                    typePatterns.add(pattern);
+                }
+            }
+            eventPatterns.put(type, typePatterns);
+        }
+        return new ConsoleScanner(eventPatterns);
+    }
+
+    /**
+     * @return the given result filled for the line
+     */
+    public Result scan(String line, Result result) {
+        result.clear();
+        matcher.scan(line, result);
+        return result;
+    }
+
+    enum Marker {
+        RESULT_BEGIN,
+        RESULT_END,
+        LEGACY_RESULT_END
+    }
+
+    /**
+     * What was found in one line
+     */
+    public static class Result implements MultiPatternMatcher.MatchListener<List<Object>> {
+        private int resultBeginEnd;
+        private int resultEndEnd;
+        private boolean legacyResultEnd;
+        private int events;
+
+        @Override
+        public void onMatch(List<Object> values, int start, int end) {
+            for (int i = 0; i < values.size(); i++) {
+                onMatch(values.get(i), end);
+            }
+        }
+
+        private void onMatch(Object value, int end) {
+            if (value instanceof ConsoleEventType) {
+                events |= 1 << ((ConsoleEventType) value).ordinal();
+            } else if (Marker.RESULT_BEGIN == value) {
+                if (resultBeginEnd < 0) {
+                    resultBeginEnd = end;
+                }
+            } else if (Marker.RESULT_END == value) {
+                if (resultEndEnd < 0) {
+                    resultEndEnd = end;
+                }
+            } else if (Marker.LEGACY_RESULT_END == value) {
+                legacyResultEnd = true;
+            }
+        }
+
+        void clear() {
+            resultBeginEnd = -1;
+            resultEndEnd = -1;
+            legacyResultEnd = false;
+            events = 0;
+        }
+
+        /**
+         * @return index after the first begin marker (where the command id starts), -1 if there is none
+         */
+        public int getResultBeginEnd() {
+            return resultBeginEnd;
+        }
+
+        public boolean hasResultEnd() {
+            return resultEndEnd >= 0;
+        }
+
+        /**
+         * @return index after the first end marker (where the command id starts), -1 if there is none
+         */
+        public int getResultEndEnd() {
+            return resultEndEnd;
+        }
+
+        public boolean hasLegacyResultEnd() {
+            return legacyResultEnd;
+        }
+
+        public boolean hasEvents() {
+            return events != 0;
+        }
+
+        public boolean hasEvent(ConsoleEventType type) {
+            return (events & (1 << type.ordinal())) != 0;
+        }
+    }
+}
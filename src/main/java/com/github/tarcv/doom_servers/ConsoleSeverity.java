@@ -0,0 +1,38 @@
+package com.github.tarcv.doom_servers;
+
+import java.util.Locale;
+
+/**
+ * Severity of a console line, derived from the {@link ConsoleEventType#WARNING} and {@link ConsoleEventType#ERROR}
+ * patterns. Ordered from the least severe
+ */
+public enum ConsoleSeverity {
+    INFO,
+    WARNING,
+    ERROR;
+
+    public static ConsoleSeverity of(ConsoleScanner.Result scan) {
+        if (scan.hasEvent(ConsoleEventType.ERROR)) {
+            return ERROR;
+        } else if (scan.hasEvent(ConsoleEventType.WARNING)) {
+            return WARNING;
+        } else {
+            return INFO;
+        }
+    }
+
+    /**
+     * Parses values like 'warning', null means {@link #INFO}
+     * @throws IllegalArgumentException if the value is not a severity
+     */
+    public static ConsoleSeverity fromString(String value) {
+        if (value == null) {
+            return INFO;
+        }
+        try {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown console severity: " + value);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.github.tarcv.doom_servers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Spreads engine processes over a set of CPUs, one CPU per server.
+ * Each server gets the CPU with the fewest servers on it (the lowest one on ties),
+ * so servers only share a CPU when there are more servers than CPUs.
+ */
+public class CpuAllocator {
+    private final List<Integer> cpus;
+    private final int[] loads;
+
+    public CpuAllocator(List<Integer> cpus) {
+        if (cpus.isEmpty()) {
+            throw new ConfigurationException("No CPUs to allocate for engines");
+        }
+        this.cpus = Collections.unmodifiableList(new ArrayList<>(cpus));
+        this.loads = new int[cpus.size()];
+    }
+
+    /**
+     * Parses CPU lists like '0-3,6' (the format of taskset and cpuset)
+     */
+    public static List<Integer> parseCpuList(String value) {
+        List<Integer> cpus = new ArrayList<>();
+        for (String part : value.split(",")) {
+            part = part.trim();
+            if (part.isEmpty()) {
+                continue;
+            }
+            try {
+                int dash = part.indexOf('-');
+                if (dash < 0) {
+                    cpus.add(Integer.parseInt(part));
+                } else {
+                    int last = Integer.parseInt(part.substring(dash + 1).trim());
+                    for (int cpu = Integer.parseInt(part.substring(0, dash).trim()); cpu <= last; cpu++) {
+                        cpus.add(cpu);
+                    }
+                }
+            } catch (NumberFormatException e) {
+                throw new ConfigurationException("Invalid CPU list: " + value);
+            }
+        }
+        return cpus;
+    }
+
+    public synchronized int acquire() {
+        int best = 0;
+        for (int i = 1; i < loads.length; i++) {
+            if (loads[i] < loads[best]) {
+                best = i;
+            }
+        }
+        loads[best]++;
+        return cpus.get(best);
+    }
+
+    public synchronized void release(int cpu) {
+        int index = cpus.indexOf(cpu);
+        if (index >= 0 && loads[index] > 0) {
+            loads[index]--;
+        }
+    }
+
+    public List<Integer> getCpus() {
+        return cpus;
+    }
+}
@@ -0,0 +1,287 @@
+package com.github.tarcv.doom_servers;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps engine processes from competing with each other and with the agent for CPU time.
+ * Configured next to the engine executable:
+ * <ul>
+ * <li>{@code engine.<name>.cpus} - CPUs for engines ('0-3,6' or 'auto'), each server is pinned to one of them
+ * by {@link CpuAllocator}. 'auto' means all CPUs the agent may run on (its affinity mask, or the effective
+ * cpuset of its cgroup) except {@code agent.cpus}</li>
+ * <li>{@code engine.<name>.nice} - nice level</li>
+ * <li>{@code engine.<name>.ionice} - I/O scheduling class and level, e.g. '2:0'</li>
+ * <li>{@code engine.<name>.cgroup} - existing cgroup v2 directory delegated to the agent user,
+ * each server gets a child group there limited by {@code engine.<name>.cgroup.cpu.max}
+ * and {@code engine.<name>.cgroup.memory.max} (values of cpu.max and memory.max).
+ * The limits only exist in the child groups when the controllers are enabled for them, i.e. the directory's
+ * cgroup.subtree_control contains '+cpu +memory'</li>
+ * </ul>
+ * Settings are applied to a started process by its pid, so pooled processes are handled the same way.
+ * Uses taskset, renice and ionice from util-linux. They run on a background thread, so a slow tool
+ * doesn't delay the server start. Failures are reported and don't stop the server.
+ */
+public class EngineIsolation {
+    private static final long TOOL_TIMEOUT_SECONDS = 2;
+    private static final Path PROC_STATUS = Paths.get("/proc/self/status");
+    private static final Path CGROUP_CPUSET = Paths.get("/sys/fs/cgroup/cpuset.cpus.effective");
+    private static final Executor sharedExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "EngineIsolation");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // runs tools and cgroup changes in order, so a lease is released only after it is applied
+    private final Executor executor;
+    private final ToolRunner toolRunner;
+
+    @Nullable
+    private final CpuAllocator cpuAllocator;
+    @Nullable
+    private final Integer nice;
+    @Nullable
+    private final String ionice;
+    @Nullable
+    private final Path cgroupRoot;
+    @Nullable
+    private final String cgroupCpuMax;
+    @Nullable
+    private final String cgroupMemoryMax;
+
+    public EngineIsolation(@Nullable CpuAllocator cpuAllocator, @Nullable Integer nice, @Nullable String ionice,
+                           @Nullable Path cgroupRoot, @Nullable String cgroupCpuMax, @Nullable String cgroupMemoryMax) {
+        this(cpuAllocator, nice, ionice, cgroupRoot, cgroupCpuMax, cgroupMemoryMax,
+                sharedExecutor, EngineIsolation::runTool);
+    }
+
+    EngineIsolation(@Nullable CpuAllocator cpuAllocator, @Nullable Integer nice, @Nullable String ionice,
+                    @Nullable Path cgroupRoot, @Nullable String cgroupCpuMax, @Nullable String cgroupMemoryMax,
+                    Executor executor, ToolRunner toolRunner) {
+        this.executor = executor;
+        this.toolRunner = toolRunner;
+        this.cpuAllocator = cpuAllocator;
+        this.nice = nice;
+        this.ionice = ionice;
+        this.cgroupRoot = cgroupRoot;
+        this.cgroupCpuMax = cgroupCpuMax;
+        this.cgroupMemoryMax = cgroupMemoryMax;
+    }
+
+    /**
+     * @param prefix property prefix of the engine, e.g. 'engine.zandronum.'
+     * @return null if nothing is configured
+     */
+    @Nullable
+    public static EngineIsolation fromProperties(Properties properties, String prefix) {
+        String cpus = properties.getProperty(prefix + "cpus");
+        String nice = properties.getProperty(prefix + "nice");
+        String ionice = properties.getProperty(prefix + "ionice");
+        String cgroup = properties.getProperty(prefix + "cgroup");
+        if (cpus == null && nice == null && ionice == null && cgroup == null) {
+            return null;
+        }
+
+        CpuAllocator cpuAllocator = null;
+        if (cpus != null) {
+            List<Integer> cpuList;
+            if ("auto".equals(cpus.trim())) {
+                cpuList = availableCpus(PROC_STATUS, CGROUP_CPUSET);
+                String agentCpus = properties.getProperty("agent.cpus");
+                if (agentCpus != null) {
+                    cpuList.removeAll(CpuAllocator.parseCpuList(agentCpus));
+                }
+            } else {
+                cpuList = CpuAllocator.parseCpuList(cpus);
+            }
+            cpuAllocator = new CpuAllocator(cpuList);
+        }
+
+        Integer niceLevel = null;
+        if (nice != null) {
+            try {
+                niceLevel = Integer.parseInt(nice.trim());
+            } catch (NumberFormatException e) {
+                throw new ConfigurationException("Invalid nice level: " + nice);
+            }
+        }
+        if (ionice != null && !ionice.trim().matches("[0-3](:[0-7])?")) {
+            throw new ConfigurationException("Invalid ionice value, expected <class>[:<level>]: " + ionice);
+        }
+
+        return new EngineIsolation(cpuAllocator, niceLevel, ionice != null ? ionice.trim() : null,
+                cgroup != null ? Paths.get(cgroup) : null,
+                properties.getProperty(prefix + "cgroup.cpu.max"),
+                properties.getProperty(prefix + "cgroup.memory.max"));
+    }
+
+    /**
+     * CPUs this process may run on. Must be called before the agent is pinned
+     * @param procStatus /proc/self/status, its Cpus_allowed_list is the affinity mask
+     * @param cgroupCpuset cpuset.cpus.effective of the cgroup, used when the affinity mask is not available
+     */
+    static List<Integer> availableCpus(Path procStatus, Path cgroupCpuset) {
+        try {
+            for (String line : Files.readAllLines(procStatus, StandardCharsets.US_ASCII)) {
+                if (line.startsWith("Cpus_allowed_list:")) {
+                    return CpuAllocator.parseCpuList(line.substring("Cpus_allowed_list:".length()));
+                }
+            }
+        } catch (IOException e) {
+            // not Linux or no procfs
+        }
+        try {
+            String effective = new String(Files.readAllBytes(cgroupCpuset), StandardCharsets.US_ASCII).trim();
+            if (!effective.isEmpty()) {
+                return CpuAllocator.parseCpuList(effective);
+            }
+        } catch (IOException e) {
+            // no cgroup v2 cpuset
+        }
+
+        List<Integer> cpus = new ArrayList<>();
+        for (int cpu = 0; cpu < Runtime.getRuntime().availableProcessors(); cpu++) {
+            cpus.add(cpu);
+        }
+        return cpus;
+    }
+
+    /**
+     * Pins the agent process (all its threads) to the given CPUs, so engines can have the rest
+     */
+    public static void pinAgent(String cpus) {
+        CpuAllocator.parseCpuList(cpus); // validates the list
+        runTool(Arrays.asList("taskset", "-a", "-p", "-c", cpus.trim(), String.valueOf(ProcessHandle.current().pid())));
+    }
+
+    /**
+     * Starts applying the configured settings to a started engine process. Doesn't wait for them to be applied
+     * @return lease to release when the server stops
+     */
+    public Lease apply(String serverId, long pid) {
+        int cpu = cpuAllocator != null ? cpuAllocator.acquire() : -1;
+        Path cgroup = cgroupRoot != null ? cgroupRoot.resolve(serverId) : null;
+        executor.execute(() -> applyNow(pid, cpu, cgroup));
+        return new Lease(cpu, cgroup);
+    }
+
+    private void applyNow(long pid, int cpu, @Nullable Path cgroup) {
+        String pidString = String.valueOf(pid);
+        if (cpu >= 0) {
+            toolRunner.run(Arrays.asList("taskset", "-a", "-p", "-c", String.valueOf(cpu), pidString));
+        }
+        if (nice != null) {
+            toolRunner.run(Arrays.asList("renice", "-n", String.valueOf(nice), "-p", pidString));
+        }
+        if (ionice != null) {
+            String[] classAndLevel = ionice.split(":");
+            List<String> command = new ArrayList<>(Arrays.asList("ionice", "-c", classAndLevel[0]));
+            if (classAndLevel.length > 1) {
+                command.add("-n");
+                command.add(classAndLevel[1]);
+            }
+            command.add("-p");
+            command.add(pidString);
+            toolRunner.run(command);
+        }
+
+        if (cgroup != null) {
+            try {
+                Files.createDirectories(cgroup);
+                if (cgroupCpuMax != null) {
+                    writeCgroupFile(cgroup.resolve("cpu.max"), cgroupCpuMax);
+                }
+                if (cgroupMemoryMax != null) {
+                    writeCgroupFile(cgroup.resolve("memory.max"), cgroupMemoryMax);
+                }
+                writeCgroupFile(cgroup.resolve("cgroup.procs"), pidString);
+            } catch (IOException e) {
+                System.err.println("Failed to move engine process " + pid + " to cgroup " + cgroup + ": " + e);
+            }
+        }
+    }
+
+    private static void writeCgroupFile(Path file, String value) throws IOException {
+        Files.write(file, value.trim().getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static void runTool(List<String> command) {
+        try {
+            Process process = new ProcessBuilder(command)
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+            if (!process.waitFor(TOOL_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                process.destroy();
+                System.err.println("Timed out running " + command);
+            } else if (process.exitValue() != 0) {
+                System.err.println("Failed to run " + command + ", exit code " + process.exitValue());
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to run " + command + ": " + e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    interface ToolRunner {
+        void run(List<String> command);
+    }
+
+    /**
+     * Resources taken by one engine process
+     */
+    public class Lease {
+        private final int cpu;
+        @Nullable
+        private final Path cgroup;
+        private boolean released = false;
+
+        Lease(int cpu, @Nullable Path cgroup) {
+            this.cpu = cpu;
+            this.cgroup = cgroup;
+        }
+
+        /**
+         * @return CPU the process is pinned to, -1 if it is not pinned
+         */
+        public int getCpu() {
+            return cpu;
+        }
+
+        /**
+         * Returns the CPU to the allocator and removes the cgroup of the server.
+         * Should be called after the process exits. Safe to call more than once
+         */
+        public synchronized void release() {
+            if (released) {
+                return;
+            }
+            released = true;
+            if (cpu >= 0 && cpuAllocator != null) {
+                cpuAllocator.release(cpu);
+            }
+            if (cgroup != null) {
+                executor.execute(() -> {
+                    try {
+                        Files.deleteIfExists(cgroup);
+                    } catch (IOException e) {
+                        // still has processes, the next server with the same id reuses it
+                    }
+                });
+            }
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.github.tarcv.doom_servers;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Running engine executable with its console streams connected.<br />
+ * {@link #start()} returns when the engine console is ready to accept commands. Output lines go to
+ * the handler set by {@link #setOutputHandler(OutputHandler)} and are dropped while there is none,
+ * so a started process can wait in {@link EngineProcessPool} until a server adopts it.<br />
+ * No platform threads are started per process: output streams are read by the shared {@link ConsolePoller},
+ * lines are handled on a virtual thread per stream (see {@link LineHandoff})
+ * and console input is written by the callers of {@link #getInput()}, see {@link ConsoleInput}.
+ */
+public class EngineProcess {
+    static final String READY_MARKER = "DoomServerReady";
+    static final String CONSOLE_READY_MARKER = "DoomConsoleReady";
+    private static final Set<Process> liveProcesses = ConcurrentHashMap.newKeySet();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> liveProcesses.forEach(Process::destroy),
+                "EngineProcessKiller"));
+    }
+
+    private final File executable;
+    private final File workDir;
+    private final List<String> commandline;
+
+    @Nullable
+    private volatile OutputHandler outputHandler = null;
+
+    private volatile Process serverProcess;
+    private volatile ConsoleInput processInputSource;
+    private volatile ServerInitingWaiter serverInitingWaiter;
+
+    public EngineProcess(Path executable, Path workDir, List<String> commandline) {
+        this.executable = executable.toFile();
+        this.workDir = workDir.toFile();
+        this.commandline = Collections.unmodifiableList(new ArrayList<>(commandline));
+    }
+
+    public void start() throws IOException, TimeoutException, InterruptedException {
+        List<String> commandParts = new ArrayList<>();
+        commandParts.add(executable.toString());
+        commandParts.addAll(commandline);
+
+        Process process = new ProcessBuilder(commandParts)
+                .directory(workDir)
+                .start();
+        liveProcesses.add(process);
+        process.onExit().thenRun(() -> liveProcesses.remove(process));
+
+        Charset charset = Charset.defaultCharset();
+        ConsolePoller poller = ConsolePoller.getShared();
+        processInputSource = new ConsoleInput(process.getOutputStream(), charset, () -> poller.wakeUp(process));
+        serverInitingWaiter = new ServerInitingWaiter(processInputSource);
+        serverProcess = process;
+
+        poller.register(new LineReader(process.getInputStream(), charset,
+                new LineHandoff(this::onOutputLine, EngineProcess::isProtocolLine, "ConsoleOutput")), process);
+        poller.register(new LineReader(process.getErrorStream(), charset,
+                new LineHandoff(this::onErrorLine, "ConsoleError")), process);
+
+        serverInitingWaiter.await();
+    }
+
+    public List<String> getCommandline() {
+        return commandline;
+    }
+
+    /**
+     * Input of the engine console. Available after {@link #start()}
+     */
+    public ConsoleInput getInput() {
+        return processInputSource;
+    }
+
+    public void setOutputHandler(@Nullable OutputHandler outputHandler) {
+        this.outputHandler = outputHandler;
+    }
+
+    public boolean isAlive() {
+        Process process = serverProcess;
+        return process != null && process.isAlive();
+    }
+
+    /**
+     * @return OS process id, -1 if the process is not started
+     */
+    public long getPid() {
+        Process process = serverProcess;
+        return process != null ? process.pid() : -1;
+    }
+
+    /**
+     * Runs the action once the process exits, right away if it has already exited or was never started
+     */
+    public void whenExited(Runnable action) {
+        Process process = serverProcess;
+        if (process != null) {
+            process.onExit().thenRun(action);
+        } else {
+            action.run();
+        }
+    }
+
+    /**
+     * Kills the engine process if it was started. Safe to call more than once
+     */
+    public void destroy() {
+        Process process = serverProcess;
+        if (process != null) {
+            ConsoleInput input = processInputSource;
+            if (input != null) {
+                input.close();
+            }
+            process.destroy();
+        }
+    }
+
+    /**
+     * @return true if the line may be a ready or command result marker, which must not be dropped
+     */
+    static boolean isProtocolLine(String line) {
+        return line.contains(READY_MARKER) || line.contains(CONSOLE_READY_MARKER)
+                || line.contains(CommandPipeline.BEGIN_MARKER) || line.contains(CommandPipeline.LEGACY_END_MARKER);
+    }
+
+    private void onOutputLine(String line) {
+        serverInitingWaiter.onOutputLine(line);
+        OutputHandler handler = outputHandler;
+        if (handler != null) {
+            handler.onOutputLine(line);
+        }
+    }
+
+    private void onErrorLine(String line) {
+        System.err.println("Error:" + line);
+    }
+
+    private static class ServerInitingWaiter implements OutputHandler {
+        private final CountDownLatch initNotifier = new CountDownLatch(1);
+        private final Object lock = new Object();
+        private final ConsoleInput processInputSource;
+
+        public ServerInitingWaiter(ConsoleInput processInputSource) {
+            this.processInputSource = processInputSource;
+        }
+
+        @Override
+        public void onOutputLine(String line) {
+            if (initNotifier.getCount() == 0) {
+                return;
+            }
+            synchronized (lock) {
+                if (line.contains(READY_MARKER)) {
+                    try {
+                        processInputSource.submit("echo " + CONSOLE_READY_MARKER);
+                    } catch (IOException e) {
+                        // the process is gone, start() times out
+                        e.printStackTrace();
+                    }
+                } else if (line.contains(CONSOLE_READY_MARKER)) {
+                    initNotifier.countDown();
+                }
+            }
+        }
+
+        void await() throws InterruptedException, TimeoutException {
+            if (!initNotifier.await(60, TimeUnit.SECONDS)) {
+                throw new TimeoutException("Timed out waiting for server to start");
+            }
+        }
+    }
+}
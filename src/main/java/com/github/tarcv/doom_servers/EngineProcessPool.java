@@ -0,0 +1,214 @@
+package com.github.tarcv.doom_servers;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Engine processes started in advance, so RunServer does not wait for the engine to load its resources.<br />
+ * Each profile is a command line prefix (for example engine, IWAD and PWAD arguments) and a pool size,
+ * configured with {@code pool.<profile>.commandline} and {@code pool.<profile>.size} properties.
+ * A server command line can take a process of a profile when it starts with the profile command line
+ * and the rest consists of {@code +command} arguments only, which are then applied through the console.
+ * Taken processes are replaced in the background, one start at a time.
+ */
+public class EngineProcessPool implements AutoCloseable {
+    private static final LongAdder HITS = Metrics.get().counter("engine_pool_hits");
+    private static final LongAdder MISSES = Metrics.get().counter("engine_pool_misses");
+
+    private final Path executable;
+    private final Path workDir;
+    private final List<Profile> profiles;
+    private final ExecutorService refillExecutor = Executors.newSingleThreadExecutor(
+            Thread.ofVirtual().name("EnginePoolRefill").factory());
+    private volatile boolean closed = false;
+
+    private final LatencyHistogram warmStarts = Metrics.get().histogram("engine_pool_warm_start");
+    private final LatencyHistogram coldStarts = Metrics.get().histogram("engine_pool_cold_start");
+    private final LatencyHistogram engineInits = Metrics.get().histogram("engine_pool_engine_init");
+
+    public EngineProcessPool(Path executable, Path workDir, Map<String, ProfileConfig> profiles) {
+        this.executable = executable;
+        this.workDir = workDir;
+        List<Profile> profileList = new ArrayList<>();
+        profiles.forEach((name, config) -> profileList.add(new Profile(name, config.commandline, config.size)));
+        // longer prefixes are more specific
+        profileList.sort((a, b) -> Integer.compare(b.commandline.size(), a.commandline.size()));
+        this.profiles = profileList;
+
+        Metrics.get().gauge("engine_pool_ready", () -> {
+            long ready = 0;
+            for (Profile profile : this.profiles) {
+                ready += profile.ready.size();
+            }
+            return ready;
+        });
+    }
+
+    public static Map<String, ProfileConfig> profilesFromProperties(Properties properties) {
+        Map<String, ProfileConfig> profiles = new HashMap<>();
+        for (String property : properties.stringPropertyNames()) {
+            if (!property.startsWith("pool.") || !property.endsWith(".size")) {
+                continue;
+            }
+            String name = property.substring("pool.".length(), property.length() - ".size".length());
+            String commandline = properties.getProperty("pool." + name + ".commandline");
+            if (commandline == null) {
+                throw new ConfigurationException("pool." + name + ".commandline is not set");
+            }
+            int size = Integer.parseInt(properties.getProperty(property).trim());
+            List<String> arguments = Arrays.asList(commandline.trim().split("\\s+"));
+            profiles.put(name, new ProfileConfig(arguments, size));
+        }
+        return profiles;
+    }
+
+    /**
+     * Starts processes for all profiles in the background
+     */
+    public void fill() {
+        for (Profile profile : profiles) {
+            for (int i = 0; i < profile.size; i++) {
+                scheduleRefill(profile);
+            }
+        }
+    }
+
+    /**
+     * @return ready process which command line is a prefix of the given one, null if there is none
+     */
+    @Nullable
+    public EngineProcess acquire(List<String> commandline) {
+        for (Profile profile : profiles) {
+            if (!matches(profile.commandline, commandline)) {
+                continue;
+            }
+            EngineProcess process;
+            while ((process = profile.ready.poll()) != null) {
+                scheduleRefill(profile);
+                if (process.isAlive()) {
+                    HITS.increment();
+                    return process;
+                }
+                process.destroy();
+            }
+        }
+        MISSES.increment();
+        return null;
+    }
+
+    /**
+     * Records time from the start request till the server is ready to accept console commands
+     */
+    public void recordServerStart(boolean warm, long nanos) {
+        (warm ? warmStarts : coldStarts).record(nanos);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        refillExecutor.shutdownNow();
+        for (Profile profile : profiles) {
+            EngineProcess process;
+            while ((process = profile.ready.poll()) != null) {
+                process.destroy();
+            }
+        }
+    }
+
+    /**
+     * @return console commands for the arguments after the prefix, null if they cannot be applied through the console
+     */
+    @Nullable
+    static List<String> toConsoleCommands(List<String> arguments) {
+        List<String> commands = new ArrayList<>();
+        StringBuilder command = null;
+        for (String argument : arguments) {
+            if (argument.startsWith("+")) {
+                if (command != null) {
+                    commands.add(command.toString());
+                }
+                command = new StringBuilder(argument.substring(1));
+            } else if (command == null) {
+                return null;
+            } else {
+                command.append(' ');
+                if (argument.isEmpty() || argument.matches(".*\\s.*")) {
+                    command.append('"').append(argument.replace("\"", "\\\"")).append('"');
+                } else {
+                    command.append(argument);
+                }
+            }
+        }
+        if (command != null) {
+            commands.add(command.toString());
+        }
+        return commands;
+    }
+
+    private static boolean matches(List<String> prefix, List<String> commandline) {
+        return commandline.size() >= prefix.size()
+                && commandline.subList(0, prefix.size()).equals(prefix)
+                && toConsoleCommands(commandline.subList(prefix.size(), commandline.size())) != null;
+    }
+
+    private void scheduleRefill(Profile profile) {
+        if (closed) {
+            return;
+        }
+        try {
+            refillExecutor.execute(() -> startProcess(profile));
+        } catch (RejectedExecutionException e) {
+            // closed concurrently
+        }
+    }
+
+    private void startProcess(Profile profile) {
+        EngineProcess process = null;
+        try {
+            long startNanos = System.nanoTime();
+            process = new EngineProcess(executable, workDir, profile.commandline);
+            process.start();
+            engineInits.recordSince(startNanos);
+            profile.ready.add(process);
+            if (closed) {
+                close();
+            }
+        } catch (InterruptedException e) {
+            process.destroy();
+            Thread.currentThread().interrupt();
+        } catch (IOException | TimeoutException | RuntimeException e) {
+            System.err.println("Failed to start pooled engine for profile " + profile.name + ": " + e.toString());
+            if (process != null) {
+                process.destroy();
+            }
+        }
+    }
+
+    public static class ProfileConfig {
+        final List<String> commandline;
+        final int size;
+
+        public ProfileConfig(List<String> commandline, int size) {
+            this.commandline = commandline;
+            this.size = size;
+        }
+    }
+
+    private static class Profile {
+        final String name;
+        final List<String> commandline;
+        final int size;
+        final Queue<EngineProcess> ready = new ConcurrentLinkedQueue<>();
+
+        Profile(String name, List<String> commandline, int size) {
+            this.name = name;
+            this.commandline = commandline;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.github.tarcv.doom_servers;
+
+import com.github.tarcv.doom_servers.messages.FileTransferEnd;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+/**
+ * Sends a file from the engine work directory (demos, logs, crash dumps) as binary frames.<br />
+ * Only regular files inside the work directory can be read, paths going through symbolic links are rejected.
+ * The file is read with a {@link FileChannel} straight into the frame buffer, one chunk at a time,
+ * so memory use doesn't depend on the file size. Frame layout:
+ * <pre>
+ * byte    type ({@link BinaryCodec#TYPE_FILE_CHUNK})
+ * byte    flags (FLAG_LAST on the last chunk)
+ * long    offset of the data in the file
+ * int     CRC32 of the data
+ * string  correlation id of the request, encoded like in {@link BinaryCodec}
+ * bytes   data, the rest of the frame
+ * </pre>
+ * Chunks go in file order, so the offset also serves as the sequence.
+ * A broken transfer can be resumed by requesting the file from the first missing offset.
+ * The completion message has the file size and the SHA-256 of the whole file.
+ */
+public class FileTransfer {
+    static final int CHUNK_SIZE = 64 * 1024;
+    static final byte FLAG_LAST = 1;
+
+    private static final LongAdder SENT_BYTES = Metrics.get().counter("file_transfer_bytes");
+    // type, flags, offset, CRC32
+    private static final int HEADER_SIZE = 2 + 8 + 4;
+
+    private final Path workDir;
+    private final Connection connection;
+
+    public FileTransfer(Path workDir, Connection connection) {
+        this.workDir = workDir.toAbsolutePath().normalize();
+        this.connection = connection;
+    }
+
+    /**
+     * Sends the file from the offset till its end (as of the start of the transfer)
+     * @param path path relative to the work directory
+     */
+    public FileTransferEnd send(String correlationId, String path, long offset) throws IOException {
+        Path file = resolve(path);
+        byte[] id = correlationId != null ? correlationId.getBytes(StandardCharsets.UTF_8) : null;
+        ByteBuffer frame = ByteBuffer.allocate(HEADER_SIZE + 5 + (id != null ? id.length : 0) + CHUNK_SIZE);
+        MessageDigest digest = newSha256();
+        CRC32 crc = new CRC32();
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, LinkOption.NOFOLLOW_LINKS)) {
+            long size = channel.size();
+            if (offset < 0 || offset > size) {
+                throw new IllegalArgumentException("Offset " + offset + " is outside of " + path);
+            }
+            // the checksum is of the whole file, so a resumed transfer can be verified too
+            hashRange(channel, 0, offset, frame, digest);
+
+            long position = offset;
+            do {
+                frame.clear();
+                frame.position(HEADER_SIZE);
+                writeString(frame, id);
+                int dataStart = frame.position();
+                frame.limit((int) Math.min(frame.capacity(), dataStart + size - position));
+                while (frame.hasRemaining()) {
+                    if (channel.read(frame, position + frame.position() - dataStart) < 0) {
+                        throw new IOException(path + " was truncated during the transfer");
+                    }
+                }
+                int dataLength = frame.position() - dataStart;
+
+                crc.reset();
+                crc.update(frame.array(), dataStart, dataLength);
+                digest.update(frame.array(), dataStart, dataLength);
+                boolean last = position + dataLength >= size;
+                frame.put(0, BinaryCodec.TYPE_FILE_CHUNK);
+                frame.put(1, last ? FLAG_LAST : 0);
+                frame.putLong(2, position);
+                frame.putInt(10, (int) crc.getValue());
+                frame.flip();
+
+                connection.sendBinary(frame);
+                position += dataLength;
+                SENT_BYTES.add(dataLength);
+            } while (position < size);
+
+            FileTransferEnd end = new FileTransferEnd(path, size, size - offset, toHex(digest.digest()));
+            end.setCorrelationId(correlationId);
+            return end;
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if the path is not a regular file inside the work directory
+     */
+    Path resolve(String path) {
+        Path file = WorkDirPaths.resolve(workDir, path);
+        WorkDirPaths.checkNoSymbolicLinks(workDir, file);
+        if (!Files.isRegularFile(file, LinkOption.NOFOLLOW_LINKS)) {
+            throw new IllegalArgumentException("Not a file in the work directory: " + path);
+        }
+        return file;
+    }
+
+    private static void hashRange(FileChannel channel, long from, long to, ByteBuffer buffer,
+                                  MessageDigest digest) throws IOException {
+        long position = from;
+        while (position < to) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), to - position));
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("File was truncated during the transfer");
+            }
+            digest.update(buffer.array(), 0, read);
+            position += read;
+        }
+    }
+
+    private static void writeString(ByteBuffer frame, @Nullable byte[] value) {
+        int lengthPlusOne = value != null ? value.length + 1 : 0;
+        while ((lengthPlusOne & ~0x7F) != 0) {
+            frame.put((byte) ((lengthPlusOne & 0x7F) | 0x80));
+            lengthPlusOne >>>= 7;
+        }
+        frame.put((byte) lengthPlusOne);
+        if (value != null) {
+            frame.put(value);
+        }
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
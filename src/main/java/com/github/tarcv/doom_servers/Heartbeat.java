@@ -0,0 +1,107 @@
+package com.github.tarcv.doom_servers;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tracks websocket pings of one connection. Ping payloads carry a sequence number,
+ * so the round trip time is measured when the matching pong comes back.<br />
+ * A connection is considered dead when {@link #getMissThreshold()} pings in a row get no pong,
+ * which finds half-open TCP connections long before the transport gives up on them.
+ * Configured with {@code connection.ping.interval} (milliseconds) and {@code connection.ping.misses} properties.
+ */
+public class Heartbeat {
+    private static final LatencyHistogram RTT = Metrics.get().histogram("websocket_rtt");
+    private static final LongAdder MISSED_PINGS = Metrics.get().counter("websocket_missed_pings");
+
+    private final long intervalMillis;
+    private final int missThreshold;
+
+    private long sequence = 0;
+    private long pendingSequence = -1;
+    private long pendingSentNanos;
+    private int missedInRow = 0;
+    private volatile long lastRttNanos = -1;
+
+    public Heartbeat(long intervalMillis, int missThreshold) {
+        if (intervalMillis <= 0 || missThreshold <= 0) {
+            throw new IllegalArgumentException("Ping interval and miss threshold must be positive");
+        }
+        this.intervalMillis = intervalMillis;
+        this.missThreshold = missThreshold;
+    }
+
+    public static Heartbeat fromProperties(Properties properties) {
+        return new Heartbeat(
+                Long.parseLong(properties.getProperty("connection.ping.interval", "5000")),
+                Integer.parseInt(properties.getProperty("connection.ping.misses", "3")));
+    }
+
+    /**
+     * Forgets pings of the previous connection
+     */
+    public synchronized void reset() {
+        pendingSequence = -1;
+        missedInRow = 0;
+    }
+
+    /**
+     * Called every {@link #getIntervalMillis()}. The previous ping counts as missed if it is still not answered
+     * @return payload of the ping to send, null if the connection is dead
+     */
+    @Nullable
+    public synchronized ByteBuffer nextPing(long nowNanos) {
+        if (pendingSequence >= 0) {
+            MISSED_PINGS.increment();
+            missedInRow++;
+            if (missedInRow >= missThreshold) {
+                return null;
+            }
+        }
+        sequence++;
+        pendingSequence = sequence;
+        pendingSentNanos = nowNanos;
+        ByteBuffer payload = ByteBuffer.allocate(Long.BYTES);
+        payload.putLong(0, sequence);
+        return payload;
+    }
+
+    /**
+     * Any pong proves the connection is alive, the round trip time is recorded for the last ping only
+     * @return true if it is the pong of the last ping
+     */
+    public synchronized boolean onPong(ByteBuffer payload, long nowNanos) {
+        if (payload.remaining() != Long.BYTES) {
+            return false;
+        }
+        missedInRow = 0;
+        if (payload.getLong(payload.position()) != pendingSequence) {
+            return false;
+        }
+        long rtt = nowNanos - pendingSentNanos;
+        pendingSequence = -1;
+        lastRttNanos = rtt;
+        RTT.record(rtt);
+        return true;
+    }
+
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    public int getMissThreshold() {
+        return missThreshold;
+    }
+
+    /**
+     * @return round trip time of the last answered ping in microseconds, -1 if there was none yet
+     */
+    public long getLastRttMicros() {
+        long rtt = lastRttNanos;
+        return rtt >= 0 ? TimeUnit.NANOSECONDS.toMicros(rtt) : -1;
+    }
+}
@@ -0,0 +1,146 @@
+package com.github.tarcv.doom_servers;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Decoder of packets compressed with the fixed Huffman tree of Zandronum (src/huffman).<br />
+ * The tree is read from its description, the format of {@code compatible_huffman_tree} in huffman.cpp:
+ * every internal node is a byte with bit 0 set when its 0-branch is a leaf and bit 1 set when its 1-branch is,
+ * followed by the 0-branch and then the 1-branch, each either a leaf value byte or a nested node.<br />
+ * A packet starts with the number of unused bits in its last byte. Bits are read from the least significant one
+ * of each byte, as the engine does with reversed bytes. A first byte of 0xFF means the rest is not compressed.
+ */
+public class HuffmanCodec {
+    static final int UNCOMPRESSED = 0xFF;
+    private static final Pattern NUMBER = Pattern.compile("0[xX][0-9a-fA-F]+|\\d+");
+
+    // children of internal nodes: >= 0 is a node index, < 0 is a leaf with value -1 - child
+    private final int[] zeroChildren;
+    private final int[] oneChildren;
+
+    private HuffmanCodec(int[] zeroChildren, int[] oneChildren) {
+        this.zeroChildren = zeroChildren;
+        this.oneChildren = oneChildren;
+    }
+
+    public static HuffmanCodec fromTreeDescription(byte[] description) {
+        TreeBuilder builder = new TreeBuilder(description);
+        builder.readNode();
+        if (builder.position != description.length) {
+            throw new IllegalArgumentException("Unexpected data after the Huffman tree description");
+        }
+        return new HuffmanCodec(toArray(builder.zeroChildren), toArray(builder.oneChildren));
+    }
+
+    /**
+     * Reads the tree description from a file of numbers separated with anything else,
+     * so the initializer of {@code compatible_huffman_tree} can be used as is
+     */
+    public static HuffmanCodec fromFile(Path file) throws IOException {
+        String text = new String(Files.readAllBytes(file), StandardCharsets.ISO_8859_1);
+        Matcher matcher = NUMBER.matcher(text);
+        ByteBuffer description = ByteBuffer.allocate(text.length());
+        while (matcher.find()) {
+            description.put((byte) (int) Integer.decode(matcher.group()));
+        }
+        byte[] bytes = new byte[description.position()];
+        description.flip();
+        description.get(bytes);
+        return fromTreeDescription(bytes);
+    }
+
+    /**
+     * @param packet the whole packet from its position to its limit
+     * @return decoded packet, null if it is malformed
+     */
+    @Nullable
+    public ByteBuffer decode(ByteBuffer packet) {
+        if (!packet.hasRemaining()) {
+            return null;
+        }
+        int start = packet.position();
+        int header = packet.get(start) & 0xFF;
+        if (header == UNCOMPRESSED) {
+            ByteBuffer raw = packet.duplicate();
+            raw.position(start + 1);
+            return raw.slice();
+        }
+        if (header > 7) {
+            return null;
+        }
+
+        long bitCount = (long) (packet.remaining() - 1) * 8 - header;
+        ByteBuffer decoded = ByteBuffer.allocate(Math.max(16, packet.remaining() * 4));
+        int node = 0;
+        for (long bit = 0; bit < bitCount; bit++) {
+            int value = packet.get(start + 1 + (int) (bit >>> 3));
+            int child = ((value >>> (bit & 7)) & 1) == 0 ? zeroChildren[node] : oneChildren[node];
+            if (child >= 0) {
+                node = child;
+                continue;
+            }
+            if (!decoded.hasRemaining()) {
+                ByteBuffer bigger = ByteBuffer.allocate(decoded.capacity() * 2);
+                decoded.flip();
+                bigger.put(decoded);
+                decoded = bigger;
+            }
+            decoded.put((byte) (-1 - child));
+            node = 0;
+        }
+        if (node != 0) {
+            // the last code is not complete
+            return null;
+        }
+        decoded.flip();
+        return decoded;
+    }
+
+    private static int[] toArray(List<Integer> values) {
+        return values.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static class TreeBuilder {
+        final byte[] description;
+        final List<Integer> zeroChildren = new ArrayList<>();
+        final List<Integer> oneChildren = new ArrayList<>();
+        int position = 0;
+
+        TreeBuilder(byte[] description) {
+            this.description = description;
+        }
+
+        /**
+         * @return index of the node
+         */
+        int readNode() {
+            int flags = next();
+            if ((flags & ~3) != 0) {
+                throw new IllegalArgumentException("Invalid Huffman tree node at " + (position - 1));
+            }
+            int index = zeroChildren.size();
+            zeroChildren.add(0);
+            oneChildren.add(0);
+            zeroChildren.set(index, (flags & 1) != 0 ? -1 - next() : readNode());
+            oneChildren.set(index, (flags & 2) != 0 ? -1 - next() : readNode());
+            return index;
+        }
+
+        private int next() {
+            if (position >= description.length) {
+                throw new IllegalArgumentException("Huffman tree description is truncated");
+            }
+            return description[position++] & 0xFF;
+        }
+    }
+}
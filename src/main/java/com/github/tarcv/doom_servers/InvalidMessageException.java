@@ -0,0 +1,10 @@
+package com.github.tarcv.doom_servers;
+
+/**
+ * A message from the control plane has invalid values, it is answered with an error instead of being handled
+ */
+public class InvalidMessageException extends Exception {
+    public InvalidMessageException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,22 @@
+package com.github.tarcv.doom_servers;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encoding of status queries and responses of the UDP protocol engines use to talk to game launchers
+ */
+public interface LauncherProtocol {
+    /**
+     * Writes a status query to the buffer, leaving its position after the query
+     */
+    void writeQuery(ByteBuffer buffer, long timeMillis);
+
+    /**
+     * @param datagram received datagram, from its position to its limit
+     * @return parsed status, null if the datagram is not a status response this protocol can read
+     */
+    @Nullable
+    LauncherStatus parseResponse(ByteBuffer datagram);
+}
@@ -0,0 +1,65 @@
+package com.github.tarcv.doom_servers;
+
+import java.util.Objects;
+
+/**
+ * Server status as reported to game launchers over UDP, see {@link LauncherProtocol}
+ */
+public class LauncherStatus {
+    private final String name;
+    private final String mapName;
+    private final int players;
+    private final int maxPlayers;
+    private final int maxClients;
+
+    public LauncherStatus(String name, String mapName, int players, int maxPlayers, int maxClients) {
+        this.name = name;
+        this.mapName = mapName;
+        this.players = players;
+        this.maxPlayers = maxPlayers;
+        this.maxClients = maxClients;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getMapName() {
+        return mapName;
+    }
+
+    public int getPlayers() {
+        return players;
+    }
+
+    public int getMaxPlayers() {
+        return maxPlayers;
+    }
+
+    public int getMaxClients() {
+        return maxClients;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        LauncherStatus that = (LauncherStatus) o;
+        return players == that.players && maxPlayers == that.maxPlayers && maxClients == that.maxClients
+                && Objects.equals(name, that.name) && Objects.equals(mapName, that.mapName);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(name, mapName, players, maxPlayers, maxClients);
+    }
+
+    @Override
+    public String toString() {
+        return name + " on " + mapName + ", " + players + "/" + maxPlayers + " players";
+    }
+}
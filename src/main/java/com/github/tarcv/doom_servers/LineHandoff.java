@@ -0,0 +1,80 @@
+package com.github.tarcv.doom_servers;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * Passes lines read by the {@link ConsolePoller} to the handler of one stream on its own virtual thread,
+ * so a slow handler delays only the output of its own process.<br />
+ * Offering a line never blocks: when {@link #CAPACITY} lines are already waiting, the new line is dropped
+ * and counted in 'console_handoff_dropped_lines', the engine is never back-pressured.
+ * Lines matching the protocol filter (ready and result markers) are queued even then, losing one would stall
+ * a start or a command. Console text is dropped later anyway, by the configured {@link ConsoleRingBuffer} policy.
+ */
+public class LineHandoff implements OutputHandler {
+    static final int CAPACITY = 10000;
+    private static final LongAdder DROPPED_LINES = Metrics.get().counter("console_handoff_dropped_lines");
+    private static final long END_CHECK_MILLIS = 1000;
+
+    private final OutputHandler handler;
+    private final Predicate<String> protocolLines;
+    // bounded by CAPACITY for all lines but protocol ones
+    private final BlockingQueue<String> lines = new LinkedBlockingQueue<>();
+    private volatile boolean ended = false;
+
+    public LineHandoff(OutputHandler handler, String threadName) {
+        this(handler, line -> false, threadName);
+    }
+
+    /**
+     * @param protocolLines lines which are never dropped
+     */
+    public LineHandoff(OutputHandler handler, Predicate<String> protocolLines, String threadName) {
+        this.handler = handler;
+        this.protocolLines = protocolLines;
+        Thread.ofVirtual()
+                .name(threadName)
+                .start(this::handleLines);
+    }
+
+    @Override
+    public void onOutputLine(String line) {
+        if (lines.size() >= CAPACITY && !protocolLines.test(line)) {
+            DROPPED_LINES.increment();
+            return;
+        }
+        lines.add(line);
+    }
+
+    /**
+     * The handler thread exits after passing the remaining lines
+     */
+    @Override
+    public void onOutputEnd() {
+        ended = true;
+    }
+
+    private void handleLines() {
+        try {
+            while (true) {
+                String line = lines.poll(END_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+                if (line != null) {
+                    try {
+                        handler.onOutputLine(line);
+                    } catch (RuntimeException e) {
+                        // should not stop handling of next lines
+                        e.printStackTrace();
+                    }
+                } else if (ended && lines.isEmpty()) {
+                    handler.onOutputEnd();
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
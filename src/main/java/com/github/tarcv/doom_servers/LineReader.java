@@ -0,0 +1,154 @@
+package com.github.tarcv.doom_servers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Splits output of an engine process into lines and passes them to an {@link OutputHandler}.<br />
+ * Bytes are read straight from the process pipe into one reusable buffer, split on '\n' (a trailing '\r' is dropped)
+ * and decoded with a reusable {@link CharsetDecoder}. So the only per-line allocation is the resulting String.<br />
+ * Lines longer than {@link #MAX_LINE_LENGTH} bytes are split.<br />
+ * The stream can be read either on a dedicated thread ({@link #run()}) or by polling {@link #readAvailable()},
+ * see {@link ConsolePoller}.
+ */
+public class LineReader implements Runnable {
+    private static final int INITIAL_BUFFER_SIZE = 8192;
+    static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    private final InputStream stream;
+    private final OutputHandler handler;
+    private final CharsetDecoder decoder;
+
+    private byte[] bytes = new byte[INITIAL_BUFFER_SIZE];
+    private ByteBuffer bytesView = ByteBuffer.wrap(bytes);
+    private CharBuffer chars = CharBuffer.allocate(INITIAL_BUFFER_SIZE);
+    // bytes[0, filled) are not passed to the handler yet, bytes[0, scanned) have no line breaks
+    private int filled = 0;
+    private int scanned = 0;
+
+    public LineReader(InputStream stream, Charset charset, OutputHandler handler) {
+        this.stream = stream;
+        this.handler = handler;
+        this.decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    @Override
+    public void run() {
+        try {
+            readLines();
+        } catch (IOException e) {
+            // the stream is closed, usually by Process.destroy()
+            finish();
+        }
+    }
+
+    /**
+     * Reads the stream till EOF. The last line is passed to the handler even if it is not terminated
+     */
+    void readLines() throws IOException {
+        int readBytes;
+        while ((readBytes = stream.read(bytes, filled, bytes.length - filled)) >= 0) {
+            filled += readBytes;
+            splitLines();
+        }
+        finish();
+    }
+
+    /**
+     * Reads only what the stream has already buffered, so it never blocks
+     * @return number of bytes read, -1 at EOF
+     */
+    int readAvailable() throws IOException {
+        int available = stream.available();
+        if (available <= 0) {
+            return 0;
+        }
+        int readBytes = stream.read(bytes, filled, Math.min(available, bytes.length - filled));
+        if (readBytes < 0) {
+            finish();
+            return -1;
+        }
+        filled += readBytes;
+        splitLines();
+        return readBytes;
+    }
+
+    private void splitLines() {
+        int lineStart = 0;
+        for (int i = scanned; i < filled; i++) {
+            if (bytes[i] == '\n') {
+                emitLine(lineStart, i);
+                lineStart = i + 1;
+            }
+        }
+
+        if (lineStart > 0) {
+            filled -= lineStart;
+            System.arraycopy(bytes, lineStart, bytes, 0, filled);
+        } else if (filled == bytes.length) {
+            if (bytes.length < MAX_LINE_LENGTH) {
+                growBuffer();
+            } else {
+                emitLine(0, filled);
+                filled = 0;
+            }
+        }
+        scanned = filled;
+    }
+
+    /**
+     * Passes the unterminated rest of the output, if any, and ends the output of the handler
+     */
+    void finish() {
+        if (filled > 0) {
+            emitLine(0, filled);
+            filled = 0;
+            scanned = 0;
+        }
+        handler.onOutputEnd();
+    }
+
+    private void emitLine(int from, int to) {
+        if (to > from && bytes[to - 1] == '\r') {
+            to--;
+        }
+
+        bytesView.clear();
+        bytesView.position(from);
+        bytesView.limit(to);
+        chars.clear();
+        decoder.reset();
+        CoderResult result = decoder.decode(bytesView, chars, true);
+        while (result.isOverflow()) {
+            CharBuffer newChars = CharBuffer.allocate(chars.capacity() * 2);
+            chars.flip();
+            newChars.put(chars);
+            chars = newChars;
+            result = decoder.decode(bytesView, chars, true);
+        }
+        decoder.flush(chars);
+        chars.flip();
+
+        try {
+            handler.onOutputLine(chars.toString());
+        } catch (RuntimeException e) {
+            // the line is consumed anyway, otherwise it would be passed again with the next read
+            e.printStackTrace();
+        }
+    }
+
+    private void growBuffer() {
+        byte[] newBytes = new byte[Math.min(bytes.length * 2, MAX_LINE_LENGTH)];
+        System.arraycopy(bytes, 0, newBytes, 0, bytes.length);
+        bytes = newBytes;
+        bytesView = ByteBuffer.wrap(newBytes);
+    }
+}
@@ -0,0 +1,79 @@
+package com.github.tarcv.doom_servers;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Memory-mapped segment files.<br />
+ * A mapped file can't be deleted on Windows until it is unmapped, and the JDK unmaps buffers only
+ * when they are garbage collected. So segments are unmapped explicitly with {@code Unsafe.invokeCleaner}
+ * before deleting. The buffer (and any view of it) must not be used after that, owners copy data out
+ * of segments instead of handing out views.
+ */
+public class MappedFiles {
+    @Nullable
+    private static final Object unsafe;
+    @Nullable
+    private static final Method invokeCleaner;
+
+    static {
+        Object foundUnsafe = null;
+        Method foundInvokeCleaner = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            foundUnsafe = field.get(null);
+            foundInvokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            System.err.println("Mapped files can't be unmapped explicitly: " + e);
+        }
+        unsafe = foundUnsafe;
+        invokeCleaner = foundInvokeCleaner;
+    }
+
+    private MappedFiles() {
+    }
+
+    public static MappedByteBuffer map(Path path, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, CREATE, READ, WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    /**
+     * Unmaps the buffer and deletes its file. A file which still can't be deleted is left for the next cleanup
+     * @return true if the file is deleted
+     */
+    public static boolean unmapAndDelete(MappedByteBuffer buffer, Path path) {
+        unmap(buffer);
+        try {
+            Files.deleteIfExists(path);
+            return true;
+        } catch (IOException e) {
+            System.err.println("Failed to delete " + path + ": " + e);
+            return false;
+        }
+    }
+
+    static void unmap(MappedByteBuffer buffer) {
+        if (invokeCleaner == null) {
+            return;
+        }
+        try {
+            invokeCleaner.invoke(unsafe, buffer);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            System.err.println("Failed to unmap a file: " + e);
+        }
+    }
+}
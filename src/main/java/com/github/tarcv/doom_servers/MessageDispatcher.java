@@ -0,0 +1,176 @@
+package com.github.tarcv.doom_servers;
+
+import com.github.tarcv.doom_servers.messages.Error;
+import com.github.tarcv.doom_servers.messages.Message;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
+
+/**
+ * Handles incoming messages off the websocket thread.<br />
+ * Messages with the same {@link ConnectionListener#getOrderingKey(Message) ordering key} (e.g. of the same server)
+ * are handled one by one in arrival order, messages with different keys are handled in parallel on virtual threads.
+ * So a slow server start never delays commands to other servers.<br />
+ * {@link ConnectionListener#isConcurrent(Message) Concurrent} messages are started in order with their key,
+ * but are handled on their own virtual threads, so a slow one doesn't hold the rest of its lane.<br />
+ * Responses get the correlation id of their requests. Messages which can't be handled (too many are queued
+ * or the dispatcher is shut down) get an {@link Error} reply.
+ */
+public class MessageDispatcher {
+    private static final String DEFAULT_ORDERING_KEY = "";
+
+    private final ConnectionListener listener;
+    private final Connection connection;
+    private final ExecutorService executor;
+    private final Semaphore capacity;
+    private final int maxQueued;
+    private final ConcurrentMap<String, Lane> lanes = new ConcurrentHashMap<>();
+
+    /**
+     * @param capacity maximum number of messages queued or being handled, messages above it are rejected
+     */
+    public MessageDispatcher(ConnectionListener listener, Connection connection, int capacity) {
+        this.listener = listener;
+        this.connection = connection;
+        this.capacity = new Semaphore(capacity);
+        this.maxQueued = capacity;
+        // handlers mostly wait for engines, so each lane gets a cheap virtual thread
+        this.executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("MessageDispatcher-", 0).factory());
+    }
+
+    /**
+     * Queues the message for handling. Never blocks
+     */
+    public void dispatch(Message message) {
+        if (!capacity.tryAcquire()) {
+            reply(message, new Error(new RejectedExecutionException("Too many messages are being handled")));
+            return;
+        }
+
+        String orderingKey = listener.getOrderingKey(message);
+        String key = orderingKey != null ? orderingKey : DEFAULT_ORDERING_KEY;
+        Lane[] newLane = new Lane[1];
+        lanes.compute(key, (k, lane) -> {
+            if (lane == null) {
+                lane = new Lane(k);
+                newLane[0] = lane;
+            }
+            lane.messages.add(message);
+            return lane;
+        });
+
+        // started outside of compute, a rejection must not leave the lane behind
+        if (newLane[0] != null) {
+            try {
+                executor.execute(newLane[0]);
+            } catch (RejectedExecutionException e) {
+                reject(newLane[0], e);
+            }
+        }
+    }
+
+    /**
+     * Removes the lane which couldn't be started, releasing the permits of its messages
+     */
+    private void reject(Lane lane, RejectedExecutionException e) {
+        List<Message> rejected = new ArrayList<>();
+        lanes.computeIfPresent(lane.key, (k, current) -> {
+            if (current != lane) {
+                return current;
+            }
+            rejected.addAll(lane.messages);
+            return null;
+        });
+        for (Message message : rejected) {
+            capacity.release();
+            reply(message, new Error(e));
+        }
+    }
+
+    /**
+     * Handles the message on its own thread, the lane continues with the next message right away
+     */
+    private void fork(Message message) {
+        try {
+            executor.execute(() -> handle(message));
+        } catch (RejectedExecutionException e) {
+            capacity.release();
+            reply(message, new Error(e));
+        }
+    }
+
+    private void handle(Message message) {
+        Message response;
+        try {
+            response = listener.onMessage(message);
+        } catch (Throwable e) {
+            response = new Error(e);
+        } finally {
+            capacity.release();
+        }
+        if (response != null) {
+            reply(message, response);
+        }
+    }
+
+    private void reply(Message request, Message response) {
+        response.setCorrelationId(request.getCorrelationId());
+        try {
+            connection.send(response);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return number of messages queued or being handled
+     */
+    public int getQueueDepth() {
+        return maxQueued - capacity.availablePermits();
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Messages of one ordering key. Is removed from {@link #lanes} when it has no more messages
+     */
+    private class Lane implements Runnable {
+        private final String key;
+
+        // guarded by lanes.compute for this key
+        private final Queue<Message> messages = new ArrayDeque<>();
+
+        Lane(String key) {
+            this.key = key;
+        }
+
+        @Override
+        public void run() {
+            Message message;
+            while ((message = nextOrRetire()) != null) {
+                if (listener.isConcurrent(message)) {
+                    fork(message);
+                } else {
+                    handle(message);
+                }
+            }
+        }
+
+        @Nullable
+        private Message nextOrRetire() {
+            Message[] next = new Message[1];
+            lanes.computeIfPresent(key, (k, lane) -> {
+                next[0] = lane.messages.poll();
+                return next[0] != null ? lane : null;
+            });
+            return next[0];
+        }
+    }
+}
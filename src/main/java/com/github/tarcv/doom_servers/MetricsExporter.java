@@ -0,0 +1,170 @@
+package com.github.tarcv.doom_servers;
+
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.*;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Exposes {@link Metrics} through JMX and a local HTTP endpoint in the Prometheus text format.<br />
+ * Histograms are exported as summaries in seconds (count, sum and quantiles) plus a separate
+ * {@code <name>_max_seconds} gauge, as summaries have no max sample. JMX attributes carry the same values in microseconds.
+ */
+public class MetricsExporter {
+    static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final String[] QUANTILE_NAMES = {"P50", "P90", "P99", "P99_9"};
+
+    private final Metrics metrics;
+    private HttpServer httpServer;
+
+    public MetricsExporter(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public void registerJmx() {
+        try {
+            ObjectName name = new ObjectName("com.github.tarcv.doom_servers:type=Metrics");
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new MetricsBean(), name);
+            }
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Starts serving /metrics on the loopback interface
+     */
+    public void startHttp(int port) throws IOException {
+        httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        httpServer.createContext("/metrics", exchange -> {
+            try {
+                byte[] response = toText().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, response.length);
+                try (OutputStream body = exchange.getResponseBody()) {
+                    body.write(response);
+                }
+            } finally {
+                exchange.close();
+            }
+        });
+        httpServer.start();
+    }
+
+    public void stop() {
+        if (httpServer != null) {
+            httpServer.stop(0);
+        }
+    }
+
+    String toText() {
+        StringBuilder text = new StringBuilder();
+        metrics.getHistograms().forEach((name, histogram) -> {
+            LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+            String metric = name + "_seconds";
+            text.append("# TYPE ").append(metric).append(" summary\n");
+            for (double quantile : QUANTILES) {
+                text.append(metric).append("{quantile=\"").append(quantile).append("\"} ")
+                        .append(toSeconds(snapshot.getValueAt(quantile))).append('\n');
+            }
+            text.append(metric).append("_count ").append(snapshot.getCount()).append('\n');
+            text.append(metric).append("_sum ").append(toSeconds(snapshot.getTotal())).append('\n');
+            String maxMetric = name + "_max_seconds";
+            text.append("# TYPE ").append(maxMetric).append(" gauge\n")
+                    .append(maxMetric).append(' ').append(toSeconds(snapshot.getMax())).append('\n');
+        });
+        metrics.getCounters().forEach((name, value) -> text
+                .append("# TYPE ").append(name).append("_total counter\n")
+                .append(name).append("_total ").append(value).append('\n'));
+        metrics.getGauges().forEach((name, value) -> text
+                .append("# TYPE ").append(name).append(" gauge\n")
+                .append(name).append(' ').append(value).append('\n'));
+        return text.toString();
+    }
+
+    private static String toSeconds(long nanos) {
+        return String.format(Locale.ROOT, "%.9f", nanos / 1e9);
+    }
+
+    /**
+     * @return current values of all metrics, histogram values are in microseconds
+     */
+    Map<String, Long> getAttributeValues() {
+        Map<String, Long> values = new LinkedHashMap<>();
+        metrics.getHistograms().forEach((name, histogram) -> {
+            LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+            values.put(name + "Count", snapshot.getCount());
+            values.put(name + "MeanMicros", snapshot.getMean() / 1000);
+            for (int i = 0; i < QUANTILES.length; i++) {
+                values.put(name + QUANTILE_NAMES[i] + "Micros", snapshot.getValueAt(QUANTILES[i]) / 1000);
+            }
+            values.put(name + "MaxMicros", snapshot.getMax() / 1000);
+        });
+        values.putAll(metrics.getCounters());
+        values.putAll(metrics.getGauges());
+        return values;
+    }
+
+    /**
+     * Read-only attributes are recomputed on every request, as metrics can be registered at any time
+     */
+    private class MetricsBean implements DynamicMBean {
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Long value = getAttributeValues().get(attribute);
+            if (value == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return value;
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            Map<String, Long> values = getAttributeValues();
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                if (values.containsKey(attribute)) {
+                    list.add(new Attribute(attribute, values.get(attribute)));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException(attribute.getName() + " is read-only");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+            throw new ReflectionException(new NoSuchMethodException(actionName));
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            Map<String, Long> values = getAttributeValues();
+            MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[values.size()];
+            int i = 0;
+            for (String name : values.keySet()) {
+                attributes[i++] = new MBeanAttributeInfo(name, "long", name, true, false, false);
+            }
+            return new MBeanInfo(MetricsBean.class.getName(), "Doom servers agent metrics",
+                    attributes, null, null, null);
+        }
+    }
+}
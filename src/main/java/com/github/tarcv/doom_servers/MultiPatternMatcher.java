@@ -0,0 +1,128 @@
+package com.github.tarcv.doom_servers;
+
+import java.util.*;
+
+/**
+ * Aho-Corasick automaton finding all occurrences of many fixed strings in one pass over a text.<br />
+ * Transitions for ASCII characters are precomputed into a table, so scanning ASCII text
+ * costs one array lookup per character regardless of the number of patterns.
+ * Other characters follow trie edges and failure links.<br />
+ * Instances are immutable and can be shared between threads.
+ */
+public class MultiPatternMatcher<T> {
+    private static final int ASCII = 128;
+
+    private final int[][] asciiTransitions;
+    private final List<Map<Character, Integer>> children;
+    private final int[] failure;
+    // pattern indexes ending at each state, including the ones of its failure chain
+    private final int[][] outputs;
+    private final List<T> values;
+    private final int[] lengths;
+
+    /**
+     * @param patterns non-empty strings and values reported for them
+     */
+    public MultiPatternMatcher(Map<String, T> patterns) {
+        values = new ArrayList<>(patterns.size());
+        lengths = new int[patterns.size()];
+        children = new ArrayList<>();
+        children.add(new HashMap<>());
+        List<List<Integer>> stateOutputs = new ArrayList<>();
+        stateOutputs.add(new ArrayList<>());
+
+        for (Map.Entry<String, T> pattern : patterns.entrySet()) {
+            String text = pattern.getKey();
+            if (text.isEmpty()) {
+                throw new IllegalArgumentException("Empty pattern for " + pattern.getValue());
+            }
+            int state = 0;
+            for (int i = 0; i < text.length(); i++) {
+                Integer next = children.get(state).get(text.charAt(i));
+                if (next == null) {
+                    next = children.size();
+                    children.add(new HashMap<>());
+                    stateOutputs.add(new ArrayList<>());
+                    children.get(state).put(text.charAt(i), next);
+                }
+                state = next;
+            }
+            lengths[values.size()] = text.length();
+            stateOutputs.get(state).add(values.size());
+            values.add(pattern.getValue());
+        }
+
+        int stateCount = children.size();
+        failure = new int[stateCount];
+        asciiTransitions = new int[stateCount][];
+        outputs = new int[stateCount][];
+
+        // breadth-first, so failure links always point to already processed states
+        Deque<Integer> queue = new ArrayDeque<>();
+        queue.add(0);
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            List<Integer> output = stateOutputs.get(state);
+            if (state != 0) {
+                for (int inherited : outputs[failure[state]]) {
+                    output.add(inherited);
+                }
+            }
+            outputs[state] = output.stream().mapToInt(Integer::intValue).toArray();
+
+            int[] transitions = new int[ASCII];
+            for (char c = 0; c < ASCII; c++) {
+                Integer child = children.get(state).get(c);
+                if (child != null) {
+                    transitions[c] = child;
+                } else {
+                    transitions[c] = state == 0 ? 0 : asciiTransitions[failure[state]][c];
+                }
+            }
+            asciiTransitions[state] = transitions;
+
+            for (Map.Entry<Character, Integer> child : children.get(state).entrySet()) {
+                int childState = child.getValue();
+                failure[childState] = state == 0 ? 0 : step(failure[state], child.getKey());
+                queue.add(childState);
+            }
+        }
+    }
+
+    /**
+     * Reports every occurrence of every pattern, in order of their end positions
+     */
+    public void scan(CharSequence text, MatchListener<T> listener) {
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            state = step(state, text.charAt(i));
+            for (int pattern : outputs[state]) {
+                listener.onMatch(values.get(pattern), i + 1 - lengths[pattern], i + 1);
+            }
+        }
+    }
+
+    private int step(int state, char c) {
+        if (c < ASCII) {
+            return asciiTransitions[state][c];
+        }
+        while (true) {
+            Integer next = children.get(state).get(c);
+            if (next != null) {
+                return next;
+            }
+            if (state == 0) {
+                return 0;
+            }
+            state = failure[state];
+        }
+    }
+
+    public interface MatchListener<T> {
+        /**
+         * @param start index of the first matched character
+         * @param end index after the last matched character
+         */
+        void onMatch(T value, int start, int end);
+    }
+}
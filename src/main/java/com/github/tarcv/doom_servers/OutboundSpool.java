@@ -0,0 +1,309 @@
+package com.github.tarcv.doom_servers;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Segmented, memory-mapped append log of outbound frames waiting for acknowledgement by the server.<br />
+ * Each record gets the next sequence number. Segments are files named by their first sequence. Record layout:
+ * <pre>
+ * int     payload length (0 marks the end of the segment data)
+ * long    sequence
+ * byte    kind
+ * byte[]  payload
+ * </pre>
+ * Segments whose records are all acknowledged are unmapped and deleted, see {@link MappedFiles}.
+ * When the log exceeds its size cap, the oldest segments are deleted even if unacknowledged,
+ * so appending never blocks.
+ * Existing segments are recovered on construction, so unacknowledged frames survive agent restarts too.
+ */
+public class OutboundSpool {
+    public static final byte KIND_JSON = 0;
+    public static final byte KIND_BINARY = 1;
+
+    private static final int RECORD_HEADER_SIZE = 4 + 8 + 1;
+    private static final String SEGMENT_SUFFIX = ".segment";
+    private static final String ACKNOWLEDGED_FILE = "acknowledged";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long maxSize;
+    private final List<Segment> segments = new ArrayList<>();
+    private final FileChannel acknowledgedChannel;
+    private final ByteBuffer acknowledgedBuffer = ByteBuffer.allocate(8);
+
+    private long lastSequence = 0;
+    private long acknowledgedSequence = 0;
+    private long droppedRecords = 0;
+
+    // position of the record after the last read one, speeds up sequential reads
+    private long readHintSequence = -1;
+    private Segment readHintSegment = null;
+    private int readHintPosition = 0;
+
+    public OutboundSpool(Path directory, int segmentSize, long maxSize) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSize = maxSize;
+
+        Files.createDirectories(directory);
+        acknowledgedChannel = FileChannel.open(directory.resolve(ACKNOWLEDGED_FILE), CREATE, READ, WRITE);
+        if (acknowledgedChannel.read(acknowledgedBuffer, 0) == 8) {
+            acknowledgedSequence = acknowledgedBuffer.getLong(0);
+        }
+        recoverSegments();
+        lastSequence = Math.max(lastSequence, acknowledgedSequence);
+    }
+
+    public static OutboundSpool fromProperties(Properties properties) throws IOException {
+        return new OutboundSpool(
+                Paths.get(properties.getProperty("spool.dir", "spool")).toAbsolutePath(),
+                Integer.parseInt(properties.getProperty("spool.segment.size", String.valueOf(4 * 1024 * 1024))),
+                Long.parseLong(properties.getProperty("spool.max.size", String.valueOf(256L * 1024 * 1024))));
+    }
+
+    /**
+     * @return sequence number the next appended record will get
+     */
+    public synchronized long getNextSequence() {
+        return lastSequence + 1;
+    }
+
+    /**
+     * Appends the payload (from its position to its limit)
+     * @return sequence number of the record
+     */
+    public synchronized long append(byte kind, ByteBuffer payload) throws IOException {
+        int recordSize = RECORD_HEADER_SIZE + payload.remaining();
+        Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        // keep space for the end marker
+        if (segment == null || segment.writePosition + recordSize + 4 > segment.buffer.capacity()) {
+            segment = createSegment(lastSequence + 1, Math.max(segmentSize, recordSize + 4));
+        }
+
+        long sequence = ++lastSequence;
+        MappedByteBuffer buffer = segment.buffer;
+        int position = segment.writePosition;
+        buffer.putLong(position + 4, sequence);
+        buffer.put(position + 12, kind);
+        ByteBuffer target = buffer.duplicate();
+        target.position(position + RECORD_HEADER_SIZE);
+        target.put(payload);
+        // length is written last, so a torn record is seen as the end of data on recovery
+        buffer.putInt(position, recordSize - RECORD_HEADER_SIZE);
+
+        segment.writePosition += recordSize;
+        segment.lastSequence = sequence;
+
+        evictOverCap();
+        return sequence;
+    }
+
+    /**
+     * @return the first available record with a sequence greater than the given one, null if there is none.
+     * Its payload is a copy, so it stays valid when the segment is deleted while the record is being sent
+     */
+    @Nullable
+    public synchronized Record readAfter(long sequence) {
+        Segment segment;
+        int position;
+        if (sequence == readHintSequence && segments.contains(readHintSegment)) {
+            segment = readHintSegment;
+            position = readHintPosition;
+        } else {
+            segment = null;
+            for (Segment candidate : segments) {
+                if (candidate.lastSequence > sequence) {
+                    segment = candidate;
+                    break;
+                }
+            }
+            if (segment == null) {
+                return null;
+            }
+            position = 0;
+        }
+
+        while (true) {
+            if (position + RECORD_HEADER_SIZE > segment.writePosition) {
+                int index = segments.indexOf(segment);
+                if (index < 0 || index + 1 >= segments.size()) {
+                    return null;
+                }
+                segment = segments.get(index + 1);
+                position = 0;
+                continue;
+            }
+
+            ByteBuffer buffer = segment.buffer;
+            int length = buffer.getInt(position);
+            long recordSequence = buffer.getLong(position + 4);
+            int nextPosition = position + RECORD_HEADER_SIZE + length;
+            if (recordSequence > sequence) {
+                ByteBuffer view = buffer.duplicate();
+                view.limit(nextPosition);
+                view.position(position + RECORD_HEADER_SIZE);
+                ByteBuffer payload = ByteBuffer.allocate(length);
+                payload.put(view);
+                payload.flip();
+
+                readHintSequence = recordSequence;
+                readHintSegment = segment;
+                readHintPosition = nextPosition;
+                return new Record(recordSequence, buffer.get(position + 12), payload.asReadOnlyBuffer());
+            }
+            position = nextPosition;
+        }
+    }
+
+    /**
+     * Marks all records up to the given sequence as delivered and deletes segments which are not needed anymore
+     */
+    public synchronized void acknowledge(long sequence) throws IOException {
+        if (sequence <= acknowledgedSequence) {
+            return;
+        }
+        acknowledgedSequence = Math.min(sequence, lastSequence);
+        acknowledgedBuffer.clear();
+        acknowledgedBuffer.putLong(0, acknowledgedSequence);
+        acknowledgedChannel.write(acknowledgedBuffer, 0);
+
+        // the last segment is kept for appending
+        while (segments.size() > 1 && segments.get(0).lastSequence <= acknowledgedSequence) {
+            deleteSegment(segments.get(0));
+        }
+    }
+
+    public synchronized long getAcknowledgedSequence() {
+        return acknowledgedSequence;
+    }
+
+    public synchronized long getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * Number of unacknowledged records lost because of the size cap
+     */
+    public synchronized long getDroppedRecords() {
+        return droppedRecords;
+    }
+
+    public synchronized long getSize() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.buffer.capacity();
+        }
+        return size;
+    }
+
+    private void evictOverCap() throws IOException {
+        while (segments.size() > 1 && getSize() > maxSize) {
+            Segment oldest = segments.get(0);
+            long unacknowledgedStart = Math.max(oldest.firstSequence, acknowledgedSequence + 1);
+            if (oldest.lastSequence >= unacknowledgedStart) {
+                droppedRecords += oldest.lastSequence - unacknowledgedStart + 1;
+            }
+            deleteSegment(oldest);
+        }
+    }
+
+    private Segment createSegment(long firstSequence, int size) throws IOException {
+        Path path = directory.resolve(String.format("%020d%s", firstSequence, SEGMENT_SUFFIX));
+        Segment segment = new Segment(path, firstSequence, MappedFiles.map(path, size));
+        segments.add(segment);
+        return segment;
+    }
+
+    private void deleteSegment(Segment segment) {
+        segments.remove(segment);
+        if (readHintSegment == segment) {
+            readHintSegment = null;
+            readHintSequence = -1;
+        }
+        MappedFiles.unmapAndDelete(segment.buffer, segment.path);
+    }
+
+    private void recoverSegments() throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            stream.forEach(paths::add);
+        }
+        paths.sort(null);
+
+        for (Path path : paths) {
+            long firstSequence = Long.parseLong(path.getFileName().toString().replace(SEGMENT_SUFFIX, ""));
+            Segment segment = new Segment(path, firstSequence, MappedFiles.map(path, (int) Files.size(path)));
+            ByteBuffer buffer = segment.buffer;
+            int position = 0;
+            while (position + RECORD_HEADER_SIZE <= buffer.capacity()) {
+                int length = buffer.getInt(position);
+                if (length <= 0 || position + RECORD_HEADER_SIZE + length > buffer.capacity()) {
+                    break;
+                }
+                segment.lastSequence = buffer.getLong(position + 4);
+                position += RECORD_HEADER_SIZE + length;
+            }
+            segment.writePosition = position;
+
+            if (segment.lastSequence <= acknowledgedSequence) {
+                MappedFiles.unmapAndDelete(segment.buffer, path);
+            } else {
+                segments.add(segment);
+                lastSequence = segment.lastSequence;
+            }
+        }
+    }
+
+    public static class Record {
+        private final long sequence;
+        private final byte kind;
+        private final ByteBuffer payload;
+
+        Record(long sequence, byte kind, ByteBuffer payload) {
+            this.sequence = sequence;
+            this.kind = kind;
+            this.payload = payload;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public byte getKind() {
+            return kind;
+        }
+
+        public ByteBuffer getPayload() {
+            return payload.duplicate();
+        }
+    }
+
+    private static class Segment {
+        final Path path;
+        final long firstSequence;
+        final MappedByteBuffer buffer;
+        long lastSequence;
+        int writePosition = 0;
+
+        Segment(Path path, long firstSequence, MappedByteBuffer buffer) {
+            this.path = path;
+            this.firstSequence = firstSequence;
+            this.buffer = buffer;
+            this.lastSequence = firstSequence - 1;
+        }
+    }
+}
@@ -2,4 +2,10 @@ package com.github.tarcv.doom_servers;
 
 public interface OutputHandler {
     void onOutputLine(String line);
+
+    /**
+     * Called once after the last line of the stream
+     */
+    default void onOutputEnd() {
+    }
 }
@@ -0,0 +1,28 @@
+package com.github.tarcv.doom_servers;
+
+import java.util.Locale;
+
+/**
+ * What {@link ConsoleRingBuffer} does with a line when it is full
+ */
+public enum OverflowPolicy {
+    /** Evict the oldest buffered line to make room for the new one */
+    DROP_OLDEST,
+
+    /** Discard the new line */
+    DROP_NEWEST,
+
+    /** Discard new lines and put one line reporting how many were lost at the gap */
+    SUMMARIZE;
+
+    /**
+     * Parses values like 'drop-oldest'
+     */
+    public static OverflowPolicy fromProperty(String value) {
+        try {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+        } catch (IllegalArgumentException e) {
+            throw new ConfigurationException("Unknown console overflow policy: " + value);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.github.tarcv.doom_servers;
+
+import com.github.tarcv.doom_servers.messages.ResourceReport;
+import com.github.tarcv.doom_servers.messages.ServerResources;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Periodically reads /proc/&lt;pid&gt;/stat, status and io of every running engine process
+ * and sends CPU usage, RSS, context switch and disk I/O rates upstream in one {@link ResourceReport}.<br />
+ * Runs on the shared agent scheduler, rates are computed between two consecutive runs.
+ * Reports are not spooled, one lost while disconnected is replaced by the next one.
+ */
+public class ProcessSampler implements Runnable {
+    private final ServerRegistry servers;
+    private final Connection connection;
+    private final int clockTicksPerSecond;
+    private final Map<String, Sample> previousSamples = new HashMap<>();
+    private final byte[] readBuffer = new byte[4096];
+
+    public ProcessSampler(ServerRegistry servers, Connection connection, int clockTicksPerSecond) {
+        this.servers = servers;
+        this.connection = connection;
+        this.clockTicksPerSecond = clockTicksPerSecond;
+    }
+
+    @Override
+    public void run() {
+        try {
+            ResourceReport report = sample();
+            if (!report.getServers().isEmpty()) {
+                connection.send(report);
+            }
+        } catch (IOException e) {
+            // not connected, the next report will be sent
+        } catch (RuntimeException e) {
+            // should not cancel next runs
+            e.printStackTrace();
+        }
+    }
+
+    ResourceReport sample() {
+        long now = System.nanoTime();
+        List<ServerResources> resources = new ArrayList<>();
+        Set<String> sampledIds = new HashSet<>();
+        for (Server server : servers.getAll()) {
+            long pid = server.getPid();
+            if (pid <= 0) {
+                continue;
+            }
+            Sample sample = readSample(pid, now);
+            if (sample == null) {
+                continue;
+            }
+            sampledIds.add(server.getId());
+            Sample previous = previousSamples.put(server.getId(), sample);
+            if (previous == null || previous.pid != pid) {
+                continue;
+            }
+
+            double seconds = (now - previous.nanoTime) / 1e9;
+            float cpuPercent = (float) ((sample.cpuTicks - previous.cpuTicks) * 100.0 / clockTicksPerSecond / seconds);
+            resources.add(new ServerResources(
+                    server.getId(),
+                    cpuPercent,
+                    sample.rssBytes,
+                    rate(sample.contextSwitches, previous.contextSwitches, seconds),
+                    rate(sample.readBytes, previous.readBytes, seconds),
+                    rate(sample.writeBytes, previous.writeBytes, seconds)));
+        }
+        previousSamples.keySet().retainAll(sampledIds);
+        return new ResourceReport(System.currentTimeMillis(), resources);
+    }
+
+    /**
+     * @return per second rate, -1 if the counter is not available
+     */
+    private static long rate(long current, long previous, double seconds) {
+        if (current < 0 || previous < 0) {
+            return -1;
+        }
+        return Math.round((current - previous) / seconds);
+    }
+
+    @Nullable
+    private Sample readSample(long pid, long nanoTime) {
+        String procDir = "/proc/" + pid + "/";
+        String stat = readProcFile(procDir + "stat");
+        String status = readProcFile(procDir + "status");
+        if (stat == null || status == null) {
+            // the process has just exited
+            return null;
+        }
+        // io is not readable when the process runs as another user
+        String io = readProcFile(procDir + "io");
+
+        Sample sample = new Sample(pid, nanoTime);
+        sample.cpuTicks = parseCpuTicks(stat);
+        // kernel threads and zombies have no VmRSS
+        long rssKilobytes = parseField(status, "VmRSS:");
+        sample.rssBytes = rssKilobytes >= 0 ? rssKilobytes * 1024 : -1;
+        long voluntarySwitches = parseField(status, "voluntary_ctxt_switches:");
+        long involuntarySwitches = parseField(status, "nonvoluntary_ctxt_switches:");
+        sample.contextSwitches = voluntarySwitches >= 0 && involuntarySwitches >= 0
+                ? voluntarySwitches + involuntarySwitches
+                : -1;
+        sample.readBytes = io != null ? parseField(io, "read_bytes:") : -1;
+        sample.writeBytes = io != null ? parseField(io, "write_bytes:") : -1;
+        return sample;
+    }
+
+    @Nullable
+    private String readProcFile(String path) {
+        try (FileInputStream input = new FileInputStream(path)) {
+            int length = 0;
+            int read;
+            while (length < readBuffer.length && (read = input.read(readBuffer, length, readBuffer.length - length)) > 0) {
+                length += read;
+            }
+            return new String(readBuffer, 0, length, StandardCharsets.ISO_8859_1);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return utime + stime from the content of /proc/&lt;pid&gt;/stat
+     */
+    static long parseCpuTicks(String stat) {
+        // the command name can contain spaces and parentheses, fields after it start with the state (field 3)
+        String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+        return Long.parseLong(fields[14 - 3]) + Long.parseLong(fields[15 - 3]);
+    }
+
+    /**
+     * @return the first number after the name in "name: value" formatted content, -1 if there is no such field
+     */
+    static long parseField(String content, String name) {
+        int start;
+        if (content.startsWith(name)) {
+            start = 0;
+        } else {
+            int index = content.indexOf("\n" + name);
+            if (index < 0) {
+                return -1;
+            }
+            start = index + 1;
+        }
+        int position = start + name.length();
+        while (position < content.length() && !Character.isDigit(content.charAt(position))) {
+            position++;
+        }
+        long value = 0;
+        while (position < content.length() && Character.isDigit(content.charAt(position))) {
+            value = value * 10 + (content.charAt(position) - '0');
+            position++;
+        }
+        return value;
+    }
+
+    private static class Sample {
+        final long pid;
+        final long nanoTime;
+        long cpuTicks;
+        long rssBytes;
+        long contextSwitches;
+        long readBytes;
+        long writeBytes;
+
+        Sample(long pid, long nanoTime) {
+            this.pid = pid;
+            this.nanoTime = nanoTime;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.github.tarcv.doom_servers;
+
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * Delays between reconnection attempts. The delay limit doubles after each failed attempt up to the maximum
+ * and the actual delay is picked randomly between half of the limit and the limit,
+ * so agents disconnected at once by a server restart don't reconnect at once.<br />
+ * Configured with {@code connection.reconnect.initial} and {@code connection.reconnect.max} properties (milliseconds).
+ */
+public class ReconnectBackoff {
+    private final long initialMillis;
+    private final long maxMillis;
+    private final Random random;
+    private long limitMillis;
+
+    public ReconnectBackoff(long initialMillis, long maxMillis, Random random) {
+        if (initialMillis <= 0 || maxMillis < initialMillis) {
+            throw new IllegalArgumentException("Invalid reconnect delays: " + initialMillis + ", " + maxMillis);
+        }
+        this.initialMillis = initialMillis;
+        this.maxMillis = maxMillis;
+        this.random = random;
+        this.limitMillis = initialMillis;
+    }
+
+    public static ReconnectBackoff fromProperties(Properties properties) {
+        return new ReconnectBackoff(
+                Long.parseLong(properties.getProperty("connection.reconnect.initial", "1000")),
+                Long.parseLong(properties.getProperty("connection.reconnect.max", "60000")),
+                new Random());
+    }
+
+    /**
+     * @return delay before the next attempt
+     */
+    public synchronized long nextDelayMillis() {
+        long limit = limitMillis;
+        limitMillis = Math.min(maxMillis, limitMillis * 2);
+        long half = limit / 2;
+        return half + (long) (random.nextDouble() * (limit - half + 1));
+    }
+
+    /**
+     * Called when a connection is established, so the next disconnect is retried quickly again
+     */
+    public synchronized void reset() {
+        limitMillis = initialMillis;
+    }
+}
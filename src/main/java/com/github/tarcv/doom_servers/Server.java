@@ -1,305 +1,248 @@
 package com.github.tarcv.doom_servers;
 
 import org.jetbrains.annotations.Nullable;
-import org.zeroturnaround.exec.ProcessExecutor;
-import org.zeroturnaround.exec.StartedProcess;
-import org.zeroturnaround.exec.stream.ExecuteStreamHandler;
-import org.zeroturnaround.exec.stream.PumpStreamHandler;
 
-import java.io.*;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
+import java.io.IOException;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.Scanner;
-import java.util.concurrent.*;
-import java.util.function.Consumer;
-
-import static java.nio.file.StandardOpenOption.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Created by TarCV on 13.11.2016.
  */
 public class Server {
-    private final ServerConfiguration configuration;
-    private final File executable;
-    private final File workDir;
-    private final ConsolePumper consolePumper;
-    private PrintWriter processInputSource;
-
+    private static final LatencyHistogram SERVER_START = Metrics.get().histogram("server_start");
+    private static final LatencyHistogram COMMAND_RTT = Metrics.get().histogram("console_command_rtt");
+    private static final LongAdder FILTERED_LINES = Metrics.get().counter("console_filtered_lines");
+    private static final ConsoleEventType[] EVENT_TYPES = ConsoleEventType.values();
+    /**
+     * Starts of the lines the engine console prints for a command it couldn't execute,
+     * in addition to {@link ConsoleEventType#ERROR} lines
+     */
+    private static final List<String> COMMAND_FAILURES = Arrays.asList("Unknown command", "Could not ", "couldn't ");
+
+    private final String id;
+    private volatile ServerConfiguration configuration;
+    private final Path executable;
+    private final Path workDir;
+    private final ConsoleBatcher consoleSink;
+    private final ConsoleHistoryLog consoleHistory;
+    private final ConsoleScanner consoleScanner;
+    private final ConsoleEventListener eventListener;
+    private final ConsoleScanner.Result scanResult = new ConsoleScanner.Result();
+    private volatile EngineProcess engineProcess;
+    private volatile ConsoleFilter consoleFilter = ConsoleFilter.ALL;
     @Nullable
-    private volatile OutputHandler outputLineHandler = null;
-
-    private List<Thread> handlingThreads = new ArrayList<>();
-    private StartedProcess serverProcess;
+    private volatile EngineIsolation.Lease isolationLease;
 
-    public Server(Path executable, Path workDir, ServerConfiguration configuration, BlockingQueue<String> consoleBlockingSink) {
-        this.executable = executable.toFile();
-        this.workDir = workDir.toFile();
+    // null till the engine console is ready, earlier lines only go to the history and events
+    @Nullable
+    private volatile CommandPipeline commandPipeline;
+
+    public Server(String id, Path executable, Path workDir, ServerConfiguration configuration,
+                  ConsoleBatcher consoleSink, ConsoleHistoryLog consoleHistory,
+                  ConsoleScanner consoleScanner, ConsoleEventListener eventListener) {
+        this.id = id;
+        this.executable = executable;
+        this.workDir = workDir;
         this.configuration = configuration;
-        this.consolePumper = new ConsolePumper(consoleBlockingSink);
+        this.consoleSink = consoleSink;
+        this.consoleHistory = consoleHistory;
+        this.consoleScanner = consoleScanner;
+        this.eventListener = eventListener;
     }
 
     public void run() throws IOException, TimeoutException, InterruptedException {
-        List<String> commandParts = new ArrayList<>();
-        commandParts.add(executable.toString());
-        commandParts.addAll(configuration.getCommandline());
-
-        createFiles(workDir, configuration.getConfigs());
-
-        ExecuteStreamHandler executeStreamHandler = prepareStreamHandler();
-        assert this.processInputSource != null;
-
-        ServerInitingWaiter serverInitingWaiter = new ServerInitingWaiter(processInputSource);
-        outputLineHandler = serverInitingWaiter;
-
-        serverProcess = new ProcessExecutor()
-                .command(commandParts)
-                .directory(workDir)
-                .streams(executeStreamHandler)
-                .destroyOnExit()
-                .start();
-
-        serverInitingWaiter.await();
+        run(null, null);
     }
 
-    private ExecuteStreamHandler prepareStreamHandler() throws IOException {
-        InputStream processInputStream = createProcessInputStream();
+    /**
+     * Starts the engine taking a ready process from the pool when possible
+     * @param isolation CPU pinning and scheduling settings applied to the engine process, if any
+     */
+    public void run(@Nullable EngineProcessPool enginePool, @Nullable EngineIsolation isolation)
+            throws IOException, TimeoutException, InterruptedException {
+        long startNanos = System.nanoTime();
+        List<String> commandline = configuration.getCommandline();
+
+        ConfigMaterializer.forDirectory(workDir).materialize(configuration.getConfigs());
 
-        OutputStream processOutputSink = setupLineHandler("STDOUT handler", scanner -> {
+        EngineProcess process = enginePool != null ? enginePool.acquire(commandline) : null;
+        boolean warm = process != null;
+        if (process == null) {
+            process = new EngineProcess(executable, workDir, commandline);
+        }
+        engineProcess = process;
+        process.setOutputHandler(line -> {
             try {
-                onOutputLine(scanner.nextLine());
+                onOutputLine(line);
             } catch (IOException e) {
                 e.printStackTrace();
             }
         });
-        OutputStream processErrorSink = setupLineHandler("STDERR handler", scanner -> onErrorLine(scanner.nextLine()));
-
-        return new FlushingPumpStreamHandler(processOutputSink, processErrorSink, processInputStream);
-    }
-
-    private InputStream createProcessInputStream() throws IOException {
-        PipedOutputStream inputSourceStream = new PipedOutputStream();
-        processInputSource = new PrintWriter(inputSourceStream, true);
-        return new PipedInputStream(inputSourceStream);
-    }
-
-    private void createFiles(File workDir, Map<String, List<String>> configs) {
-        final Path basePath = workDir.toPath();
-
-        configs.forEach((name, lines) -> {
-            Path subPath = Paths.get(name);
-            if (subPath.isAbsolute()) {
-                throw new RuntimeException(subPath.toString() + " is an absolute path. Discarding request as invalid");
-            }
-
-            Path configPath = basePath.resolve(subPath);
-            if (!isChild(basePath, configPath)) {
-                throw new RuntimeException(subPath.toString() + " is an dangerous path. Discarding request as invalid");
-            }
-
-            try {
-                Files.createDirectories(configPath.getParent());
-                Files.write(configPath, lines, StandardCharsets.UTF_8,
-                        CREATE, TRUNCATE_EXISTING, WRITE);
-            } catch (IOException e) {
-                throw new RuntimeException("Failed to write " + configPath, e);
+        if (!warm) {
+            process.start();
+        }
+        if (isolation != null) {
+            isolationLease = isolation.apply(id, process.getPid());
+        }
+        CommandPipeline pipeline = new CommandPipeline(process.getInput(), this::onConsoleLine);
+        commandPipeline = pipeline;
+
+        if (warm) {
+            List<String> remainingArguments = commandline.subList(process.getCommandline().size(), commandline.size());
+            List<String> commands = EngineProcessPool.toConsoleCommands(remainingArguments);
+            assert commands != null;
+            if (!commands.isEmpty()) {
+                pipeline.execute(commands, 30, TimeUnit.SECONDS);
             }
-        });
-    }
-
-    private static boolean isChild(Path parent, Path supposedChild) {
-        return supposedChild.toAbsolutePath().startsWith(parent.toAbsolutePath());
-    }
-
-    public void onOutputLine(String line) throws IOException {
-        OutputHandler tmp = outputLineHandler;
-        assert tmp != null;
-        tmp.onOutputLine(line);
-        System.out.println("Output:" + line);
-    }
+        }
 
-    public void onErrorLine(String line) {
-        System.err.println("Error:" + line);
+        long startDuration = System.nanoTime() - startNanos;
+        SERVER_START.record(startDuration);
+        if (enginePool != null) {
+            enginePool.recordServerStart(warm, startDuration);
+        }
     }
 
-    private OutputStream setupLineHandler(String threadName, Consumer<Scanner> consumer) {
-        PipedOutputStream outputStream = new PipedOutputStream();
-        Runnable runnable = () -> {
-            try {
-                PipedInputStream is = new PipedInputStream(outputStream);
-                Scanner scanner = new Scanner(is);
-                while (scanner.hasNextLine()) {
-                    consumer.accept(scanner);
-                }
-            } catch (IOException e) {
-                // TODO: better handle this fatal error
-                throw new RuntimeException(e);
-            }
-        };
-        Thread thread = new Thread(runnable, threadName);
-        thread.setDaemon(true);
-        thread.start();
-        handlingThreads.add(thread);
-        return outputStream;
+    public String getId() {
+        return id;
     }
 
-    public List<String> executeConsole(List<String> command) throws InterruptedException, TimeoutException {
-        // It is assumed that command contains a game-specific command to output 'DoomConsoleResultEnd' right after the command result
-        for (String subcommand : command) {
-            processInputSource.println(subcommand);
-        }
-
-        try {
-            ConsoleResultWaiter consoleResultWaiter = new ConsoleResultWaiter();
-            outputLineHandler = consoleResultWaiter;
-            return consoleResultWaiter.await();
-        } finally {
-            outputLineHandler = consolePumper;
-            assert outputLineHandler != null;
-        }
+    public ServerConfiguration getConfiguration() {
+        return configuration;
     }
 
     /**
-     * Original {@link PumpStreamHandler} doesn't flush 'input stream' OutputStream when needed.
-     * So it cannot be used to send some command to a running executable.<br />
-     * This Handler fixes that <br />
-     * TODO: Check if this handler is needed with ZT-Exec<br/>
-     *
-     * Also it closed Server.processInputSource in {@link #stop()}. Which is required to correctly shutdown streams.
+     * Applies a configuration which differs from the current one as described by the diff, without a restart:
+     * rewrites changed config files and executes the console commands of the diff one by one
+     * @return false if the engine rejected a command, the rest are not executed and the configuration
+     * is left partially applied
      */
-    private class FlushingPumpStreamHandler extends PumpStreamHandler {
-        private static final int BUFFER_SIZE = 1024;
-        private final InputStream processInputStream;
-        Thread inputThread;
-
-        public FlushingPumpStreamHandler(OutputStream processOutputSink, OutputStream processErrorSink, InputStream processInputStream) {
-            super(processOutputSink, processErrorSink, new ByteArrayInputStream(new byte[]{0}));
-            this.processInputStream = processInputStream;
+    public boolean reconfigure(ServerConfiguration next, ConfigurationDiff diff)
+            throws IOException, InterruptedException, TimeoutException {
+        if (diff.isRestartRequired()) {
+            throw new IllegalArgumentException("Command line changes of server " + id + " require a restart");
         }
-
-        @Override
-        public void setProcessInputStream(OutputStream os) {
-            Runnable pumpingRunnable = () -> {
-                byte[] buffer = new byte[BUFFER_SIZE];
-                int readBytes;
-                try {
-                    while ((readBytes = processInputStream.read(buffer)) > 0) {
-                        os.write(buffer, 0, readBytes);
-                        if (processInputStream.available() == 0) {
-                            os.flush();
-                        }
-                    }
-                    os.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
+        ConfigMaterializer.forDirectory(workDir).materialize(next.getConfigs());
+        for (String command : diff.getConsoleCommands()) {
+            List<String> output = executeConsole(Collections.singletonList(command));
+            for (String line : output) {
+                if (isCommandFailure(line)) {
+                    System.err.println("Server " + id + " rejected '" + command + "': " + line);
+                    return false;
                 }
-            };
-            Thread pumpingThread = new Thread(pumpingRunnable);
-            pumpingThread.setDaemon(true);
-            inputThread = pumpingThread;
-        }
-
-        @Override
-        public void start() {
-            super.start();
-            inputThread.start();
-        }
-
-        @Override
-        public void stop() {
-            processInputSource.close(); //otherwise super.stop() will hang
-
-            super.stop();
-
-            try {
-                inputThread.join();
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
             }
         }
+        configuration = next;
+        return true;
     }
 
-    private static class ServerInitingWaiter implements OutputHandler {
-        private final CountDownLatch initNotifier = new CountDownLatch(1);
-        private final Object lock = new Object();
-        private final PrintWriter processInputSource;
-
-        public ServerInitingWaiter(PrintWriter processInputSource) {
-            this.processInputSource = processInputSource;
-        }
-
-        @Override
-        public void onOutputLine(String line) {
-            synchronized (lock) {
-                if (line.contains("DoomServerReady")) {
-                    processInputSource.println("echo DoomConsoleReady");
-                } else if (line.contains("DoomConsoleReady")) {
-                    initNotifier.countDown();
-                }
+    private boolean isCommandFailure(String line) {
+        for (String failure : COMMAND_FAILURES) {
+            if (line.startsWith(failure)) {
+                return true;
             }
         }
+        return consoleScanner.scan(line, new ConsoleScanner.Result()).hasEvent(ConsoleEventType.ERROR);
+    }
 
-        void await() throws InterruptedException, TimeoutException {
-            if (!initNotifier.await(60, TimeUnit.SECONDS)) {
-                throw new TimeoutException("Timed out waiting for server to start");
-            }
-        }
+    public ConsoleBatcher getConsoleSink() {
+        return consoleSink;
     }
 
-    private static class ConsoleResultWaiter implements OutputHandler {
-        private final CountDownLatch consoleResultNotifier = new CountDownLatch(1);
-        private final List<String> consoleResultBuffer = new ArrayList<>();
-        private final Object lock = new Object();
+    /**
+     * Sets which console lines are sent upstream. The history still gets all of them
+     */
+    public void setConsoleFilter(ConsoleFilter consoleFilter) {
+        this.consoleFilter = consoleFilter;
+    }
 
-        @Override
-        public void onOutputLine(String line) {
-            synchronized (lock) {
-                // chat messages will be filtered out by server not agent
-                if (line.contains("DoomConsoleResultEnd")) {
-                    onResultEnd();
-                    return;
-                }
+    /**
+     * @return OS process id of the engine, -1 if it is not known
+     */
+    public long getPid() {
+        EngineProcess process = engineProcess;
+        return process != null ? process.getPid() : -1;
+    }
 
-                if (consoleResultNotifier.getCount() == 0) {
-                    throw new IllegalStateException("Got line after finished waiting for console result");
-                }
-                consoleResultBuffer.add(line);
+    /**
+     * Kills the engine process (if it was started) and sends remaining console output. Safe to call more than once
+     */
+    public void stop() {
+        EngineProcess process = engineProcess;
+        if (process != null) {
+            process.destroy();
+            EngineIsolation.Lease lease = isolationLease;
+            if (lease != null) {
+                process.whenExited(lease::release);
             }
         }
+        consoleSink.close();
+    }
 
-        void onResultEnd() {
-            synchronized (lock) {
-                consoleResultNotifier.countDown();
+    /**
+     * Scans the line once for both command result markers and console events.
+     * Events are reported for console lines only, not for command results
+     */
+    public void onOutputLine(String line) throws IOException {
+        long timestamp = System.currentTimeMillis();
+        ConsoleScanner.Result scan = consoleScanner.scan(line, scanResult);
+        CommandPipeline pipeline = commandPipeline;
+        boolean consoleLine = pipeline == null || pipeline.onOutputLine(line, scan);
+        if (consoleLine && scan.hasEvents()) {
+            for (ConsoleEventType type : EVENT_TYPES) {
+                if (scan.hasEvent(type)) {
+                    eventListener.onConsoleEvent(id, type, timestamp, line);
+                }
             }
         }
+        consoleHistory.appendLater(line, timestamp);
+        System.out.println("Output:" + line);
+    }
 
-        List<String> await() throws InterruptedException, TimeoutException {
-            if (!consoleResultNotifier.await(30, TimeUnit.SECONDS)) {
-                throw new TimeoutException("Timed out waiting for console result");
-            }
-            return consoleResultBuffer;
+    /**
+     * Called by the pipeline from {@link #onOutputLine(String)}, so {@link #scanResult} is the one of this line.
+     * Filtered out lines never reach the console buffer
+     */
+    private void onConsoleLine(String line) {
+        if (consoleFilter.accepts(line, scanResult)) {
+            consoleSink.onOutputLine(line);
+        } else {
+            FILTERED_LINES.increment();
         }
-
     }
 
-    private static class ConsolePumper implements OutputHandler {
-        private final BlockingQueue<String> lineBuffer;
+    /**
+     * Executes the command and returns its output. Can be called concurrently, see {@link CommandPipeline}
+     */
+    public List<String> executeConsole(List<String> command)
+            throws IOException, InterruptedException, TimeoutException {
+        List<String> result = new ArrayList<>();
+        executeConsole(command, result::addAll);
+        return result;
+    }
 
-        private ConsolePumper(BlockingQueue<String> lineBuffer) {
-            this.lineBuffer = lineBuffer;
+    /**
+     * Executes the command streaming its output to the consumer on the calling thread
+     * @return number of output lines dropped because the consumer did not keep up
+     */
+    public long executeConsole(List<String> command, CommandPipeline.ChunkConsumer consumer)
+            throws IOException, InterruptedException, TimeoutException {
+        CommandPipeline pipeline = commandPipeline;
+        if (pipeline == null) {
+            throw new IllegalStateException("Console of server " + id + " is not ready");
         }
-
-        @Override
-        public void onOutputLine(String line) {
-            try {
-                lineBuffer.put(line);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
+        long startNanos = System.nanoTime();
+        try {
+            return pipeline.execute(command, 30, TimeUnit.SECONDS, consumer);
+        } finally {
+            COMMAND_RTT.recordSince(startNanos);
         }
     }
 }
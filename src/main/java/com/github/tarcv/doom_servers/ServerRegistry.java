@@ -0,0 +1,50 @@
+package com.github.tarcv.doom_servers;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Thread-safe registry of {@link Server}s hosted by one agent, keyed by server id
+ */
+public class ServerRegistry {
+    private final ConcurrentMap<String, Server> servers = new ConcurrentHashMap<>();
+
+    /**
+     * Registers a server under its id
+     * @return the server previously registered under the same id, if any
+     */
+    @Nullable
+    public Server put(Server server) {
+        return servers.put(server.getId(), server);
+    }
+
+    public Server get(String id) {
+        Server server = servers.get(id);
+        if (server == null) {
+            throw new IllegalArgumentException("Unknown server id: " + id);
+        }
+        return server;
+    }
+
+    @Nullable
+    public Server find(String id) {
+        return servers.get(id);
+    }
+
+    @Nullable
+    public Server remove(String id) {
+        return servers.remove(id);
+    }
+
+    public Collection<Server> getAll() {
+        return Collections.unmodifiableCollection(servers.values());
+    }
+
+    public int size() {
+        return servers.size();
+    }
+}
@@ -0,0 +1,121 @@
+package com.github.tarcv.doom_servers;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sends records of an {@link OutboundSpool} in order on its own thread while the connection is up.<br />
+ * After every (re)authentication it starts over from the last acknowledged record,
+ * so records lost together with a broken connection are sent again.<br />
+ * Only an {@link IOException} of the transport means the connection is down. A record which fails
+ * with a RuntimeException (e.g. it can't be converted to the negotiated encoding) would fail every time,
+ * so it is skipped and counted in 'spool_skipped_records' instead of blocking the records after it.
+ */
+public class SpoolSender implements Runnable {
+    private static final LongAdder SKIPPED_RECORDS = Metrics.get().counter("spool_skipped_records");
+
+    private final OutboundSpool spool;
+    private final Transport transport;
+    private final Object lock = new Object();
+
+    // guarded by lock
+    private boolean connected = false;
+    private boolean stopped = false;
+    private long sentSequence = 0;
+    private long connectionEpoch = 0;
+
+    public SpoolSender(OutboundSpool spool, Transport transport) {
+        this.spool = spool;
+        this.transport = transport;
+    }
+
+    /**
+     * Should be called when the server is ready to receive records
+     */
+    public void onConnected() {
+        synchronized (lock) {
+            connected = true;
+            connectionEpoch++;
+            sentSequence = spool.getAcknowledgedSequence();
+            lock.notifyAll();
+        }
+    }
+
+    public void onDisconnected() {
+        synchronized (lock) {
+            connected = false;
+            connectionEpoch++;
+        }
+    }
+
+    public void onAppended() {
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+    }
+
+    public void stop() {
+        synchronized (lock) {
+            stopped = true;
+            lock.notifyAll();
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                long afterSequence;
+                long epoch;
+                synchronized (lock) {
+                    while (!stopped && !(connected && spool.getLastSequence() > sentSequence)) {
+                        lock.wait();
+                    }
+                    if (stopped) {
+                        return;
+                    }
+                    afterSequence = sentSequence;
+                    epoch = connectionEpoch;
+                }
+
+                OutboundSpool.Record record = spool.readAfter(afterSequence);
+                if (record == null) {
+                    // records were evicted because of the size cap
+                    synchronized (lock) {
+                        if (epoch == connectionEpoch) {
+                            sentSequence = spool.getLastSequence();
+                        }
+                    }
+                    continue;
+                }
+
+                try {
+                    transport.send(record);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    // wait for the next onConnected
+                    synchronized (lock) {
+                        if (epoch == connectionEpoch) {
+                            connected = false;
+                        }
+                    }
+                    continue;
+                } catch (RuntimeException e) {
+                    System.err.println("Skipping spool record " + record.getSequence() + ": " + e);
+                    SKIPPED_RECORDS.increment();
+                }
+                synchronized (lock) {
+                    if (epoch == connectionEpoch) {
+                        sentSequence = record.getSequence();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public interface Transport {
+        void send(OutboundSpool.Record record) throws IOException;
+    }
+}
@@ -0,0 +1,230 @@
+package com.github.tarcv.doom_servers;
+
+import com.github.tarcv.doom_servers.messages.ServerStatus;
+import com.github.tarcv.doom_servers.messages.StatusReport;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Polls running servers for their status over their local UDP launcher ports, all through one datagram channel
+ * on one selector. Responses are matched to servers by their source port.<br />
+ * Parsed statuses are cached for {@code ttl} milliseconds, a server which didn't answer within it is unreachable.
+ * After every poll changes since the last sent {@link StatusReport} are sent upstream. Like resource reports,
+ * they are not spooled: a report lost while disconnected is sent again with the next poll.<br />
+ * {@link #run()} serves the channel on the calling thread till {@link #close()}.
+ */
+public class StatusPoller implements Runnable, Closeable {
+    private static final int MAX_DATAGRAM = 8192;
+    private static final LongAdder QUERIES = Metrics.get().counter("status_queries");
+    private static final LongAdder RESPONSES = Metrics.get().counter("status_responses");
+    private static final LongAdder UNREADABLE = Metrics.get().counter("status_unreadable_responses");
+
+    private final Supplier<Map<String, Integer>> targets;
+    private final Connection connection;
+    private final LauncherProtocol protocol;
+    private final InetAddress host;
+    private final long intervalNanos;
+    private final long ttlNanos;
+    private final Selector selector;
+    private final DatagramChannel channel;
+    private final ByteBuffer sendBuffer = ByteBuffer.allocate(MAX_DATAGRAM);
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocate(MAX_DATAGRAM);
+    private final ConcurrentMap<String, CachedStatus> cache = new ConcurrentHashMap<>();
+    private final Map<String, ServerStatus> reported = new HashMap<>();
+    // only touched by the polling thread
+    private Map<Integer, String> serversByPort = Collections.emptyMap();
+    private volatile boolean running = true;
+
+    /**
+     * @param targets supplies launcher ports of running servers by their ids
+     */
+    public StatusPoller(Supplier<Map<String, Integer>> targets, Connection connection, LauncherProtocol protocol,
+                        InetAddress host, long intervalMillis, long ttlMillis) throws IOException {
+        this.targets = targets;
+        this.connection = connection;
+        this.protocol = protocol;
+        this.host = host;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.selector = Selector.open();
+        this.channel = DatagramChannel.open();
+        channel.configureBlocking(false);
+        channel.bind(new InetSocketAddress(host, 0));
+        channel.register(selector, SelectionKey.OP_READ);
+    }
+
+    /**
+     * @return launcher port from '-port' of the command line, the default port if there is none
+     */
+    public static int getLauncherPort(List<String> commandline, int defaultPort) {
+        int port = defaultPort;
+        for (int i = 0; i < commandline.size() - 1; i++) {
+            if ("-port".equals(commandline.get(i))) {
+                try {
+                    port = Integer.parseInt(commandline.get(i + 1));
+                } catch (NumberFormatException e) {
+                    // the engine would ignore it too
+                }
+            }
+        }
+        return port;
+    }
+
+    @Override
+    public void run() {
+        long nextPollNanos = System.nanoTime();
+        while (running) {
+            try {
+                long now = System.nanoTime();
+                if (now - nextPollNanos >= 0) {
+                    report();
+                    poll();
+                    nextPollNanos = now + intervalNanos;
+                }
+                receive(Math.max(1, TimeUnit.NANOSECONDS.toMillis(nextPollNanos - now)));
+            } catch (IOException | RuntimeException e) {
+                // closing the channel fails the current select, otherwise errors should not stop polling
+                if (running) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return cached status of the server, null if it didn't answer within the TTL
+     */
+    @Nullable
+    public LauncherStatus getStatus(String serverId) {
+        CachedStatus cached = cache.get(serverId);
+        if (cached == null || System.nanoTime() - cached.receivedNanos > ttlNanos) {
+            return null;
+        }
+        return cached.status;
+    }
+
+    /**
+     * Sends a status query to every running server
+     */
+    void poll() throws IOException {
+        Map<String, Integer> ports = targets.get();
+        Map<Integer, String> servers = new HashMap<>();
+        ports.forEach((serverId, port) -> servers.put(port, serverId));
+        serversByPort = servers;
+        cache.keySet().retainAll(ports.keySet());
+
+        long timeMillis = System.currentTimeMillis();
+        for (Integer port : servers.keySet()) {
+            sendBuffer.clear();
+            protocol.writeQuery(sendBuffer, timeMillis);
+            sendBuffer.flip();
+            channel.send(sendBuffer, new InetSocketAddress(host, port));
+            QUERIES.increment();
+        }
+    }
+
+    /**
+     * Waits up to the timeout for responses and caches statuses from all received ones
+     */
+    void receive(long timeoutMillis) throws IOException {
+        if (selector.select(timeoutMillis) == 0) {
+            return;
+        }
+        selector.selectedKeys().clear();
+        SocketAddress source;
+        while (true) {
+            receiveBuffer.clear();
+            source = channel.receive(receiveBuffer);
+            if (source == null) {
+                break;
+            }
+            receiveBuffer.flip();
+            String serverId = source instanceof InetSocketAddress
+                    ? serversByPort.get(((InetSocketAddress) source).getPort())
+                    : null;
+            if (serverId == null) {
+                continue;
+            }
+            LauncherStatus status = protocol.parseResponse(receiveBuffer);
+            if (status == null) {
+                UNREADABLE.increment();
+                continue;
+            }
+            RESPONSES.increment();
+            cache.put(serverId, new CachedStatus(status, System.nanoTime()));
+        }
+    }
+
+    /**
+     * Sends statuses which changed since the last report, including servers which became unreachable
+     */
+    void report() {
+        Map<String, ServerStatus> current = new HashMap<>();
+        for (String serverId : serversByPort.values()) {
+            LauncherStatus status = getStatus(serverId);
+            current.put(serverId, status != null
+                    ? new ServerStatus(serverId, true, status.getName(), status.getMapName(),
+                            status.getPlayers(), status.getMaxPlayers())
+                    : new ServerStatus(serverId, false, null, null, -1, -1));
+        }
+
+        List<ServerStatus> changes = new ArrayList<>();
+        current.forEach((serverId, status) -> {
+            if (!isSame(status, reported.get(serverId))) {
+                changes.add(status);
+            }
+        });
+        if (!changes.isEmpty()) {
+            try {
+                connection.send(new StatusReport(System.currentTimeMillis(), changes));
+            } catch (IOException e) {
+                // not connected, the changes are sent with the next report
+                return;
+            }
+        }
+        reported.clear();
+        reported.putAll(current);
+    }
+
+    private static boolean isSame(ServerStatus status, @Nullable ServerStatus previous) {
+        return previous != null
+                && status.isReachable() == previous.isReachable()
+                && Objects.equals(status.getName(), previous.getName())
+                && Objects.equals(status.getMap(), previous.getMap())
+                && status.getPlayers() == previous.getPlayers()
+                && status.getMaxPlayers() == previous.getMaxPlayers();
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        selector.wakeup();
+        channel.close();
+        selector.close();
+    }
+
+    private static class CachedStatus {
+        final LauncherStatus status;
+        final long receivedNanos;
+
+        CachedStatus(LauncherStatus status, long receivedNanos) {
+            this.status = status;
+            this.receivedNanos = receivedNanos;
+        }
+    }
+}
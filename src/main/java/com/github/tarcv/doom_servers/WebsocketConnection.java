@@ -1,52 +1,118 @@
 package com.github.tarcv.doom_servers;
 
+import com.github.tarcv.doom_servers.messages.Ack;
 import com.github.tarcv.doom_servers.messages.Authenticated;
 import com.github.tarcv.doom_servers.messages.Hello;
 import com.github.tarcv.doom_servers.messages.Mapper;
 import com.github.tarcv.doom_servers.messages.Message;
-import com.github.tarcv.doom_servers.messages.Error;
 
 import javax.websocket.*;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 
 import static com.github.tarcv.doom_servers.WebsocketConnection.State.*;
 
 /**
- * Represents a connection between doom-server and client. Automatically reconnects
+ * Represents a connection between doom-server and client. Automatically reconnects.<br />
+ * Published messages go through an {@link OutboundSpool} and are sent again after reconnecting
+ * until the server acknowledges them.<br />
+ * The connection is pinged as configured by its {@link Heartbeat} and dropped when pongs stop coming,
+ * reconnection attempts are spaced by a {@link ReconnectBackoff}.
  */
 public class WebsocketConnection implements Connection {
+    private static final int DISPATCH_CAPACITY = 1000;
+    private static final LatencyHistogram SEND_TIME = Metrics.get().histogram("websocket_send");
+    private final LongAdder reconnects = Metrics.get().counter("websocket_reconnects");
+    private final LongAdder deadConnections = Metrics.get().counter("websocket_dead_connections");
     private final Object waitLock = new Object();
+    private final Object sendLock = new Object();
+    private final Object publishLock = new Object();
     private final URI url;
     private final Key key;
+    private final MessageDispatcher dispatcher;
+    private final BinaryCodec binaryCodec = new BinaryCodec();
+    private final BinaryCodec publishCodec = new BinaryCodec();
+    private final OutboundSpool spool;
+    private final SpoolSender spoolSender;
+    private final Heartbeat heartbeat;
+    private final ReconnectBackoff backoff;
+    private final Supplier<WebSocketContainer> containers;
     private State state = NOT_CONNECTED;
-    private ConnectionListener listener = null;
-    private Session session = null;
+    private volatile WireEncoding encoding = WireEncoding.JSON;
+    private volatile Session session = null;
 
-    WebsocketConnection(ConnectionListener listener, String url, Key key) {
-        this.listener = listener;
+    WebsocketConnection(ConnectionListener listener, String url, Key key, OutboundSpool spool,
+                        Heartbeat heartbeat, ReconnectBackoff backoff) {
+        this(listener, url, key, spool, heartbeat, backoff, ContainerProvider::getWebSocketContainer);
+    }
+
+    WebsocketConnection(ConnectionListener listener, String url, Key key, OutboundSpool spool,
+                        Heartbeat heartbeat, ReconnectBackoff backoff, Supplier<WebSocketContainer> containers) {
+        this.dispatcher = new MessageDispatcher(listener, this, DISPATCH_CAPACITY);
         this.url = URI.create(url);
         this.key = key;
+        this.spool = spool;
+        this.spoolSender = new SpoolSender(spool, this::sendRecord);
+        this.heartbeat = heartbeat;
+        this.backoff = backoff;
+        this.containers = containers;
+
+        Metrics.get().gauge("dispatch_queue_depth", dispatcher::getQueueDepth);
+        Metrics.get().gauge("websocket_rtt_last_micros", heartbeat::getLastRttMicros);
     }
 
-    void connectImpl() {
+    @Override
+    public void connect() {
+        Thread spoolSenderThread = new Thread(spoolSender, "SpoolSender");
+        spoolSenderThread.setDaemon(true);
+        spoolSenderThread.start();
+        ScheduledExecutorService heartbeatExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        heartbeatExecutor.scheduleWithFixedDelay(this::ping,
+                heartbeat.getIntervalMillis(), heartbeat.getIntervalMillis(), TimeUnit.MILLISECONDS);
         try {
-            boolean interrupted = false;
-            while (!interrupted) {
-                WebSocketContainer container = ContainerProvider.getWebSocketContainer();
-                session = container.connectToServer(new WebsocketEndpoint(), url);
+            while (true) {
                 synchronized (waitLock) {
-                    boolean needReconnect = false;
-                    while (!needReconnect && !interrupted) {
-                        waitLock.wait();
-                        needReconnect = RECONNECTING == state;
-                        interrupted = DISCONNECTED == state;
+                    if (DISCONNECTED == state) {
+                        break;
                     }
-                    if (needReconnect) {
-                        Thread.sleep(5000);
+                    // RECONNECTING left by the previous session must not end the wait of this one
+                    state = NOT_CONNECTED;
+                }
+                boolean connected = false;
+                try {
+                    containers.get().connectToServer(new WebsocketEndpoint(), url);
+                    connected = true;
+                } catch (DeploymentException | IOException e) {
+                    System.err.println("Failed to connect: " + e.getMessage());
+                }
+                if (connected) {
+                    synchronized (waitLock) {
+                        // the state is checked before waiting, the session can be lost before this point
+                        while (RECONNECTING != state && DISCONNECTED != state) {
+                            waitLock.wait();
+                        }
+                        if (DISCONNECTED == state) {
+                            break;
+                        }
                     }
                 }
+                reconnects.increment();
+                closeSession(session);
+                long delay = backoff.nextDelayMillis();
+                System.out.println("Reconnecting in " + delay + " ms");
+                Thread.sleep(delay);
             }
             System.out.println("Interrupted by server");
         } catch (InterruptedException e) {
@@ -54,24 +120,142 @@ public class WebsocketConnection implements Connection {
         } catch (Exception e) {
             e.printStackTrace();
         } finally {
-            if (session != null) {
-                try {
-                    session.close();
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            }
+            heartbeatExecutor.shutdownNow();
+            spoolSender.stop();
+            dispatcher.shutdown();
+            closeSession(session);
         }
     }
 
     @Override
     public void send(Message message) throws IOException {
-        send(session, message);
+        Session currentSession = session;
+        if (currentSession == null || !currentSession.isOpen()) {
+            throw new IOException("Not connected");
+        }
+        send(currentSession, message);
     }
 
-    private static void send(Session session, Message message) throws IOException {
-        OutputStream sendStream = session.getBasicRemote().getSendStream();
-        Mapper.writeValue(sendStream, message);
+    @Override
+    public void publish(Message message) throws IOException {
+        synchronized (publishLock) {
+            message.setSequence(spool.getNextSequence());
+            if (BinaryCodec.supports(message)) {
+                spool.append(OutboundSpool.KIND_BINARY, publishCodec.encode(message, false));
+            } else {
+                ByteArrayOutputStream json = new ByteArrayOutputStream();
+                Mapper.writeValue(json, message);
+                spool.append(OutboundSpool.KIND_JSON, ByteBuffer.wrap(json.toByteArray()));
+            }
+        }
+        spoolSender.onAppended();
+    }
+
+    @Override
+    public void sendBinary(ByteBuffer frame) throws IOException {
+        Session currentSession = session;
+        if (currentSession == null || !currentSession.isOpen()) {
+            throw new IOException("Not connected");
+        }
+        synchronized (sendLock) {
+            long startNanos = System.nanoTime();
+            currentSession.getBasicRemote().sendBinary(frame);
+            SEND_TIME.recordSince(startNanos);
+        }
+    }
+
+    /**
+     * Runs on the heartbeat thread. Pings go through the async remote, so a send blocked by a dead connection
+     * doesn't stop its detection
+     */
+    private void ping() {
+        Session currentSession = session;
+        synchronized (waitLock) {
+            if (currentSession == null || (LISTENING != state && AUTHENTIFICATING != state)) {
+                return;
+            }
+        }
+        ByteBuffer payload = heartbeat.nextPing(System.nanoTime());
+        if (payload == null) {
+            System.err.println("No pongs for " + heartbeat.getMissThreshold() + " pings, dropping the connection");
+            deadConnections.increment();
+            onConnectionLost(currentSession);
+            return;
+        }
+        try {
+            currentSession.getAsyncRemote().sendPing(payload);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Failed to send ping: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Wakes up {@link #connect()} to reconnect unless the lost session was already replaced or the agent is disconnected
+     */
+    private void onConnectionLost(Session lostSession) {
+        synchronized (waitLock) {
+            if (lostSession != session || RECONNECTING == state || NOT_CONNECTED == state) {
+                return;
+            }
+            if (DISCONNECTED != state) {
+                state = RECONNECTING;
+            }
+            waitLock.notifyAll();
+        }
+        spoolSender.onDisconnected();
+    }
+
+    private static void closeSession(Session session) {
+        if (session != null && session.isOpen()) {
+            try {
+                session.close();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Records are stored in JSON or not deflated binary encoding, so they are converted if needed
+     */
+    private void sendRecord(OutboundSpool.Record record) throws IOException {
+        Session currentSession = session;
+        if (currentSession == null || !currentSession.isOpen()) {
+            throw new IOException("Not connected");
+        }
+        synchronized (sendLock) {
+            long startNanos = System.nanoTime();
+            WireEncoding currentEncoding = encoding;
+            ByteBuffer payload = record.getPayload();
+            if (OutboundSpool.KIND_BINARY == record.getKind() && WireEncoding.JSON == currentEncoding) {
+                OutputStream sendStream = currentSession.getBasicRemote().getSendStream();
+                Mapper.writeValue(sendStream, binaryCodec.decode(payload));
+            } else if (OutboundSpool.KIND_BINARY == record.getKind() && WireEncoding.BINARY_DEFLATE == currentEncoding) {
+                currentSession.getBasicRemote().sendBinary(binaryCodec.deflate(payload));
+            } else {
+                currentSession.getBasicRemote().sendBinary(payload);
+            }
+            SEND_TIME.recordSince(startNanos);
+        }
+    }
+
+    /**
+     * Can be called from any thread, messages are sent one by one.
+     * Uses the negotiated {@link WireEncoding} when {@link BinaryCodec} supports the message, JSON otherwise
+     */
+    private void send(Session session, Message message) throws IOException {
+        synchronized (sendLock) {
+            long startNanos = System.nanoTime();
+            WireEncoding currentEncoding = encoding;
+            if (WireEncoding.JSON != currentEncoding && BinaryCodec.supports(message)) {
+                boolean deflate = WireEncoding.BINARY_DEFLATE == currentEncoding;
+                session.getBasicRemote().sendBinary(binaryCodec.encode(message, deflate));
+            } else {
+                OutputStream sendStream = session.getBasicRemote().getSendStream();
+                Mapper.writeValue(sendStream, message);
+            }
+            SEND_TIME.recordSince(startNanos);
+        }
     }
 
     enum State {
@@ -87,8 +271,11 @@ public class WebsocketConnection implements Connection {
         public void onOpen(Session session) throws IOException {
             synchronized (waitLock) {
                 System.out.println("Connected");
+                WebsocketConnection.this.session = session;
+                heartbeat.reset();
 
-                Hello helloMessage = new Hello(key.getToken());
+                encoding = WireEncoding.JSON;
+                Hello helloMessage = new Hello(key.getToken(), WireEncoding.getWireNames());
                 send(session, helloMessage);
 
                 assert NOT_CONNECTED == state || RECONNECTING == state;
@@ -111,21 +298,20 @@ public class WebsocketConnection implements Connection {
                             logUnexpectedMessage(message);
                             return;
                         }
-                        if (((Authenticated) decodedMessage).isSuccessful()) {
+                        Authenticated authenticated = (Authenticated) decodedMessage;
+                        if (authenticated.isSuccessful()) {
+                            encoding = WireEncoding.fromWireName(authenticated.getEncoding());
                             state = LISTENING;
+                            backoff.reset();
+                            spoolSender.onConnected();
                         } else {
                             state = DISCONNECTED;
+                            waitLock.notifyAll();
                         }
-                    } else if (LISTENING == state && listener != null) {
-                        Message response;
-                        try {
-                            response = listener.onMessage(decodedMessage);
-                        } catch (Throwable e) {
-                            response = new Error(e);
-                        }
-                        if (response != null) {
-                            send(session, response);
-                        }
+                    } else if (LISTENING == state && decodedMessage instanceof Ack) {
+                        spool.acknowledge(((Ack) decodedMessage).getAcknowledgedSequence());
+                    } else if (LISTENING == state) {
+                        dispatcher.dispatch(decodedMessage);
                     } else {
                         logUnexpectedMessage(message);
                     }
@@ -135,20 +321,20 @@ public class WebsocketConnection implements Connection {
             }
         }
 
+        @OnMessage
+        public void onPong(PongMessage pong) {
+            heartbeat.onPong(pong.getApplicationData(), System.nanoTime());
+        }
+
         @OnError
         public void onError(Throwable error) {
             error.printStackTrace();
         }
 
         @OnClose
-        public void onClose() {
-            synchronized (waitLock) {
-                System.out.println("Disconnected");
-                if (!DISCONNECTED.equals(state)) {
-                    state = RECONNECTING;
-                }
-                waitLock.notify();
-            }
+        public void onClose(Session session) {
+            System.out.println("Disconnected");
+            onConnectionLost(session);
         }
     }
 
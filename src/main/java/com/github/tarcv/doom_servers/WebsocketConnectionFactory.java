@@ -1,13 +1,22 @@
 package com.github.tarcv.doom_servers;
 
+import java.util.Properties;
+
 /**
  * Creates instances of {@link WebsocketConnection}
  */
 public class WebsocketConnectionFactory implements ConnectionFactory {
+    private final OutboundSpool spool;
+    private final Properties properties;
+
+    public WebsocketConnectionFactory(OutboundSpool spool, Properties properties) {
+        this.spool = spool;
+        this.properties = properties;
+    }
+
     @Override
-    public Connection connect(ConnectionListener listener, String url, Key key) {
-        WebsocketConnection connection = new WebsocketConnection(listener, url, key);
-        connection.connectImpl();
-        return connection;
+    public Connection create(ConnectionListener listener, String url, Key key) {
+        return new WebsocketConnection(listener, url, key, spool,
+                Heartbeat.fromProperties(properties), ReconnectBackoff.fromProperties(properties));
     }
 }
@@ -0,0 +1,46 @@
+package com.github.tarcv.doom_servers;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encodings of agent messages. The agent offers all of them in Hello, and the server picks one in Authenticated.
+ * Messages not supported by {@link BinaryCodec} are always sent as JSON
+ */
+public enum WireEncoding {
+    JSON("json"),
+    BINARY("binary"),
+    BINARY_DEFLATE("binary+deflate");
+
+    private final String wireName;
+
+    WireEncoding(String wireName) {
+        this.wireName = wireName;
+    }
+
+    public String getWireName() {
+        return wireName;
+    }
+
+    /**
+     * @return the matching encoding, {@link #JSON} for null or unknown names
+     */
+    public static WireEncoding fromWireName(@Nullable String wireName) {
+        for (WireEncoding encoding : values()) {
+            if (encoding.wireName.equals(wireName)) {
+                return encoding;
+            }
+        }
+        return JSON;
+    }
+
+    public static List<String> getWireNames() {
+        List<String> names = new ArrayList<>();
+        for (WireEncoding encoding : values()) {
+            names.add(encoding.wireName);
+        }
+        return names;
+    }
+}
@@ -0,0 +1,45 @@
+package com.github.tarcv.doom_servers;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Checks for paths requested by the control plane inside an engine work directory
+ */
+final class WorkDirPaths {
+    private WorkDirPaths() {
+    }
+
+    /**
+     * @param workDir absolute normalized work directory
+     * @return normalized path of the name inside the work directory
+     * @throws IllegalArgumentException if the name is absolute, points outside of the directory or to it
+     */
+    static Path resolve(Path workDir, String name) {
+        Path subPath = Paths.get(name);
+        if (subPath.isAbsolute()) {
+            throw new IllegalArgumentException(name + " is an absolute path. Discarding request as invalid");
+        }
+
+        Path path = workDir.resolve(subPath).normalize();
+        if (!path.startsWith(workDir) || path.equals(workDir)) {
+            throw new IllegalArgumentException(name + " is an dangerous path. Discarding request as invalid");
+        }
+        return path;
+    }
+
+    /**
+     * Checks that neither the path nor any of its existing parents below the work directory is a symbolic link,
+     * so it can't lead outside of the directory. The last element can still be replaced afterwards,
+     * so files must also be opened with {@link java.nio.file.LinkOption#NOFOLLOW_LINKS}
+     * @throws IllegalArgumentException if a symbolic link is found
+     */
+    static void checkNoSymbolicLinks(Path workDir, Path path) {
+        for (Path current = path; current != null && !current.equals(workDir); current = current.getParent()) {
+            if (Files.isSymbolicLink(current)) {
+                throw new IllegalArgumentException(workDir.relativize(path) + " goes through a symbolic link");
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.github.tarcv.doom_servers;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Zandronum launcher protocol. Packets are little-endian with null terminated strings.
+ * A query is the challenge, requested fields and time, a response is the challenge, time, version,
+ * returned fields and then values of those fields in the order of their flags.<br />
+ * Packets are wrapped with Zandronum Huffman coding, a first byte of 0xFF marks a packet sent as is.
+ * Queries are always sent that way. The engine compresses responses whenever that makes them smaller,
+ * they are decoded with the {@link HuffmanCodec} given to the protocol and ignored when there is none.
+ */
+public class ZandronumLauncherProtocol implements LauncherProtocol {
+    static final int LAUNCHER_CHALLENGE = 199;
+    static final int SERVER_CHALLENGE = 5660023;
+    static final int UNCOMPRESSED = HuffmanCodec.UNCOMPRESSED;
+
+    static final int SQF_NAME = 0x1;
+    static final int SQF_MAPNAME = 0x8;
+    static final int SQF_MAXCLIENTS = 0x10;
+    static final int SQF_MAXPLAYERS = 0x20;
+    static final int SQF_NUMPLAYERS = 0x80000;
+    static final int QUERY_FLAGS = SQF_NAME | SQF_MAPNAME | SQF_MAXCLIENTS | SQF_MAXPLAYERS | SQF_NUMPLAYERS;
+
+    @Nullable
+    private final HuffmanCodec codec;
+
+    /**
+     * Protocol which reads only not compressed responses
+     */
+    public ZandronumLauncherProtocol() {
+        this(null);
+    }
+
+    public ZandronumLauncherProtocol(@Nullable HuffmanCodec codec) {
+        this.codec = codec;
+    }
+
+    @Override
+    public void writeQuery(ByteBuffer buffer, long timeMillis) {
+        ByteOrder order = buffer.order();
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put((byte) UNCOMPRESSED);
+        buffer.putInt(LAUNCHER_CHALLENGE);
+        buffer.putInt(QUERY_FLAGS);
+        buffer.putInt((int) timeMillis);
+        buffer.order(order);
+    }
+
+    @Nullable
+    @Override
+    public LauncherStatus parseResponse(ByteBuffer datagram) {
+        ByteBuffer packet = decode(datagram.slice());
+        if (packet == null) {
+            return null;
+        }
+        packet.order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            if (packet.getInt() != SERVER_CHALLENGE) {
+                return null;
+            }
+            packet.getInt(); // time of the query
+            readString(packet); // version
+            int flags = packet.getInt();
+            if ((flags & ~QUERY_FLAGS) != 0) {
+                // values of other fields can't be skipped without parsing them
+                return null;
+            }
+            String name = (flags & SQF_NAME) != 0 ? readString(packet) : "";
+            String mapName = (flags & SQF_MAPNAME) != 0 ? readString(packet) : "";
+            int maxClients = (flags & SQF_MAXCLIENTS) != 0 ? packet.get() & 0xFF : -1;
+            int maxPlayers = (flags & SQF_MAXPLAYERS) != 0 ? packet.get() & 0xFF : -1;
+            int players = (flags & SQF_NUMPLAYERS) != 0 ? packet.get() & 0xFF : -1;
+            return new LauncherStatus(name, mapName, players, maxPlayers, maxClients);
+        } catch (BufferUnderflowException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return packet without its Huffman coding, null if it can't be decoded
+     */
+    @Nullable
+    private ByteBuffer decode(ByteBuffer packet) {
+        if (codec != null) {
+            return codec.decode(packet);
+        }
+        if (!packet.hasRemaining() || (packet.get() & 0xFF) != UNCOMPRESSED) {
+            return null;
+        }
+        return packet.slice();
+    }
+
+    private static String readString(ByteBuffer packet) {
+        int start = packet.position();
+        while (packet.get() != 0) {
+            // till the terminator
+        }
+        byte[] bytes = new byte[packet.position() - start - 1];
+        ByteBuffer value = packet.duplicate();
+        value.position(start);
+        value.get(bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+}
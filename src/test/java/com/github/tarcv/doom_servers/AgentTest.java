@@ -0,0 +1,62 @@
+package com.github.tarcv.doom_servers;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class AgentTest {
+    private static final Map<String, List<String>> SERVER_CFG =
+            Collections.singletonMap("server.cfg", Collections.singletonList("sv_maxplayers 8"));
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final AtomicInteger restarts = new AtomicInteger();
+    private Server server;
+
+    @After
+    public void tearDown() {
+        if (server != null) {
+            server.stop();
+        }
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void consoleChangesAreAppliedWithoutRestart() throws Exception {
+        server = FakeEngine.start(FakeEngine.configuration(Arrays.asList("+sv_hostname", "old"), SERVER_CFG),
+                scheduler);
+
+        Agent.reconfigureServer(server,
+                FakeEngine.configuration(Arrays.asList("+sv_hostname", "new"), SERVER_CFG), restarts::incrementAndGet);
+
+        assertEquals(0, restarts.get());
+    }
+
+    @Test
+    public void rejectedCommandRestartsServer() throws Exception {
+        server = FakeEngine.start(FakeEngine.configuration(Collections.emptyList(), SERVER_CFG), scheduler);
+
+        Agent.reconfigureServer(server,
+                FakeEngine.configuration(Arrays.asList("+bogus", "1"), SERVER_CFG), restarts::incrementAndGet);
+
+        assertEquals(1, restarts.get());
+    }
+
+    @Test
+    public void changedEngineParameterRestartsServer() throws Exception {
+        server = FakeEngine.start(FakeEngine.configuration(Collections.emptyList(), SERVER_CFG), scheduler);
+        ServerConfiguration next = FakeEngine.configuration(Arrays.asList("-port", "10667"), SERVER_CFG);
+
+        Agent.reconfigureServer(server, next, restarts::incrementAndGet);
+
+        assertEquals(1, restarts.get());
+    }
+}
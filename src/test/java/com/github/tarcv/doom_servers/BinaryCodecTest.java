@@ -0,0 +1,86 @@
+package com.github.tarcv.doom_servers;
+
+import com.github.tarcv.doom_servers.messages.ConsoleBuffer;
+import com.github.tarcv.doom_servers.messages.ConsoleResult;
+import com.github.tarcv.doom_servers.messages.LineRepeat;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BinaryCodecTest {
+    private final BinaryCodec codec = new BinaryCodec();
+
+    @Test
+    public void consoleBufferRoundTrip() throws IOException {
+        List<String> lines = Arrays.asList("Player joined", "", "Игрок вошёл 😀");
+        ConsoleBuffer decoded = (ConsoleBuffer) codec.decode(copy(codec.encode(new ConsoleBuffer("server1", lines), false)));
+
+        assertEquals("server1", decoded.getServerId());
+        assertEquals(lines, decoded.getLines());
+    }
+
+    @Test
+    public void consoleBufferRepeatsRoundTrip() throws IOException {
+        List<String> lines = Arrays.asList("Player joined", "Unknown command");
+        List<LineRepeat> repeats = Arrays.asList(new LineRepeat(1, 500, 1700000000000L, 1700000002500L));
+        ConsoleBuffer decoded = (ConsoleBuffer) codec.decode(copy(codec.encode(
+                new ConsoleBuffer("server1", lines, repeats), true)));
+
+        assertEquals(lines, decoded.getLines());
+        LineRepeat repeat = decoded.getRepeats().get(0);
+        assertEquals(1, repeat.getIndex());
+        assertEquals(500, repeat.getCount());
+        assertEquals(1700000000000L, repeat.getFirstTimestamp());
+        assertEquals(1700000002500L, repeat.getLastTimestamp());
+    }
+
+    @Test
+    public void deflatedConsoleResultRoundTrip() throws IOException {
+        List<String> lines = generateConsole(500, 80);
+        ConsoleResult result = new ConsoleResult(lines);
+        result.setCorrelationId("request-1");
+
+        ByteBuffer frame = copy(codec.encode(result, true));
+        assertEquals(BinaryCodec.FLAG_DEFLATED, frame.get(1));
+        ConsoleResult decoded = (ConsoleResult) codec.decode(frame);
+
+        assertEquals("request-1", decoded.getCorrelationId());
+        assertEquals(lines, decoded.getLines());
+    }
+
+    /**
+     * Sizes and encoding time are compared with the JSON Mapper path in SerializationBenchmark
+     */
+    @Test
+    public void deflateShrinksRepeatedOutput() {
+        ConsoleBuffer message = new ConsoleBuffer("server1", generateConsole(1000, 80));
+
+        assertTrue(codec.encode(message, true).remaining() < codec.encode(message, false).remaining());
+    }
+
+    private static ByteBuffer copy(ByteBuffer frame) {
+        ByteBuffer copy = ByteBuffer.allocate(frame.remaining());
+        copy.put(frame);
+        copy.flip();
+        return copy;
+    }
+
+    private static List<String> generateConsole(int lineCount, int lineLength) {
+        List<String> lines = new ArrayList<>(lineCount);
+        for (int i = 0; i < lineCount; i++) {
+            StringBuilder line = new StringBuilder("Player" + i % 16 + " was fragged by Player" + i % 7 + " ");
+            while (line.length() < lineLength) {
+                line.append((char) ('a' + line.length() % 26));
+            }
+            lines.add(line.toString());
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,201 @@
+package com.github.tarcv.doom_servers;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CommandPipelineTest {
+    private final BlockingQueue<String> engineInput = new LinkedBlockingQueue<>();
+    private final List<String> consoleLines = Collections.synchronizedList(new ArrayList<>());
+    private final CommandPipeline pipeline = new CommandPipeline(
+            new ConsoleInput(new LineCollectingStream(engineInput), StandardCharsets.UTF_8),
+            consoleLines::add);
+
+    @Test
+    public void concurrentCommandsGetOwnOutput() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<List<String>> status = executor.submit(() ->
+                    pipeline.execute(Collections.singletonList("status"), 5, TimeUnit.SECONDS));
+            Future<List<String>> maps = executor.submit(() ->
+                    pipeline.execute(Collections.singletonList("maplist"), 5, TimeUnit.SECONDS));
+
+            // fake engine: executes stdin line by line, printing unrelated lines between commands
+            List<String> commands = new ArrayList<>();
+            while (commands.size() < 6) {
+                String inputLine = engineInput.take();
+                commands.add(inputLine);
+                if (inputLine.startsWith("echo ")) {
+                    pipeline.onOutputLine(inputLine.substring("echo ".length()));
+                    if (inputLine.contains(CommandPipeline.END_MARKER)) {
+                        pipeline.onOutputLine("Player joined");
+                    }
+                } else {
+                    pipeline.onOutputLine(inputLine + " output 1");
+                    pipeline.onOutputLine(inputLine + " output 2");
+                    pipeline.onOutputLine("DoomConsoleResultEnd");
+                }
+            }
+
+            assertEquals(Arrays.asList("status output 1", "status output 2"), status.get(5, TimeUnit.SECONDS));
+            assertEquals(Arrays.asList("maplist output 1", "maplist output 2"), maps.get(5, TimeUnit.SECONDS));
+            assertEquals(0, pipeline.getPendingCount());
+            assertEquals(Arrays.asList("Player joined", "Player joined"), consoleLines);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void linesOutsideCommandsGoToConsole() {
+        pipeline.onOutputLine("Player joined");
+        pipeline.onOutputLine(CommandPipeline.BEGIN_MARKER + "42");
+        pipeline.onOutputLine("output of timed out command");
+        pipeline.onOutputLine(CommandPipeline.END_MARKER + "42");
+        pipeline.onOutputLine("Player left");
+
+        // nobody waits for the result of a timed out command, so its lines are not hidden
+        assertEquals(Arrays.asList("Player joined", "output of timed out command", "Player left"), consoleLines);
+    }
+
+    @Test
+    public void missingEndMarkerDoesNotHideConsole() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<List<String>> result = executor.submit(() ->
+                    pipeline.execute(Collections.singletonList("status"), 200, TimeUnit.MILLISECONDS));
+            String beginLine = engineInput.take();
+            pipeline.onOutputLine(beginLine.substring("echo ".length()));
+            pipeline.onOutputLine("status output");
+            // the end marker never comes
+            try {
+                result.get(5, TimeUnit.SECONDS);
+                fail("Command without end marker must time out");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof TimeoutException);
+            }
+
+            pipeline.onOutputLine("Player joined");
+
+            assertEquals(0, pipeline.getPendingCount());
+            assertEquals(Collections.singletonList("Player joined"), consoleLines);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void longResultsAreStreamedInChunks() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            List<Integer> chunkSizes = Collections.synchronizedList(new ArrayList<>());
+            Future<Long> dropped = executor.submit(() -> pipeline.execute(Collections.singletonList("dumpbans"),
+                    5, TimeUnit.SECONDS, lines -> chunkSizes.add(lines.size())));
+
+            String beginLine = engineInput.take();
+            engineInput.take();
+            String endLine = engineInput.take();
+            pipeline.onOutputLine(beginLine.substring("echo ".length()));
+            int lineCount = CommandPipeline.MAX_PENDING_LINES + 10;
+            for (int i = 0; i < lineCount; i++) {
+                pipeline.onOutputLine("ban " + i);
+            }
+            pipeline.onOutputLine(endLine.substring("echo ".length()));
+
+            long droppedLines = dropped.get(5, TimeUnit.SECONDS);
+            int receivedLines = 0;
+            for (int size : chunkSizes) {
+                assertTrue(size <= CommandPipeline.CHUNK_LINES);
+                receivedLines += size;
+            }
+            assertEquals(lineCount, receivedLines + droppedLines);
+            assertTrue(chunkSizes.size() > 1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void delayedOutputOfShortResultIsOneChunk() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            List<Integer> chunkSizes = Collections.synchronizedList(new ArrayList<>());
+            Future<Long> dropped = executor.submit(() -> pipeline.execute(Collections.singletonList("status"),
+                    5, TimeUnit.SECONDS, lines -> chunkSizes.add(lines.size())));
+
+            String beginLine = engineInput.take();
+            engineInput.take();
+            String endLine = engineInput.take();
+            pipeline.onOutputLine(beginLine.substring("echo ".length()));
+            pipeline.onOutputLine("player 1");
+            pipeline.onOutputLine("player 2");
+            Thread.sleep(300);
+            pipeline.onOutputLine("player 3");
+            pipeline.onOutputLine(endLine.substring("echo ".length()));
+
+            assertEquals(Long.valueOf(0), dropped.get(5, TimeUnit.SECONDS));
+            assertEquals(Collections.singletonList(3), chunkSizes);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void lostBeginMarkerCompletesBothCommands() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<List<String>> first = executor.submit(() ->
+                    pipeline.execute(Collections.singletonList("status"), 5, TimeUnit.SECONDS));
+            List<String> firstInput = Arrays.asList(engineInput.take(), engineInput.take(), engineInput.take());
+            Future<List<String>> second = executor.submit(() ->
+                    pipeline.execute(Collections.singletonList("maplist"), 5, TimeUnit.SECONDS));
+            List<String> secondInput = Arrays.asList(engineInput.take(), engineInput.take(), engineInput.take());
+
+            // end marker of the first command and begin marker of the second one are lost
+            pipeline.onOutputLine(firstInput.get(0).substring("echo ".length()));
+            pipeline.onOutputLine("status output");
+            pipeline.onOutputLine("maplist output");
+            pipeline.onOutputLine(secondInput.get(2).substring("echo ".length()));
+            pipeline.onOutputLine("Player joined");
+
+            assertEquals(Arrays.asList("status output", "maplist output"), first.get(5, TimeUnit.SECONDS));
+            assertEquals(Collections.emptyList(), second.get(5, TimeUnit.SECONDS));
+            assertEquals(0, pipeline.getPendingCount());
+            assertEquals(Collections.singletonList("Player joined"), consoleLines);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(expected = TimeoutException.class)
+    public void timesOutWhenOutputStops() throws Exception {
+        pipeline.execute(Collections.singletonList("status"), 200, TimeUnit.MILLISECONDS);
+    }
+
+    private static class LineCollectingStream extends OutputStream {
+        private final BlockingQueue<String> lines;
+        private final ByteArrayOutputStream currentLine = new ByteArrayOutputStream();
+
+        LineCollectingStream(BlockingQueue<String> lines) {
+            this.lines = lines;
+        }
+
+        @Override
+        public synchronized void write(int b) {
+            if (b == '\n') {
+                lines.add(new String(currentLine.toByteArray(), StandardCharsets.UTF_8).trim());
+                currentLine.reset();
+            } else {
+                currentLine.write(b);
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.github.tarcv.doom_servers;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class ConfigMaterializerTest {
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("workdir");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void writesOnlyChangedFiles() throws IOException {
+        Map<String, List<String>> configs = new HashMap<>();
+        configs.put("server.cfg", Arrays.asList("sv_hostname test", "sv_maxclients 8"));
+        configs.put("rotation/maps.cfg", Collections.singletonList("addmap MAP01"));
+
+        assertEquals(2, new ConfigMaterializer(directory).materialize(configs));
+        assertEquals(Arrays.asList("sv_hostname test", "sv_maxclients 8"),
+                Files.readAllLines(directory.resolve("server.cfg"), StandardCharsets.UTF_8));
+
+        // the manifest is persisted, so a new instance skips everything too
+        ConfigMaterializer materializer = new ConfigMaterializer(directory);
+        assertEquals(0, materializer.materialize(configs));
+
+        configs.put("server.cfg", Arrays.asList("sv_hostname changed", "sv_maxclients 8"));
+        assertEquals(1, materializer.materialize(configs));
+        assertEquals("sv_hostname changed",
+                Files.readAllLines(directory.resolve("server.cfg"), StandardCharsets.UTF_8).get(0));
+    }
+
+    @Test
+    public void rewritesFilesChangedByOthers() throws IOException {
+        Map<String, List<String>> configs = Collections.singletonMap("server.cfg", Collections.singletonList("a"));
+        ConfigMaterializer materializer = new ConfigMaterializer(directory);
+        materializer.materialize(configs);
+
+        Files.write(directory.resolve("server.cfg"), Collections.singletonList("modified outside"));
+        assertEquals(1, materializer.materialize(configs));
+        assertEquals(Collections.singletonList("a"), Files.readAllLines(directory.resolve("server.cfg")));
+
+        Files.delete(directory.resolve("server.cfg"));
+        assertEquals(1, materializer.materialize(configs));
+    }
+
+    @Test
+    public void filesWrittenBeforeFailureAreRechecked() throws IOException {
+        Map<String, List<String>> configs = new HashMap<>();
+        for (int i = 0; i < 10; i++) {
+            configs.put("maps" + i + ".cfg", Collections.singletonList("addmap MAP0" + i));
+        }
+        // a file in place of the directory fails its write
+        configs.put("blocked/server.cfg", Collections.singletonList("sv_hostname test"));
+        Files.write(directory.resolve("blocked"), Collections.singletonList("not a directory"));
+
+        ConfigMaterializer materializer = new ConfigMaterializer(directory);
+        try {
+            materializer.materialize(configs);
+            fail("Writing into a file must fail");
+        } catch (IOException e) {
+            // expected
+        }
+
+        Files.delete(directory.resolve("blocked"));
+        assertEquals(11, materializer.materialize(configs));
+        assertEquals(0, materializer.materialize(configs));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void rejectsPathsOutsideWorkDir() throws IOException {
+        new ConfigMaterializer(directory).materialize(
+                Collections.singletonMap("../escape.cfg", Collections.singletonList("a")));
+    }
+}
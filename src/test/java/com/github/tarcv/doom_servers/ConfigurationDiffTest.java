@@ -0,0 +1,77 @@
+package com.github.tarcv.doom_servers;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class ConfigurationDiffTest {
+    private static final List<String> BASE_COMMANDLINE = Arrays.asList(
+            "-iwad", "doom2.wad", "-port", "10666", "+sv_hostname", "My server", "+map", "map01");
+
+    @Test
+    public void changedCommandsAndConfigsAreAppliedLive() {
+        ServerConfiguration current = new ServerConfiguration(BASE_COMMANDLINE, configs("sv_maxplayers 8"));
+        ServerConfiguration next = new ServerConfiguration(
+                Arrays.asList("-iwad", "doom2.wad", "-port", "10666", "+sv_hostname", "New name", "+map", "map01",
+                        "+sv_gravity", "400"),
+                configs("sv_maxplayers 16"));
+
+        ConfigurationDiff diff = ConfigurationDiff.between(current, next);
+
+        assertFalse(diff.isRestartRequired());
+        assertEquals(Arrays.asList("sv_hostname \"New name\"", "sv_gravity 400", "exec \"server.cfg\""),
+                diff.getConsoleCommands());
+        assertEquals(Collections.singletonList("server.cfg"), diff.getChangedConfigs());
+    }
+
+    @Test
+    public void engineParameterChangeRequiresRestart() {
+        ServerConfiguration current = new ServerConfiguration(BASE_COMMANDLINE, configs("sv_maxplayers 8"));
+        List<String> commandline = new ArrayList<>(BASE_COMMANDLINE);
+        commandline.set(3, "10667");
+
+        assertTrue(ConfigurationDiff.between(current,
+                new ServerConfiguration(commandline, configs("sv_maxplayers 8"))).isRestartRequired());
+    }
+
+    @Test
+    public void negativeCommandValuesAreNotEngineParameters() {
+        List<String> commandline = new ArrayList<>(BASE_COMMANDLINE);
+        commandline.addAll(Arrays.asList("+sv_gravity", "-100"));
+        ServerConfiguration current = new ServerConfiguration(commandline, configs("sv_maxplayers 8"));
+        List<String> nextCommandline = new ArrayList<>(BASE_COMMANDLINE);
+        nextCommandline.addAll(Arrays.asList("+sv_gravity", "-200"));
+
+        ConfigurationDiff diff = ConfigurationDiff.between(current,
+                new ServerConfiguration(nextCommandline, configs("sv_maxplayers 8")));
+
+        assertFalse(diff.isRestartRequired());
+        assertEquals(Collections.singletonList("sv_gravity -200"), diff.getConsoleCommands());
+    }
+
+    @Test
+    public void changedFileWhichIsNotExecutedRequiresRestart() {
+        ServerConfiguration current = new ServerConfiguration(BASE_COMMANDLINE,
+                Collections.singletonMap("mapcycle.txt", Collections.singletonList("map01")));
+
+        assertTrue(ConfigurationDiff.between(current, new ServerConfiguration(BASE_COMMANDLINE,
+                Collections.singletonMap("mapcycle.txt", Collections.singletonList("map02")))).isRestartRequired());
+    }
+
+    @Test
+    public void sameConfigurationHasNoChanges() {
+        ConfigurationDiff diff = ConfigurationDiff.between(
+                new ServerConfiguration(BASE_COMMANDLINE, configs("sv_maxplayers 8")),
+                new ServerConfiguration(new ArrayList<>(BASE_COMMANDLINE), configs("sv_maxplayers 8")));
+
+        assertFalse(diff.isRestartRequired());
+        assertTrue(diff.getConsoleCommands().isEmpty());
+        assertTrue(diff.getChangedConfigs().isEmpty());
+    }
+
+    private static Map<String, List<String>> configs(String line) {
+        return Collections.singletonMap("server.cfg", Collections.singletonList(line));
+    }
+}
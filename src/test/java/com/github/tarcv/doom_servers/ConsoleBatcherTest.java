@@ -0,0 +1,86 @@
+package com.github.tarcv.doom_servers;
+
+import com.github.tarcv.doom_servers.messages.ConsoleBuffer;
+import com.github.tarcv.doom_servers.messages.LineRepeat;
+import com.github.tarcv.doom_servers.messages.Message;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.*;
+
+public class ConsoleBatcherTest {
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final List<ConsoleBuffer> buffers = new ArrayList<>();
+    private final Connection connection = new TestConnection() {
+        @Override
+        public void publish(Message message) {
+            ConsoleBuffer buffer = (ConsoleBuffer) message;
+            // the batcher reuses its lists
+            buffers.add(new ConsoleBuffer(buffer.getServerId(), new ArrayList<>(buffer.getLines()),
+                    new ArrayList<>(buffer.getRepeats())));
+        }
+    };
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void repeatedLinesAreCoalesced() {
+        ConsoleBatcher batcher = createBatcher(CoalescingMode.EXACT);
+        batcher.onOutputLine("Player1 entered the game");
+        for (int i = 0; i < 300; i++) {
+            batcher.onOutputLine("Unknown command \"foo\"");
+        }
+        batcher.onOutputLine("Player1 left the game");
+        batcher.flush();
+
+        assertEquals(1, buffers.size());
+        ConsoleBuffer buffer = buffers.get(0);
+        assertEquals(Arrays.asList("Player1 entered the game", "Unknown command \"foo\"", "Player1 left the game"),
+                buffer.getLines());
+        assertEquals(1, buffer.getRepeats().size());
+        LineRepeat repeat = buffer.getRepeats().get(0);
+        assertEquals(1, repeat.getIndex());
+        assertEquals(300, repeat.getCount());
+        assertTrue(repeat.getLastTimestamp() >= repeat.getFirstTimestamp());
+    }
+
+    @Test
+    public void templateModeIgnoresNumbers() {
+        ConsoleBatcher batcher = createBatcher(CoalescingMode.TEMPLATE);
+        for (int i = 0; i < 10; i++) {
+            batcher.onOutputLine("Connection from 10.0.0." + i + ":10666 rejected");
+        }
+        batcher.onOutputLine("Connection accepted");
+        batcher.flush();
+
+        ConsoleBuffer buffer = buffers.get(0);
+        assertEquals(Arrays.asList("Connection from 10.0.0.0:10666 rejected", "Connection accepted"),
+                buffer.getLines());
+        assertEquals(10, buffer.getRepeats().get(0).getCount());
+    }
+
+    @Test
+    public void offModeSendsEveryLine() {
+        ConsoleBatcher batcher = createBatcher(CoalescingMode.OFF);
+        batcher.onOutputLine("spam");
+        batcher.onOutputLine("spam");
+        batcher.flush();
+
+        assertEquals(Arrays.asList("spam", "spam"), buffers.get(0).getLines());
+        assertTrue(buffers.get(0).getRepeats().isEmpty());
+    }
+
+    private ConsoleBatcher createBatcher(CoalescingMode mode) {
+        return new ConsoleBatcher("test", new ConsoleRingBuffer(64, OverflowPolicy.DROP_OLDEST), scheduler,
+                connection, new ConsoleBatcher.Limits(1000, 65536, 60000), mode);
+    }
+}
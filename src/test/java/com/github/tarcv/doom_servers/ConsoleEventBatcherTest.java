@@ -0,0 +1,57 @@
+package com.github.tarcv.doom_servers;
+
+import com.github.tarcv.doom_servers.messages.ConsoleEvents;
+import com.github.tarcv.doom_servers.messages.Message;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class ConsoleEventBatcherTest {
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final TestConnection connection = new TestConnection();
+    private final ConsoleEventBatcher batcher = new ConsoleEventBatcher(scheduler, connection);
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void eventsArePublishedInBatches() throws Exception {
+        for (int i = 0; i < ConsoleEventBatcher.MAX_BATCH + 10; i++) {
+            batcher.onConsoleEvent("server1", ConsoleEventType.FRAG, i, "Player1 was fragged by Player2");
+        }
+        assertEquals("Nothing is published on the output reader thread", 0, connection.published.size());
+
+        // runs after the flush scheduled by the first event
+        scheduler.schedule(() -> { }, ConsoleEventBatcher.LINGER_MILLIS, TimeUnit.MILLISECONDS).get();
+
+        assertEquals(2, connection.published.size());
+        assertEquals(ConsoleEventBatcher.MAX_BATCH, ((ConsoleEvents) connection.published.get(0)).getEvents().size());
+        assertEquals(10, ((ConsoleEvents) connection.published.get(1)).getEvents().size());
+    }
+
+    @Test
+    public void eventsOverQueueLimitAreDropped() {
+        // no flushes run till the explicit one
+        ScheduledExecutorService stopped = Executors.newSingleThreadScheduledExecutor();
+        stopped.shutdown();
+        ConsoleEventBatcher idleBatcher = new ConsoleEventBatcher(stopped, connection);
+        for (int i = 0; i < ConsoleEventBatcher.MAX_QUEUED + 5; i++) {
+            idleBatcher.onConsoleEvent("server1", ConsoleEventType.FRAG, i, "Player1 was fragged by Player2");
+        }
+
+        idleBatcher.flush();
+
+        int published = 0;
+        for (Message batch : connection.published) {
+            published += ((ConsoleEvents) batch).getEvents().size();
+        }
+        assertEquals(ConsoleEventBatcher.MAX_QUEUED, published);
+    }
+}
@@ -0,0 +1,68 @@
+package com.github.tarcv.doom_servers;
+
+import com.github.tarcv.doom_servers.messages.SubscribeConsole;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Properties;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ConsoleFilterTest {
+    private final ConsoleScanner scanner = ConsoleScanner.fromProperties(new Properties());
+    private final ConsoleScanner.Result scan = new ConsoleScanner.Result();
+
+    @Test
+    public void disabledSubscriptionRejectsEverything() throws InvalidMessageException {
+        ConsoleFilter filter = ConsoleFilter.fromMessage(new SubscribeConsole("test", false, null, null, null));
+
+        assertFalse(accepts(filter, "Script error, \"map01\" line 1"));
+    }
+
+    @Test
+    public void filtersBySeverity() throws InvalidMessageException {
+        ConsoleFilter filter = ConsoleFilter.fromMessage(new SubscribeConsole("test", true, "warning", null, null));
+
+        assertFalse(accepts(filter, "Player1 entered the game"));
+        assertTrue(accepts(filter, "Warning: texture FOO not found"));
+        assertTrue(accepts(filter, "Script error, \"map01\" line 1"));
+    }
+
+    @Test
+    public void filtersByPrefixOrPattern() throws InvalidMessageException {
+        ConsoleFilter filter = ConsoleFilter.fromMessage(new SubscribeConsole("test", true, null,
+                Collections.singletonList("<Chat>"), "MAP\\d\\d"));
+
+        assertTrue(accepts(filter, "<Chat> Player1: hi"));
+        assertTrue(accepts(filter, "*** MAP01: entryway ***"));
+        assertFalse(accepts(filter, "Player1 entered the game"));
+    }
+
+    @Test(expected = InvalidMessageException.class)
+    public void rejectsUnknownSeverity() throws InvalidMessageException {
+        ConsoleFilter.fromMessage(new SubscribeConsole("test", true, "verbose", null, null));
+    }
+
+    @Test(expected = InvalidMessageException.class)
+    public void rejectsInvalidPattern() throws InvalidMessageException {
+        ConsoleFilter.fromMessage(new SubscribeConsole("test", true, null, null, "MAP(\\d"));
+    }
+
+    @Test
+    public void parsesSeverityIndependentlyOfLocale() throws InvalidMessageException {
+        Locale locale = Locale.getDefault();
+        Locale.setDefault(new Locale("tr", "TR"));
+        try {
+            ConsoleFilter filter = ConsoleFilter.fromMessage(new SubscribeConsole("test", true, "info", null, null));
+            assertTrue(accepts(filter, "Player1 entered the game"));
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+
+    private boolean accepts(ConsoleFilter filter, String line) {
+        return filter.accepts(line, scanner.scan(line, scan));
+    }
+}
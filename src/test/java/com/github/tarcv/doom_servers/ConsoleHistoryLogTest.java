@@ -0,0 +1,120 @@
+package com.github.tarcv.doom_servers;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class ConsoleHistoryLogTest {
+    private static final int SEGMENT_SIZE = 4096;
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("history");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void readsRangesByOffsetAndTime() throws IOException {
+        ConsoleHistoryLog history = new ConsoleHistoryLog(directory, SEGMENT_SIZE, 100);
+        for (int i = 0; i < 1000; i++) {
+            history.append("line" + i, 1000 + i * 10);
+        }
+
+        ConsoleHistoryLog.Range byOffset = history.readFromOffset(500, 3);
+        assertEquals(500, byOffset.getFirstOffset());
+        assertEquals("line500", byOffset.getLines().get(0));
+        assertEquals("line502", byOffset.getLines().get(2));
+        assertEquals(Long.valueOf(6000), byOffset.getTimestamps().get(0));
+
+        ConsoleHistoryLog.Range byTime = history.readFromTime(6005, 2);
+        assertEquals(501, byTime.getFirstOffset());
+        assertEquals("line501", byTime.getLines().get(0));
+
+        assertEquals(0, history.readFromOffset(1000, 10).getLines().size());
+    }
+
+    @Test
+    public void keepsOnlyNewestSegmentsAndSurvivesReopening() throws IOException {
+        ConsoleHistoryLog history = new ConsoleHistoryLog(directory, SEGMENT_SIZE, 2);
+        for (int i = 0; i < 2000; i++) {
+            history.append("строка " + i, i);
+        }
+
+        ConsoleHistoryLog reopened = new ConsoleHistoryLog(directory, SEGMENT_SIZE, 2);
+        assertEquals(2000, reopened.getNextOffset());
+        ConsoleHistoryLog.Range range = reopened.readFromOffset(0, 10000);
+        assertTrue(range.getFirstOffset() > 0);
+        assertEquals(2000 - range.getFirstOffset(), range.getLines().size());
+        assertEquals("строка 1999", range.getLines().get(range.getLines().size() - 1));
+
+        reopened.append("next", 2000);
+        assertEquals("next", reopened.readFromOffset(2000, 1).getLines().get(0));
+    }
+
+    @Test
+    public void queuedLinesAreWrittenByWriterAndBeforeReads() throws IOException {
+        List<Runnable> writes = new ArrayList<>();
+        ConsoleHistoryLog history = new ConsoleHistoryLog(directory, SEGMENT_SIZE, 2, writes::add);
+        history.appendLater("first", 1);
+        history.appendLater("second", 2);
+        assertEquals(1, writes.size());
+        writes.remove(0).run();
+
+        // the write is scheduled but has not run yet, reading writes the queued line itself
+        history.appendLater("third", 3);
+        ConsoleHistoryLog.Range range = history.readFromOffset(0, 10);
+        assertEquals(3, range.getLines().size());
+        assertEquals("third", range.getLines().get(2));
+
+        writes.remove(0).run();
+        assertEquals(3, history.getNextOffset());
+    }
+
+    @Test
+    public void dropsLinesOverQueueLimit() throws IOException {
+        ConsoleHistoryLog history = new ConsoleHistoryLog(directory, 1024 * 1024, 2, write -> { });
+        for (int i = 0; i < ConsoleHistoryLog.MAX_QUEUED_LINES + 5; i++) {
+            history.appendLater("line" + i, i);
+        }
+        assertEquals(ConsoleHistoryLog.MAX_QUEUED_LINES, history.getNextOffset());
+    }
+
+    @Test
+    public void closeWritesQueuedLinesAndKeepsFiles() throws IOException {
+        ConsoleHistoryLog history = new ConsoleHistoryLog(directory, SEGMENT_SIZE, 2, write -> { });
+        history.appendLater("first", 1);
+        history.appendLater("second", 2);
+        history.close();
+        history.appendLater("after close", 3);
+
+        try {
+            history.readFromOffset(0, 10);
+            fail("Reads of a closed history must fail");
+        } catch (IOException e) {
+            // expected
+        }
+        history.close();
+
+        ConsoleHistoryLog reopened = new ConsoleHistoryLog(directory, SEGMENT_SIZE, 2);
+        assertEquals(2, reopened.readFromOffset(0, 10).getLines().size());
+        reopened.close();
+    }
+}
@@ -0,0 +1,167 @@
+package com.github.tarcv.doom_servers;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class ConsoleInputTest {
+    @Test
+    public void submissionIsOneWrite() throws IOException {
+        WriteCountingStream stream = new WriteCountingStream();
+        ConsoleInput input = new ConsoleInput(stream, StandardCharsets.UTF_8);
+
+        input.submit(Arrays.asList("echo begin", "map map01", "echo end"));
+
+        assertEquals("echo begin\nmap map01\necho end\n", stream.toString(StandardCharsets.UTF_8));
+        assertEquals(1, stream.writes);
+        assertEquals(1, stream.flushes);
+    }
+
+    @Test
+    public void concurrentSubmissionsAreCoalescedWithoutInterleaving() throws Exception {
+        // slow writes, so submissions queue up while one is being written
+        WriteCountingStream stream = new WriteCountingStream() {
+            @Override
+            public synchronized void write(byte[] b, int off, int len) throws IOException {
+                super.write(b, off, len);
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        ConsoleInput input = new ConsoleInput(stream, StandardCharsets.UTF_8);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> submits = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                String id = String.valueOf(i);
+                submits.add(executor.submit(() -> {
+                    input.submit(Arrays.asList("begin " + id, "command " + id, "end " + id));
+                    return null;
+                }));
+            }
+            for (Future<?> submit : submits) {
+                submit.get(5, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        String[] lines = stream.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(600, lines.length);
+        for (int i = 0; i < lines.length; i += 3) {
+            String id = lines[i].substring("begin ".length());
+            assertEquals("command " + id, lines[i + 1]);
+            assertEquals("end " + id, lines[i + 2]);
+        }
+        assertTrue("Expected coalesced writes, got " + stream.writes, stream.writes < 200);
+    }
+
+    @Test
+    public void failedWriteFailsEverySubmissionOfIt() throws Exception {
+        CountDownLatch firstWriteStarted = new CountDownLatch(1);
+        CountDownLatch releaseFirstWrite = new CountDownLatch(1);
+        WriteCountingStream stream = new WriteCountingStream() {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                if (writes == 0) {
+                    firstWriteStarted.countDown();
+                    try {
+                        releaseFirstWrite.await();
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                } else if (writes == 1) {
+                    writes++;
+                    throw new IOException("Broken pipe");
+                }
+                super.write(b, off, len);
+            }
+        };
+        ConsoleInput input = new ConsoleInput(stream, StandardCharsets.UTF_8);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            Future<?> first = executor.submit(() -> {
+                input.submit("first");
+                return null;
+            });
+            assertTrue(firstWriteStarted.await(5, TimeUnit.SECONDS));
+            Future<?> second = executor.submit(() -> {
+                input.submit("second");
+                return null;
+            });
+            Future<?> third = executor.submit(() -> {
+                input.submit("third");
+                return null;
+            });
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (input.getQueuedCount() < 2 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            releaseFirstWrite.countDown();
+
+            // the first submitter writes the other two with one failing write
+            first.get(5, TimeUnit.SECONDS);
+            assertWriteFailed(second);
+            assertWriteFailed(third);
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals("first\n", stream.toString(StandardCharsets.UTF_8));
+    }
+
+    private static void assertWriteFailed(Future<?> submit) throws Exception {
+        try {
+            submit.get(5, TimeUnit.SECONDS);
+            fail("Submission written with a failed write should fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void closedInputRejectsCommands() throws IOException {
+        ConsoleInput input = new ConsoleInput(new WriteCountingStream(), StandardCharsets.UTF_8);
+        input.close();
+
+        input.submit("status");
+    }
+
+    private static class WriteCountingStream extends OutputStream {
+        private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        int writes = 0;
+        int flushes = 0;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            writes++;
+            written.write(b, off, len);
+        }
+
+        @Override
+        public void flush() {
+            flushes++;
+        }
+
+        String toString(Charset charset) {
+            return written.toString(charset);
+        }
+    }
+}
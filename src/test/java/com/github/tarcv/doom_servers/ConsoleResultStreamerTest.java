@@ -0,0 +1,44 @@
+package com.github.tarcv.doom_servers;
+
+import com.github.tarcv.doom_servers.messages.*;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ConsoleResultStreamerTest {
+    private final TestConnection connection = new TestConnection();
+    private final List<Message> sent = connection.sent;
+
+    @Test
+    public void shortResultIsOneConsoleResult() {
+        ConsoleResultStreamer streamer = new ConsoleResultStreamer(connection, "c1");
+        streamer.onChunk(Arrays.asList("line 1", "line 2"));
+
+        Message result = streamer.finish(0);
+
+        assertTrue(sent.isEmpty());
+        assertEquals(Arrays.asList("line 1", "line 2"), ((ConsoleResult) result).getLines());
+    }
+
+    @Test
+    public void longResultIsSentInNumberedChunks() {
+        ConsoleResultStreamer streamer = new ConsoleResultStreamer(connection, "c1");
+        streamer.onChunk(Arrays.asList("line 1", "line 2"));
+        streamer.onChunk(Collections.singletonList("line 3"));
+
+        ConsoleResultEnd end = (ConsoleResultEnd) streamer.finish(5);
+
+        assertEquals(2, sent.size());
+        ConsoleResultChunk second = (ConsoleResultChunk) sent.get(1);
+        assertEquals(1, second.getIndex());
+        assertEquals("c1", second.getCorrelationId());
+        assertEquals(2, end.getChunkCount());
+        assertEquals(3, end.getLineCount());
+        assertEquals(5, end.getDroppedLines());
+    }
+}
@@ -0,0 +1,104 @@
+package com.github.tarcv.doom_servers;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ConsoleRingBufferTest {
+    @Test
+    public void dropOldestKeepsLatestLines() {
+        ConsoleRingBuffer buffer = new ConsoleRingBuffer(4, OverflowPolicy.DROP_OLDEST);
+        for (int i = 1; i <= 6; i++) {
+            buffer.offer(line("line" + i));
+        }
+
+        assertEquals(Arrays.asList("line3", "line4", "line5", "line6"), drain(buffer));
+        assertEquals(2, buffer.getDroppedLines());
+    }
+
+    @Test
+    public void dropNewestKeepsEarliestLines() {
+        ConsoleRingBuffer buffer = new ConsoleRingBuffer(4, OverflowPolicy.DROP_NEWEST);
+        for (int i = 1; i <= 6; i++) {
+            buffer.offer(line("line" + i));
+        }
+
+        assertEquals(Arrays.asList("line1", "line2", "line3", "line4"), drain(buffer));
+        assertEquals(2, buffer.getDroppedLines());
+    }
+
+    @Test
+    public void summarizePutsSummaryAtTheGap() {
+        ConsoleRingBuffer buffer = new ConsoleRingBuffer(4, OverflowPolicy.SUMMARIZE);
+        for (int i = 1; i <= 7; i++) {
+            buffer.offer(line("line" + i));
+        }
+        List<String> firstBatch = drain(buffer);
+        buffer.offer(line("line8"));
+
+        assertEquals(Arrays.asList("line1", "line2", "line3", "line4"), firstBatch);
+        assertEquals(Arrays.asList(String.format(ConsoleRingBuffer.DROPPED_LINES_SUMMARY, 3), "line8"), drain(buffer));
+        assertEquals(3, buffer.getDroppedLines());
+    }
+
+    @Test
+    public void concurrentProducerAndConsumerKeepOrder() throws InterruptedException {
+        int lineCount = 200_000;
+        ConsoleRingBuffer buffer = new ConsoleRingBuffer(1024, OverflowPolicy.DROP_NEWEST);
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < lineCount; i++) {
+                buffer.offer(line(Integer.toString(i)));
+            }
+        });
+        producer.start();
+
+        List<ConsoleLine> received = new ArrayList<>();
+        while (producer.isAlive() || buffer.size() > 0) {
+            buffer.drainTo(received, 100);
+        }
+        producer.join();
+        buffer.drainTo(received, Integer.MAX_VALUE);
+
+        assertEquals(lineCount, received.size() + buffer.getDroppedLines());
+        int previous = -1;
+        for (ConsoleLine line : received) {
+            int current = Integer.parseInt(line.getText());
+            assertTrue(current > previous);
+            previous = current;
+        }
+    }
+
+    @Test
+    public void droppedRepeatsAreCounted() {
+        ConsoleRingBuffer buffer = new ConsoleRingBuffer(2, OverflowPolicy.DROP_OLDEST);
+        ConsoleLine repeated = line("spam");
+        buffer.offer(repeated);
+        repeated.tryRepeat(1);
+        repeated.tryRepeat(2);
+        buffer.offer(line("line2"));
+        buffer.offer(line("line3"));
+
+        assertEquals(3, buffer.getDroppedLines());
+        assertFalse(repeated.tryRepeat(3));
+    }
+
+    private static ConsoleLine line(String text) {
+        return new ConsoleLine(text, 0);
+    }
+
+    private static List<String> drain(ConsoleRingBuffer buffer) {
+        List<ConsoleLine> entries = new ArrayList<>();
+        buffer.drainTo(entries, Integer.MAX_VALUE);
+        List<String> lines = new ArrayList<>();
+        for (ConsoleLine entry : entries) {
+            lines.add(entry.getText());
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,52 @@
+package com.github.tarcv.doom_servers;
+
+import org.junit.Test;
+
+import java.util.Properties;
+
+import static org.junit.Assert.*;
+
+public class ConsoleScannerTest {
+    private final ConsoleScanner.Result result = new ConsoleScanner.Result();
+
+    @Test
+    public void findsMarkersAndEventsInOnePass() {
+        ConsoleScanner scanner = ConsoleScanner.fromProperties(new Properties());
+
+        scanner.scan("DoomConsoleResultBegin:42", result);
+        assertEquals(CommandPipeline.BEGIN_MARKER.length(), result.getResultBeginEnd());
+        assertFalse(result.hasEvents());
+
+        scanner.scan("DoomConsoleResultEnd:42", result);
+        assertEquals(-1, result.getResultBeginEnd());
+        assertTrue(result.hasResultEnd());
+
+        scanner.scan("Player2 was fragged by Player1's rocket", result);
+        assertTrue(result.hasEvent(ConsoleEventType.FRAG));
+        assertFalse(result.hasEvent(ConsoleEventType.PLAYER_LEFT));
+        assertFalse(result.hasResultEnd());
+    }
+
+    @Test
+    public void patternsAreConfigurable() {
+        Properties properties = new Properties();
+        properties.setProperty("events.player_joined", "joined the party|arrived");
+        properties.setProperty("events.error", "");
+        ConsoleScanner scanner = ConsoleScanner.fromProperties(properties);
+
+        assertTrue(scanner.scan("Player1 arrived", result).hasEvent(ConsoleEventType.PLAYER_JOINED));
+        assertFalse(scanner.scan("Player1 entered the game", result).hasEvents());
+        assertFalse(scanner.scan("Script error, \"map01\" line 1", result).hasEvents());
+    }
+
+    @Test
+    public void patternCanBelongToSeveralEventTypes() {
+        Properties properties = new Properties();
+        properties.setProperty("events.warning", "Script error");
+        ConsoleScanner scanner = ConsoleScanner.fromProperties(properties);
+
+        scanner.scan("Script error, \"map01\" line 1", result);
+        assertTrue(result.hasEvent(ConsoleEventType.WARNING));
+        assertTrue(result.hasEvent(ConsoleEventType.ERROR));
+    }
+}
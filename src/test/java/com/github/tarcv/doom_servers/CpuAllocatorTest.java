@@ -0,0 +1,33 @@
+package com.github.tarcv.doom_servers;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class CpuAllocatorTest {
+    @Test
+    public void parsesCpuLists() {
+        assertEquals(Arrays.asList(0, 1, 2, 3, 6), CpuAllocator.parseCpuList("0-3, 6"));
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void rejectsInvalidCpuLists() {
+        CpuAllocator.parseCpuList("0-x");
+    }
+
+    @Test
+    public void spreadsServersOverCpus() {
+        CpuAllocator allocator = new CpuAllocator(Arrays.asList(2, 3, 4));
+
+        assertEquals(2, allocator.acquire());
+        assertEquals(3, allocator.acquire());
+        assertEquals(4, allocator.acquire());
+        assertEquals(2, allocator.acquire());
+
+        allocator.release(3);
+        assertEquals(3, allocator.acquire());
+        assertEquals(3, allocator.acquire());
+    }
+}
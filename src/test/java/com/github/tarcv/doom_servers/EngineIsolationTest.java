@@ -0,0 +1,85 @@
+package com.github.tarcv.doom_servers;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.Assert.*;
+
+public class EngineIsolationTest {
+    private final List<List<String>> commands = new ArrayList<>();
+    private final List<Runnable> tasks = new ArrayList<>();
+
+    @Test
+    public void appliesSettingsInBackground() throws Exception {
+        Path cgroupRoot = Files.createTempDirectory("cgroup");
+        EngineIsolation isolation = new EngineIsolation(new CpuAllocator(Arrays.asList(2, 3)), 5, "2:0",
+                cgroupRoot, "50000 100000", null, tasks::add, commands::add);
+
+        EngineIsolation.Lease lease = isolation.apply("server1", 1234);
+        assertEquals(2, lease.getCpu());
+        assertTrue("Tools must not run on the calling thread", commands.isEmpty());
+
+        runTasks();
+        assertEquals(Arrays.asList(
+                Arrays.asList("taskset", "-a", "-p", "-c", "2", "1234"),
+                Arrays.asList("renice", "-n", "5", "-p", "1234"),
+                Arrays.asList("ionice", "-c", "2", "-n", "0", "-p", "1234")), commands);
+        Path cgroup = cgroupRoot.resolve("server1");
+        assertEquals("50000 100000", read(cgroup.resolve("cpu.max")));
+        assertEquals("1234", read(cgroup.resolve("cgroup.procs")));
+        assertFalse(Files.exists(cgroup.resolve("memory.max")));
+
+        Files.delete(cgroup.resolve("cpu.max"));
+        Files.delete(cgroup.resolve("cgroup.procs"));
+        lease.release();
+        runTasks();
+        assertFalse(Files.exists(cgroup));
+        assertEquals("Released CPU is reused", 2, isolation.apply("server2", 1235).getCpu());
+    }
+
+    @Test
+    public void autoCpusAreTakenFromAffinityMask() throws Exception {
+        Path procStatus = Files.createTempFile("status", "");
+        Files.write(procStatus, Arrays.asList("Name:\tjava", "Cpus_allowed:\t3c", "Cpus_allowed_list:\t2-5"));
+
+        assertEquals(Arrays.asList(2, 3, 4, 5),
+                EngineIsolation.availableCpus(procStatus, procStatus.resolveSibling("missing")));
+    }
+
+    @Test
+    public void autoCpusFallBackToCgroupCpuset() throws Exception {
+        Path cpuset = Files.createTempFile("cpuset", "");
+        Files.write(cpuset, "4,6-7\n".getBytes(StandardCharsets.US_ASCII));
+
+        assertEquals(Arrays.asList(4, 6, 7), EngineIsolation.availableCpus(cpuset.resolveSibling("missing"), cpuset));
+    }
+
+    @Test
+    public void nothingConfigured() {
+        assertNull(EngineIsolation.fromProperties(new Properties(), "engine.zandronum."));
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void rejectsInvalidIonice() {
+        Properties properties = new Properties();
+        properties.setProperty("engine.zandronum.ionice", "best-effort");
+        EngineIsolation.fromProperties(properties, "engine.zandronum.");
+    }
+
+    private void runTasks() {
+        while (!tasks.isEmpty()) {
+            tasks.remove(0).run();
+        }
+    }
+
+    private static String read(Path file) throws Exception {
+        return new String(Files.readAllBytes(file), StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,50 @@
+package com.github.tarcv.doom_servers;
+
+import org.junit.Test;
+
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.junit.Assert.*;
+
+public class EngineProcessPoolTest {
+    @Test
+    public void plusArgumentsBecomeConsoleCommands() {
+        assertEquals(Arrays.asList("map MAP07", "sv_hostname \"My server\"", "exec server.cfg"),
+                EngineProcessPool.toConsoleCommands(
+                        Arrays.asList("+map", "MAP07", "+sv_hostname", "My server", "+exec", "server.cfg")));
+        assertEquals(Collections.emptyList(), EngineProcessPool.toConsoleCommands(Collections.emptyList()));
+        assertNull(EngineProcessPool.toConsoleCommands(Arrays.asList("-port", "10666", "+map", "MAP01")));
+    }
+
+    @Test
+    public void readsProfilesFromProperties() {
+        Properties properties = new Properties();
+        properties.setProperty("pool.doom2.commandline", "-iwad doom2.wad  +exec ready.cfg");
+        properties.setProperty("pool.doom2.size", "2");
+
+        Map<String, EngineProcessPool.ProfileConfig> profiles = EngineProcessPool.profilesFromProperties(properties);
+        assertEquals(1, profiles.size());
+        assertEquals(Arrays.asList("-iwad", "doom2.wad", "+exec", "ready.cfg"), profiles.get("doom2").commandline);
+        assertEquals(2, profiles.get("doom2").size);
+    }
+
+    @Test
+    public void emptyPoolCountsMisses() {
+        long hitsBefore = Metrics.get().counter("engine_pool_hits").sum();
+        long missesBefore = Metrics.get().counter("engine_pool_misses").sum();
+        EngineProcessPool pool = new EngineProcessPool(Paths.get("engine"), Paths.get("."), Collections.singletonMap(
+                "doom2", new EngineProcessPool.ProfileConfig(Arrays.asList("-iwad", "doom2.wad"), 0)));
+        try {
+            assertNull(pool.acquire(Arrays.asList("-iwad", "doom2.wad", "+map", "MAP01")));
+            assertNull(pool.acquire(Arrays.asList("-iwad", "doom2.wad", "-port", "10666")));
+            assertEquals(hitsBefore, Metrics.get().counter("engine_pool_hits").sum());
+            assertEquals(missesBefore + 2, Metrics.get().counter("engine_pool_misses").sum());
+        } finally {
+            pool.close();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.github.tarcv.doom_servers;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs many fake engines to check that the number of platform threads does not grow with the number of servers
+ */
+public class EngineProcessScalingTest {
+    private static final int SERVERS = 100;
+
+    /**
+     * Prints DoomServerReady, then echoes arguments of 'echo' commands and answers other commands with one line
+     */
+    private static final String FAKE_ENGINE = "echo DoomServerReady; "
+            + "while read -r command args; do "
+            + "if [ \"$command\" = echo ]; then echo \"$args\"; else echo \"$command done\"; fi; "
+            + "done";
+
+    @Test
+    public void platformThreadsDoNotGrowWithServers() throws Exception {
+        Path workDir = Files.createTempDirectory("scaling");
+        List<EngineProcess> processes = new ArrayList<>();
+        List<CommandPipeline> pipelines = new ArrayList<>();
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        try {
+            // warm up shared threads
+            startServer(workDir, processes, pipelines);
+            int threadsBefore = countNonReaperThreads();
+
+            List<Future<?>> starts = new ArrayList<>();
+            for (int i = 1; i < SERVERS; i++) {
+                starts.add(executor.submit(() -> {
+                    startServer(workDir, processes, pipelines);
+                    return null;
+                }));
+            }
+            for (Future<?> start : starts) {
+                start.get(60, TimeUnit.SECONDS);
+            }
+
+            List<Future<List<String>>> results = new ArrayList<>();
+            for (CommandPipeline pipeline : pipelines) {
+                results.add(executor.submit(() ->
+                        pipeline.execute(Collections.singletonList("status"), 30, TimeUnit.SECONDS)));
+            }
+            for (Future<List<String>> result : results) {
+                assertEquals(Collections.singletonList("status done"), result.get(30, TimeUnit.SECONDS));
+            }
+
+            // one 'process reaper' per process is inherent to java.lang.Process, everything else must be shared
+            int threadsAfter = countNonReaperThreads();
+            assertTrue("Threads grew from " + threadsBefore + " to " + threadsAfter,
+                    threadsAfter - threadsBefore < 10);
+        } finally {
+            executor.shutdownNow();
+            synchronized (processes) {
+                processes.forEach(EngineProcess::destroy);
+            }
+        }
+    }
+
+    private static void startServer(Path workDir, List<EngineProcess> processes, List<CommandPipeline> pipelines)
+            throws Exception {
+        EngineProcess process = new EngineProcess(Paths.get("/bin/sh"), workDir, Arrays.asList("-c", FAKE_ENGINE));
+        synchronized (processes) {
+            processes.add(process);
+        }
+        process.start();
+        CommandPipeline pipeline = new CommandPipeline(process.getInput(), line -> {
+        });
+        process.setOutputHandler(pipeline);
+        synchronized (processes) {
+            pipelines.add(pipeline);
+        }
+    }
+
+    private static int countNonReaperThreads() {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (!thread.getName().startsWith("process reaper")) {
+                count++;
+            }
+        }
+        // a cross-check that virtual threads are not counted
+        assertTrue(count <= ManagementFactory.getThreadMXBean().getThreadCount());
+        return count;
+    }
+}
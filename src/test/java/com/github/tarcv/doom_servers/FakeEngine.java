@@ -0,0 +1,75 @@
+package com.github.tarcv.doom_servers;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Servers running a shell script instead of an engine. The script executes 'echo', 'exec' and 'sv_*' commands
+ * and answers any other one with 'Unknown command'
+ */
+class FakeEngine {
+    private static final String SCRIPT = "echo DoomServerReady; "
+            + "while read -r command args; do "
+            + "case \"$command\" in "
+            + "echo) echo \"$args\" ;; "
+            + "exec|sv_*) ;; "
+            + "*) echo \"Unknown command \\\"$command\\\"\" ;; "
+            + "esac; "
+            + "done";
+
+    private FakeEngine() {
+    }
+
+    /**
+     * @param commands '+' arguments of the command line
+     */
+    static ServerConfiguration configuration(List<String> commands, Map<String, List<String>> configs) {
+        List<String> commandline = new ArrayList<>(Arrays.asList("-c", SCRIPT));
+        commandline.addAll(commands);
+        return new ServerConfiguration(commandline, configs);
+    }
+
+    /**
+     * Starts a server, it must be stopped by the caller
+     */
+    static Server start(ServerConfiguration configuration, ScheduledExecutorService scheduler) throws Exception {
+        Server server = create(configuration, scheduler);
+        try {
+            server.run();
+        } catch (Exception e) {
+            server.stop();
+            throw e;
+        }
+        return server;
+    }
+
+    /**
+     * Creates a server running the fake engine in a temporary directory without starting it
+     */
+    static Server create(ServerConfiguration configuration, ScheduledExecutorService scheduler) throws IOException {
+        return create(Paths.get("/bin/sh"), Files.createTempDirectory("engine"), configuration, scheduler);
+    }
+
+    /**
+     * Creates a server running the given executable without starting it
+     */
+    static Server create(Path executable, Path workDir, ServerConfiguration configuration,
+                         ScheduledExecutorService scheduler) throws IOException {
+        ConsoleBatcher consoleSink = new ConsoleBatcher("fake",
+                new ConsoleRingBuffer(100, OverflowPolicy.DROP_OLDEST),
+                scheduler,
+                new TestConnection(),
+                new ConsoleBatcher.Limits(100, 4096, 20));
+        ConsoleHistoryLog consoleHistory = new ConsoleHistoryLog(
+                Files.createTempDirectory("history"), 64 * 1024, 2);
+        return new Server("fake", executable, workDir, configuration,
+                consoleSink, consoleHistory, ConsoleScanner.markersOnly(), (serverId, type, timestamp, line) -> {});
+    }
+}
@@ -0,0 +1,64 @@
+package com.github.tarcv.doom_servers;
+
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.Session;
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Local stand-in for the websocket: a {@link Session} keeping what is sent through its basic remote
+ */
+class FakeWebsocket {
+    final List<ByteBuffer> binaryFrames = Collections.synchronizedList(new ArrayList<>());
+    final ByteArrayOutputStream textStream = new ByteArrayOutputStream();
+    final Session session;
+    private volatile boolean open = true;
+
+    FakeWebsocket() {
+        RemoteEndpoint.Basic remote = proxy(RemoteEndpoint.Basic.class, (method, args) -> {
+            switch (method) {
+                case "getSendStream":
+                    return textStream;
+                case "sendBinary":
+                    binaryFrames.add(TestConnection.copy((ByteBuffer) args[0]));
+                    return null;
+                default:
+                    return null;
+            }
+        });
+        session = proxy(Session.class, (method, args) -> {
+            switch (method) {
+                case "isOpen":
+                    return open;
+                case "close":
+                    open = false;
+                    return null;
+                case "getBasicRemote":
+                    return remote;
+                default:
+                    return null;
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> T proxy(Class<T> type, Handler handler) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> {
+                    if ("hashCode".equals(method.getName())) {
+                        return System.identityHashCode(proxy);
+                    } else if ("equals".equals(method.getName())) {
+                        return proxy == args[0];
+                    }
+                    return handler.invoke(method.getName(), args);
+                });
+    }
+
+    interface Handler {
+        Object invoke(String method, Object[] args) throws Exception;
+    }
+}
@@ -0,0 +1,142 @@
+package com.github.tarcv.doom_servers;
+
+import com.github.tarcv.doom_servers.messages.FileTransferEnd;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.*;
+
+public class FileTransferTest {
+    private final FakeWebsocket websocket = new FakeWebsocket();
+    private final List<ByteBuffer> frames = websocket.binaryFrames;
+    private WebsocketConnection connection;
+
+    /**
+     * Frames go through a real {@link WebsocketConnection} to the websocket stand-in
+     */
+    @Before
+    public void setUp() throws IOException {
+        OutboundSpool spool = new OutboundSpool(Files.createTempDirectory("spool"), 64 * 1024, 1024 * 1024);
+        connection = new WebsocketConnection(message -> null, "ws://localhost/test", new Key("key"), spool,
+                new Heartbeat(60000, 3), new ReconnectBackoff(1, 1, new Random()), () -> {
+                    throw new IllegalStateException("Not used");
+                });
+        connection.new WebsocketEndpoint().onOpen(websocket.session);
+    }
+
+    @Test
+    public void sendsFileInVerifiableChunks() throws Exception {
+        Path workDir = Files.createTempDirectory("transfer");
+        byte[] content = randomBytes(FileTransfer.CHUNK_SIZE * 2 + 1000);
+        Files.createDirectories(workDir.resolve("demos"));
+        Files.write(workDir.resolve("demos/match1.lmp"), content);
+
+        FileTransferEnd end = new FileTransfer(workDir, connection).send("request-1", "demos/match1.lmp", 0);
+
+        assertEquals(3, frames.size());
+        assertArrayEquals(content, reassemble(0));
+        assertEquals(content.length, end.getSize());
+        assertEquals(content.length, end.getSentBytes());
+        assertEquals("request-1", end.getCorrelationId());
+        assertEquals(sha256(content), end.getSha256());
+    }
+
+    @Test
+    public void resumesFromOffset() throws Exception {
+        Path workDir = Files.createTempDirectory("transfer");
+        byte[] content = randomBytes(FileTransfer.CHUNK_SIZE + 10);
+        Files.write(workDir.resolve("agent.log"), content);
+        int offset = FileTransfer.CHUNK_SIZE - 5;
+
+        FileTransferEnd end = new FileTransfer(workDir, connection).send("request-2", "agent.log", offset);
+
+        byte[] rest = reassemble(offset);
+        assertEquals(15, rest.length);
+        assertEquals(15, end.getSentBytes());
+        // the checksum covers the whole file, not only the resumed part
+        assertEquals(sha256(content), end.getSha256());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsFilesOutsideOfWorkDir() throws Exception {
+        Path root = Files.createTempDirectory("transfer");
+        Path workDir = Files.createDirectories(root.resolve("work"));
+        Files.write(root.resolve("secret.txt"), new byte[]{1});
+
+        new FileTransfer(workDir, connection).send("request-3", "../secret.txt", 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsPathsThroughLinkedDirectories() throws Exception {
+        Path root = Files.createTempDirectory("transfer");
+        Path workDir = Files.createDirectories(root.resolve("work"));
+        Files.createDirectories(root.resolve("other"));
+        Files.write(root.resolve("other/secret.txt"), new byte[]{1});
+        Files.createSymbolicLink(workDir.resolve("demos"), root.resolve("other"));
+
+        new FileTransfer(workDir, connection).send("request-5", "demos/secret.txt", 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsLinksOutsideOfWorkDir() throws Exception {
+        Path root = Files.createTempDirectory("transfer");
+        Path workDir = Files.createDirectories(root.resolve("work"));
+        Files.write(root.resolve("secret.txt"), new byte[]{1});
+        Files.createSymbolicLink(workDir.resolve("link.txt"), root.resolve("secret.txt"));
+
+        new FileTransfer(workDir, connection).send("request-4", "link.txt", 0);
+    }
+
+    /**
+     * Checks every frame the way a receiver would and returns the data
+     */
+    private byte[] reassemble(long expectedOffset) throws IOException {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        for (int i = 0; i < frames.size(); i++) {
+            ByteBuffer frame = frames.get(i);
+            assertEquals(BinaryCodec.TYPE_FILE_CHUNK, frame.get());
+            byte flags = frame.get();
+            assertEquals(i == frames.size() - 1, (flags & FileTransfer.FLAG_LAST) != 0);
+            assertEquals(expectedOffset, frame.getLong());
+            int crc = frame.getInt();
+            int idLength = frame.get() - 1;
+            byte[] id = new byte[idLength];
+            frame.get(id);
+            assertTrue(new String(id, StandardCharsets.UTF_8).startsWith("request-"));
+
+            byte[] chunk = new byte[frame.remaining()];
+            frame.get(chunk);
+            CRC32 expectedCrc = new CRC32();
+            expectedCrc.update(chunk);
+            assertEquals((int) expectedCrc.getValue(), crc);
+            data.write(chunk);
+            expectedOffset += chunk.length;
+        }
+        return data.toByteArray();
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(42).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static String sha256(byte[] content) throws Exception {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("SHA-256").digest(content)) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
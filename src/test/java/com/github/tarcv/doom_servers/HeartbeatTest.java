@@ -0,0 +1,51 @@
+package com.github.tarcv.doom_servers;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class HeartbeatTest {
+    @Test
+    public void pongOfLastPingMeasuresRtt() {
+        Heartbeat heartbeat = new Heartbeat(1000, 3);
+        assertEquals(-1, heartbeat.getLastRttMicros());
+
+        ByteBuffer ping = heartbeat.nextPing(0);
+        assertNotNull(ping);
+        assertTrue(heartbeat.onPong(ping.duplicate(), TimeUnit.MILLISECONDS.toNanos(12)));
+        assertEquals(12000, heartbeat.getLastRttMicros());
+    }
+
+    @Test
+    public void connectionIsDeadAfterThresholdMissedPings() {
+        Heartbeat heartbeat = new Heartbeat(1000, 3);
+
+        assertNotNull(heartbeat.nextPing(0));
+        assertNotNull(heartbeat.nextPing(1));
+        assertNotNull(heartbeat.nextPing(2));
+        assertNull(heartbeat.nextPing(3));
+    }
+
+    @Test
+    public void latePongResetsMisses() {
+        Heartbeat heartbeat = new Heartbeat(1000, 2);
+
+        ByteBuffer first = heartbeat.nextPing(0);
+        assertNotNull(heartbeat.nextPing(1));
+        assertFalse(heartbeat.onPong(first, 2));
+        assertNotNull(heartbeat.nextPing(3));
+        assertEquals(-1, heartbeat.getLastRttMicros());
+    }
+
+    @Test
+    public void resetForgetsPendingPing() {
+        Heartbeat heartbeat = new Heartbeat(1000, 1);
+
+        assertNotNull(heartbeat.nextPing(0));
+        heartbeat.reset();
+        assertNotNull(heartbeat.nextPing(1));
+    }
+}
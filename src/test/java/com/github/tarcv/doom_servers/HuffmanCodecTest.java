@@ -0,0 +1,97 @@
+package com.github.tarcv.doom_servers;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+public class HuffmanCodecTest {
+    // 'x' is 0, 'y' is 10, 'z' is 11
+    private static final byte[] SMALL_TREE = {1, 'x', 3, 'y', 'z'};
+
+    @Test
+    public void decodesBitsFromLeastSignificant() {
+        HuffmanCodec codec = HuffmanCodec.fromTreeDescription(SMALL_TREE);
+
+        // x y z x = 0 10 11 0, 6 bits, so 2 bits of the last byte are unused
+        ByteBuffer decoded = codec.decode(ByteBuffer.wrap(new byte[]{2, 0b011010}));
+
+        assertEquals("xyzx", toString(decoded));
+    }
+
+    @Test
+    public void passesUncompressedPackets() {
+        HuffmanCodec codec = HuffmanCodec.fromTreeDescription(SMALL_TREE);
+
+        assertEquals("raw", toString(codec.decode(ByteBuffer.wrap(new byte[]{(byte) 0xFF, 'r', 'a', 'w'}))));
+    }
+
+    @Test
+    public void rejectsIncompleteCodes() {
+        HuffmanCodec codec = HuffmanCodec.fromTreeDescription(SMALL_TREE);
+
+        // x y and then the first bit of y or z
+        assertNull(codec.decode(ByteBuffer.wrap(new byte[]{4, 0b1010})));
+        assertNull(codec.decode(ByteBuffer.wrap(new byte[]{8, 0})));
+    }
+
+    @Test
+    public void readsTreeFromInitializerText() throws IOException {
+        Path file = Files.createTempFile("huffman", ".txt");
+        Files.write(file, "{\n  1, 120,  3,\n 0x79, 122 };\n".getBytes(StandardCharsets.US_ASCII));
+
+        HuffmanCodec codec = HuffmanCodec.fromFile(file);
+
+        assertEquals("xyzx", toString(codec.decode(ByteBuffer.wrap(new byte[]{2, 0b011010}))));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTruncatedTree() {
+        HuffmanCodec.fromTreeDescription(new byte[]{1, 'x', 3, 'y'});
+    }
+
+    /**
+     * Description of a complete tree where the code of a byte is its bits from the most significant one
+     */
+    static byte[] balancedTree() {
+        ByteArrayOutputStream description = new ByteArrayOutputStream();
+        writeBalancedNode(description, 0, 0);
+        return description.toByteArray();
+    }
+
+    /**
+     * Encodes with {@link #balancedTree()}
+     */
+    static ByteBuffer encodeBalanced(byte[] data) {
+        byte[] packet = new byte[data.length + 1];
+        for (int i = 0; i < data.length * 8; i++) {
+            int bit = (data[i / 8] >>> (7 - i % 8)) & 1;
+            packet[1 + i / 8] |= (byte) (bit << (i % 8));
+        }
+        return ByteBuffer.wrap(packet);
+    }
+
+    private static void writeBalancedNode(ByteArrayOutputStream description, int prefix, int depth) {
+        if (depth == 7) {
+            description.write(3);
+            description.write(prefix << 1);
+            description.write(prefix << 1 | 1);
+            return;
+        }
+        description.write(0);
+        writeBalancedNode(description, prefix << 1, depth + 1);
+        writeBalancedNode(description, prefix << 1 | 1, depth + 1);
+    }
+
+    private static String toString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+}
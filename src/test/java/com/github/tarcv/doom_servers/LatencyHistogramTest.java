@@ -0,0 +1,41 @@
+package com.github.tarcv.doom_servers;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+    @Test
+    public void bucketsCoverAllValuesInOrder() {
+        int previousIndex = -1;
+        for (long value = 0; value < 100_000; value++) {
+            int index = LatencyHistogram.bucketIndex(value);
+            assertTrue(index >= previousIndex);
+            assertTrue(value <= LatencyHistogram.bucketUpperBound(index));
+            previousIndex = index;
+        }
+        assertTrue(LatencyHistogram.bucketIndex(Long.MAX_VALUE) < (64 - 4) * LatencyHistogram.SUB_BUCKETS);
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.bucketUpperBound(LatencyHistogram.bucketIndex(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void percentilesAreWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 10_000; i++) {
+            histogram.record(i * 1000L);
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(10_000, snapshot.getCount());
+        assertEquals(10_000_000, snapshot.getMax());
+        assertEquals(5_000_500, snapshot.getMean());
+        assertWithinPrecision(5_000_000, snapshot.getValueAt(0.5));
+        assertWithinPrecision(9_900_000, snapshot.getValueAt(0.99));
+        assertEquals(10_000_000, snapshot.getValueAt(1));
+    }
+
+    private static void assertWithinPrecision(long expected, long actual) {
+        assertTrue(actual + " is not close to " + expected,
+                Math.abs(actual - expected) <= expected / LatencyHistogram.SUB_BUCKETS);
+    }
+}
@@ -0,0 +1,95 @@
+package com.github.tarcv.doom_servers;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class LineHandoffTest {
+    @Test
+    public void slowHandlerDoesNotBlockReader() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch ended = new CountDownLatch(1);
+        List<String> lines = new ArrayList<>();
+        LineHandoff handoff = new LineHandoff(new OutputHandler() {
+            @Override
+            public void onOutputLine(String line) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                lines.add(line);
+            }
+
+            @Override
+            public void onOutputEnd() {
+                ended.countDown();
+            }
+        }, "TestHandoff");
+
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < 100; i++) {
+            handoff.onOutputLine("line " + i);
+        }
+        handoff.onOutputEnd();
+        assertTrue(System.nanoTime() - startNanos < TimeUnit.SECONDS.toNanos(1));
+
+        release.countDown();
+        assertTrue(ended.await(5, TimeUnit.SECONDS));
+        assertEquals(100, lines.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals("line " + i, lines.get(i));
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void protocolLinesSurviveFlood() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch ready = new CountDownLatch(1);
+        CommandPipeline pipeline = new CommandPipeline(
+                new ConsoleInput(new ByteArrayOutputStream(), StandardCharsets.UTF_8), line -> {});
+        LineHandoff handoff = new LineHandoff(line -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            if (line.contains(EngineProcess.CONSOLE_READY_MARKER)) {
+                ready.countDown();
+            }
+            pipeline.onOutputLine(line);
+        }, EngineProcess::isProtocolLine, "TestHandoff");
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<List<String>> result = executor.submit(() ->
+                    pipeline.execute(Collections.singletonList("status"), 5, TimeUnit.SECONDS));
+            while (pipeline.getPendingCount() == 0) {
+                Thread.sleep(1);
+            }
+
+            for (int i = 0; i < 2 * LineHandoff.CAPACITY; i++) {
+                handoff.onOutputLine("noise " + i);
+            }
+            handoff.onOutputLine(EngineProcess.CONSOLE_READY_MARKER);
+            // the first command of a pipeline has id 1
+            handoff.onOutputLine(CommandPipeline.BEGIN_MARKER + 1);
+            handoff.onOutputLine("status output");
+            handoff.onOutputLine(CommandPipeline.END_MARKER + 1);
+            release.countDown();
+
+            assertTrue(ready.await(5, TimeUnit.SECONDS));
+            // the result text is console output and is dropped like any other, but the command completes
+            assertEquals(Collections.emptyList(), result.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.github.tarcv.doom_servers;
+
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Scanner;
+
+import static org.junit.Assert.assertEquals;
+
+public class LineReaderTest {
+    @Test
+    public void splitsLinesAndDropsCarriageReturns() throws IOException {
+        List<String> lines = readAll("first\nsecond\r\n\nlast", StandardCharsets.UTF_8);
+        assertEquals(Arrays.asList("first", "second", "", "last"), lines);
+    }
+
+    @Test
+    public void decodesCharactersSplitBetweenReads() throws IOException {
+        byte[] input = "пример\nexample\n".getBytes(StandardCharsets.UTF_8);
+        List<String> lines = new ArrayList<>();
+        new LineReader(new OneByteInputStream(input), StandardCharsets.UTF_8, lines::add).readLines();
+        assertEquals(Arrays.asList("пример", "example"), lines);
+    }
+
+    @Test
+    public void splitsTooLongLines() throws IOException {
+        char[] longLine = new char[LineReader.MAX_LINE_LENGTH + 10];
+        Arrays.fill(longLine, 'a');
+        List<String> lines = readAll(new String(longLine) + "\nshort\n", StandardCharsets.US_ASCII);
+
+        assertEquals(3, lines.size());
+        assertEquals(LineReader.MAX_LINE_LENGTH, lines.get(0).length());
+        assertEquals(10, lines.get(1).length());
+        assertEquals("short", lines.get(2));
+    }
+
+    @Test
+    public void failingHandlerDoesNotRepeatLines() throws IOException {
+        List<String> lines = new ArrayList<>();
+        LineReader reader = new LineReader(new ByteArrayInputStream("first\nsecond\nthird\n".getBytes()),
+                StandardCharsets.US_ASCII, line -> {
+                    lines.add(line);
+                    if ("second".equals(line)) {
+                        throw new IllegalStateException("handler failure");
+                    }
+                });
+
+        while (reader.readAvailable() > 0) {
+            // till everything is read
+        }
+
+        assertEquals(Arrays.asList("first", "second", "third"), lines);
+    }
+
+    /**
+     * The reader must see the same lines as the previous Piped*Stream + Scanner pipeline,
+     * their throughput is compared in LineSplittingBenchmark
+     */
+    @Test
+    public void readsSameLinesAsPipedScanner() throws Exception {
+        byte[] input = generateConsole(10_000, 80);
+
+        int[] readerLines = {0};
+        new LineReader(new ByteArrayInputStream(input), Charset.defaultCharset(), line -> readerLines[0]++).readLines();
+
+        assertEquals(readWithPipedScanner(input), readerLines[0]);
+    }
+
+    private static List<String> readAll(String input, Charset charset) throws IOException {
+        List<String> lines = new ArrayList<>();
+        new LineReader(new ByteArrayInputStream(input.getBytes(charset)), charset, lines::add).readLines();
+        return lines;
+    }
+
+    private static byte[] generateConsole(int lineCount, int lineLength) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(lineCount * (lineLength + 1));
+        byte[] line = new byte[lineLength];
+        for (int i = 0; i < lineCount; i++) {
+            Arrays.fill(line, (byte) ('a' + i % 26));
+            output.write(line, 0, line.length);
+            output.write('\n');
+        }
+        return output.toByteArray();
+    }
+
+    private static int readWithPipedScanner(byte[] input) throws Exception {
+        PipedOutputStream outputStream = new PipedOutputStream();
+        PipedInputStream inputStream = new PipedInputStream(outputStream);
+        int[] lines = {0};
+        Thread scannerThread = new Thread(() -> {
+            Scanner scanner = new Scanner(inputStream);
+            while (scanner.hasNextLine()) {
+                scanner.nextLine();
+                lines[0]++;
+            }
+        });
+        scannerThread.start();
+
+        // the same chunking as zt-exec pumps use
+        for (int offset = 0; offset < input.length; offset += 1024) {
+            outputStream.write(input, offset, Math.min(1024, input.length - offset));
+        }
+        outputStream.close();
+        scannerThread.join();
+        return lines[0];
+    }
+
+    private static class OneByteInputStream extends InputStream {
+        private final byte[] data;
+        private int position = 0;
+
+        OneByteInputStream(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public int read() {
+            return position < data.length ? data[position++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (position >= data.length) {
+                return -1;
+            }
+            if (len == 0) {
+                return 0;
+            }
+            b[off] = data[position++];
+            return 1;
+        }
+    }
+}
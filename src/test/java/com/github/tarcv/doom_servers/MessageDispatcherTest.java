@@ -0,0 +1,178 @@
+package com.github.tarcv.doom_servers;
+
+import com.github.tarcv.doom_servers.messages.Error;
+import com.github.tarcv.doom_servers.messages.Message;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class MessageDispatcherTest {
+    private final TestConnection connection = new TestConnection();
+    private final List<String> handled = Collections.synchronizedList(new ArrayList<>());
+    private final CountDownLatch release = new CountDownLatch(1);
+    private MessageDispatcher dispatcher;
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        if (dispatcher != null) {
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void messagesOfOneKeyAreHandledInOrder() throws Exception {
+        dispatcher = new MessageDispatcher(new TestListener(), connection, 1000);
+        for (int i = 0; i < 100; i++) {
+            dispatcher.dispatch(new TestMessage("a", "a" + i));
+            dispatcher.dispatch(new TestMessage("b", "b" + i));
+        }
+        awaitReplies(200);
+
+        List<String> a = new ArrayList<>();
+        List<String> b = new ArrayList<>();
+        synchronized (handled) {
+            for (String id : handled) {
+                (id.startsWith("a") ? a : b).add(id);
+            }
+        }
+        for (int i = 0; i < 100; i++) {
+            assertEquals("a" + i, a.get(i));
+            assertEquals("b" + i, b.get(i));
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void concurrentMessagesOfOneKeyOverlap() throws Exception {
+        CountDownLatch started = new CountDownLatch(2);
+        dispatcher = new MessageDispatcher(new TestListener() {
+            @Override
+            public Message onMessage(Message message) throws Throwable {
+                if (((TestMessage) message).concurrent) {
+                    started.countDown();
+                    // finishes only when the other command has started too
+                    assertTrue(started.await(5, TimeUnit.SECONDS));
+                } else {
+                    release.await();
+                }
+                return super.onMessage(message);
+            }
+        }, connection, 10);
+        dispatcher.dispatch(new TestMessage("server", "start"));
+        dispatcher.dispatch(new TestMessage("server", "command1", true));
+        dispatcher.dispatch(new TestMessage("server", "command2", true));
+
+        // commands wait for the start queued before them
+        Thread.sleep(100);
+        assertEquals(2, started.getCount());
+
+        release.countDown();
+        awaitReplies(3);
+        for (Message reply : connection.sent) {
+            assertFalse(reply instanceof Error);
+        }
+        assertEquals("start", handled.get(0));
+    }
+
+    @Test(timeout = 10000)
+    public void repliesHaveCorrelationIdsOfRequests() throws Exception {
+        dispatcher = new MessageDispatcher(new TestListener(), connection, 10);
+        dispatcher.dispatch(new TestMessage("a", "first"));
+        dispatcher.dispatch(new TestMessage("b", "second"));
+        awaitReplies(2);
+
+        List<String> ids = new ArrayList<>();
+        for (Message reply : connection.sent) {
+            ids.add(reply.getCorrelationId());
+        }
+        Collections.sort(ids);
+        assertEquals(Arrays.asList("first", "second"), ids);
+    }
+
+    @Test(timeout = 10000)
+    public void messagesOverCapacityAreRejected() throws Exception {
+        dispatcher = new MessageDispatcher(new TestListener() {
+            @Override
+            public Message onMessage(Message message) throws Throwable {
+                release.await();
+                return super.onMessage(message);
+            }
+        }, connection, 2);
+        dispatcher.dispatch(new TestMessage("a", "queued1"));
+        dispatcher.dispatch(new TestMessage("a", "queued2"));
+        dispatcher.dispatch(new TestMessage("a", "rejected"));
+
+        assertEquals(1, connection.sent.size());
+        Message rejection = connection.sent.get(0);
+        assertTrue(rejection instanceof Error);
+        assertEquals("rejected", rejection.getCorrelationId());
+        assertEquals(2, dispatcher.getQueueDepth());
+
+        release.countDown();
+        awaitReplies(3);
+        assertEquals(0, dispatcher.getQueueDepth());
+    }
+
+    @Test
+    public void messagesAfterShutdownAreRejectedAndReleased() {
+        dispatcher = new MessageDispatcher(new TestListener(), connection, 1);
+        dispatcher.shutdown();
+
+        dispatcher.dispatch(new TestMessage("a", "first"));
+        dispatcher.dispatch(new TestMessage("a", "second"));
+
+        assertEquals(2, connection.sent.size());
+        assertTrue(connection.sent.get(1) instanceof Error);
+        assertEquals("second", connection.sent.get(1).getCorrelationId());
+        assertEquals(0, dispatcher.getQueueDepth());
+    }
+
+    private void awaitReplies(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (connection.sent.size() < count && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, connection.sent.size());
+    }
+
+    private class TestListener implements ConnectionListener {
+        @Override
+        public Message onMessage(Message message) throws Throwable {
+            handled.add(message.getCorrelationId());
+            return new TestMessage(null, null);
+        }
+
+        @Override
+        public String getOrderingKey(Message message) {
+            return ((TestMessage) message).key;
+        }
+
+        @Override
+        public boolean isConcurrent(Message message) {
+            return ((TestMessage) message).concurrent;
+        }
+    }
+
+    private static class TestMessage extends Message {
+        final String key;
+        final boolean concurrent;
+
+        TestMessage(String key, String correlationId) {
+            this(key, correlationId, false);
+        }
+
+        TestMessage(String key, String correlationId, boolean concurrent) {
+            this.key = key;
+            this.concurrent = concurrent;
+            setCorrelationId(correlationId);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.github.tarcv.doom_servers;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Scanner;
+
+import static org.junit.Assert.*;
+
+public class MetricsExporterTest {
+    @Test
+    public void servesMetricsAsText() throws IOException {
+        Metrics metrics = new Metrics();
+        metrics.histogram("test_latency").record(2_000_000);
+        metrics.counter("test_events").add(3);
+        metrics.gauge("test_depth", () -> 7);
+
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        MetricsExporter exporter = new MetricsExporter(metrics);
+        exporter.startHttp(port);
+        try {
+            HttpURLConnection connection = (HttpURLConnection) URI.create("http://127.0.0.1:" + port + "/metrics").toURL()
+                    .openConnection();
+            assertEquals(200, connection.getResponseCode());
+            String text;
+            try (InputStream body = connection.getInputStream();
+                 Scanner scanner = new Scanner(body, StandardCharsets.UTF_8.name()).useDelimiter("\\A")) {
+                text = scanner.next();
+            }
+
+            assertTrue(text, text.contains("test_latency_seconds_count 1\n"));
+            assertFalse(text, text.contains("test_latency_seconds_max"));
+            assertTrue(text, text.contains(
+                    "# TYPE test_latency_max_seconds gauge\ntest_latency_max_seconds 0.002000000\n"));
+            assertTrue(text, text.contains("test_events_total 3\n"));
+            assertTrue(text, text.contains("test_depth 7\n"));
+        } finally {
+            exporter.stop();
+        }
+
+        assertEquals(Long.valueOf(3), exporter.getAttributeValues().get("test_events"));
+        assertEquals(Long.valueOf(2000), exporter.getAttributeValues().get("test_latencyMaxMicros"));
+    }
+}
@@ -0,0 +1,33 @@
+package com.github.tarcv.doom_servers;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+
+public class MultiPatternMatcherTest {
+    @Test
+    public void findsOverlappingPatterns() {
+        Map<String, String> patterns = new LinkedHashMap<>();
+        for (String pattern : Arrays.asList("he", "she", "his", "hers")) {
+            patterns.put(pattern, pattern);
+        }
+        MultiPatternMatcher<String> matcher = new MultiPatternMatcher<>(patterns);
+
+        List<String> matches = new ArrayList<>();
+        matcher.scan("ushers", (value, start, end) -> matches.add(value + "@" + start + "-" + end));
+
+        assertEquals(Arrays.asList("she@1-4", "he@2-4", "hers@2-6"), matches);
+    }
+
+    @Test
+    public void matchesNonAsciiText() {
+        MultiPatternMatcher<Integer> matcher = new MultiPatternMatcher<>(Collections.singletonMap("äö", 1));
+
+        List<Integer> starts = new ArrayList<>();
+        matcher.scan("aäöäaäö", (value, start, end) -> starts.add(start));
+
+        assertEquals(Arrays.asList(1, 5), starts);
+    }
+}
@@ -0,0 +1,117 @@
+package com.github.tarcv.doom_servers;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class OutboundSpoolTest {
+    private static final int SEGMENT_SIZE = 256;
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("spool");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void readsRecordsInOrderAcrossSegments() throws IOException {
+        OutboundSpool spool = new OutboundSpool(directory, SEGMENT_SIZE, 1024 * 1024);
+        for (int i = 1; i <= 20; i++) {
+            assertEquals(i, spool.append(OutboundSpool.KIND_JSON, payload("record" + i)));
+        }
+
+        long sequence = 0;
+        OutboundSpool.Record record;
+        while ((record = spool.readAfter(sequence)) != null) {
+            assertEquals(sequence + 1, record.getSequence());
+            assertEquals("record" + record.getSequence(), text(record));
+            sequence = record.getSequence();
+        }
+        assertEquals(20, sequence);
+    }
+
+    @Test
+    public void unacknowledgedRecordsSurviveReopening() throws IOException {
+        OutboundSpool spool = new OutboundSpool(directory, SEGMENT_SIZE, 1024 * 1024);
+        for (int i = 1; i <= 20; i++) {
+            spool.append(OutboundSpool.KIND_BINARY, payload("record" + i));
+        }
+        spool.acknowledge(15);
+
+        OutboundSpool reopened = new OutboundSpool(directory, SEGMENT_SIZE, 1024 * 1024);
+        assertEquals(15, reopened.getAcknowledgedSequence());
+        OutboundSpool.Record record = reopened.readAfter(reopened.getAcknowledgedSequence());
+        assertNotNull(record);
+        assertEquals(16, record.getSequence());
+        assertEquals(OutboundSpool.KIND_BINARY, record.getKind());
+        assertEquals("record16", text(record));
+        assertEquals(21, reopened.append(OutboundSpool.KIND_JSON, payload("record21")));
+    }
+
+    @Test
+    public void sizeCapEvictsOldestSegments() throws IOException {
+        OutboundSpool spool = new OutboundSpool(directory, SEGMENT_SIZE, 4 * SEGMENT_SIZE);
+        for (int i = 1; i <= 200; i++) {
+            spool.append(OutboundSpool.KIND_JSON, payload("record" + i));
+        }
+
+        assertTrue(spool.getSize() <= 4 * SEGMENT_SIZE);
+        assertTrue(spool.getDroppedRecords() > 0);
+        OutboundSpool.Record first = spool.readAfter(0);
+        assertNotNull(first);
+        assertEquals(spool.getDroppedRecords() + 1, first.getSequence());
+    }
+
+    @Test
+    public void acknowledgedSegmentsAreDeleted() throws IOException {
+        OutboundSpool spool = new OutboundSpool(directory, SEGMENT_SIZE, 1024 * 1024);
+        for (int i = 1; i <= 20; i++) {
+            spool.append(OutboundSpool.KIND_JSON, payload("record" + i));
+        }
+        OutboundSpool.Record first = spool.readAfter(0);
+        assertNotNull(first);
+        long segmentsBefore = countSegments();
+
+        spool.acknowledge(20);
+
+        assertTrue(countSegments() < segmentsBefore);
+        assertEquals(1, countSegments());
+        // records are copies, so they outlive their segments
+        assertEquals("record1", text(first));
+    }
+
+    private long countSegments() throws IOException {
+        try (Stream<Path> paths = Files.list(directory)) {
+            return paths.filter(path -> path.toString().endsWith(".segment")).count();
+        }
+    }
+
+    private static ByteBuffer payload(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String text(OutboundSpool.Record record) {
+        ByteBuffer payload = record.getPayload();
+        byte[] bytes = new byte[payload.remaining()];
+        payload.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,38 @@
+package com.github.tarcv.doom_servers;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.*;
+
+public class ProcessSamplerTest {
+    @Test
+    public void parsesProcFiles() {
+        String stat = "4242 (doom (server) 1) S 1 4242 4242 0 -1 4194560 2171 0 0 0 150 25 0 0 20 0 3 0 1234 0 0";
+        assertEquals(175, ProcessSampler.parseCpuTicks(stat));
+
+        String status = "Name:\tzandronum\nVmRSS:\t  123456 kB\nvoluntary_ctxt_switches:\t10\n"
+                + "nonvoluntary_ctxt_switches:\t5\n";
+        assertEquals(123456, ProcessSampler.parseField(status, "VmRSS:"));
+        assertEquals(10, ProcessSampler.parseField(status, "voluntary_ctxt_switches:"));
+        assertEquals(5, ProcessSampler.parseField(status, "nonvoluntary_ctxt_switches:"));
+        assertEquals(-1, ProcessSampler.parseField(status, "VmSwap:"));
+    }
+
+    @Test
+    public void readsCpuTicksOfStartedProcess() throws IOException, InterruptedException {
+        Process process = new ProcessBuilder("sleep", "5").start();
+        try {
+            long pid = process.pid();
+            assertTrue(pid > 0);
+            String stat = new String(Files.readAllBytes(Paths.get("/proc/" + pid + "/stat")));
+            assertTrue(ProcessSampler.parseCpuTicks(stat) >= 0);
+        } finally {
+            process.destroy();
+            process.waitFor();
+        }
+    }
+}
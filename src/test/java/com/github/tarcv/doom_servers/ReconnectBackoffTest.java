@@ -0,0 +1,43 @@
+package com.github.tarcv.doom_servers;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ReconnectBackoffTest {
+    @Test
+    public void delaysGrowExponentiallyUpToMax() {
+        ReconnectBackoff backoff = new ReconnectBackoff(1000, 5000, new Random(1));
+
+        long[] limits = {1000, 2000, 4000, 5000, 5000};
+        for (long limit : limits) {
+            long delay = backoff.nextDelayMillis();
+            assertTrue(delay + " is not in [" + limit / 2 + ", " + limit + "]", delay >= limit / 2 && delay <= limit);
+        }
+    }
+
+    @Test
+    public void resetStartsFromInitialDelay() {
+        ReconnectBackoff backoff = new ReconnectBackoff(1000, 60000, new Random(1));
+        for (int i = 0; i < 10; i++) {
+            backoff.nextDelayMillis();
+        }
+
+        backoff.reset();
+        assertTrue(backoff.nextDelayMillis() <= 1000);
+    }
+
+    @Test
+    public void delaysAreJittered() {
+        ReconnectBackoff first = new ReconnectBackoff(1000, 60000, new Random(1));
+        ReconnectBackoff second = new ReconnectBackoff(1000, 60000, new Random(2));
+
+        boolean differ = false;
+        for (int i = 0; i < 5; i++) {
+            differ |= first.nextDelayMillis() != second.nextDelayMillis();
+        }
+        assertTrue(differ);
+    }
+}
@@ -3,21 +3,31 @@ package com.github.tarcv.doom_servers;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
 
 /**
  * Created on 19.11.2016.
  */
 public class ServerTest {
+    private static final Map<String, List<String>> SERVER_CFG =
+            Collections.singletonMap("server.cfg", Collections.singletonList("sv_maxplayers 8"));
+
     @Test
-    public void startServer() throws IOException {
+    public void startServer() throws IOException, TimeoutException, InterruptedException {
         Path executable = Paths.get("debugCmdArgs.cmd");
-        Path workdir = Paths.get("debugWorkDir");
+        // configs and their manifest are written there
+        Path workdir = Files.createTempDirectory("engine");
         List<String> commandLine = Arrays.asList(
                 "argument1",
                 "+exec echo DoomServerReady"
@@ -25,7 +35,62 @@ public class ServerTest {
 
         Map<String, List<String>> configs = Collections.singletonMap("server.cfg", Arrays.asList("parameter1 1"));
         ServerConfiguration configuration = new ServerConfiguration(commandLine, configs);
-        Server server = new Server(executable, workdir, configuration, consoleBlockingSink);
-        server.run();
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        Server server = FakeEngine.create(executable, workdir, configuration, scheduler);
+        try {
+            server.run();
+        } finally {
+            server.stop();
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void reconfiguresRunningServerThroughConsole() throws Exception {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        Server server = FakeEngine.start(FakeEngine.configuration(
+                Arrays.asList("+sv_hostname", "old"), SERVER_CFG), scheduler);
+        try {
+            ServerConfiguration next = FakeEngine.configuration(
+                    Arrays.asList("+sv_hostname", "new", "+sv_gravity", "-100"),
+                    Collections.singletonMap("server.cfg", Collections.singletonList("sv_maxplayers 16")));
+            ConfigurationDiff diff = ConfigurationDiff.between(server.getConfiguration(), next);
+
+            assertTrue(server.reconfigure(next, diff));
+            assertSame(next, server.getConfiguration());
+        } finally {
+            server.stop();
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void rejectedCommandFailsReconfiguration() throws Exception {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        ServerConfiguration current = FakeEngine.configuration(Arrays.asList("+sv_hostname", "old"), SERVER_CFG);
+        Server server = FakeEngine.start(current, scheduler);
+        try {
+            ServerConfiguration next = FakeEngine.configuration(
+                    Arrays.asList("+sv_hostname", "old", "+sv_nosuchcvar", "1", "+bogus"), SERVER_CFG);
+
+            assertFalse(server.reconfigure(next, ConfigurationDiff.between(current, next)));
+            assertSame(current, server.getConfiguration());
+        } finally {
+            server.stop();
+            scheduler.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void consoleIsRejectedBeforeStart() throws Exception {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            Server server = FakeEngine.create(FakeEngine.configuration(Collections.emptyList(), SERVER_CFG),
+                    scheduler);
+
+            server.executeConsole(Collections.singletonList("status"), lines -> {});
+        } finally {
+            scheduler.shutdown();
+        }
     }
 }
@@ -0,0 +1,133 @@
+package com.github.tarcv.doom_servers;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class SpoolSenderTest {
+    private final List<Long> sent = Collections.synchronizedList(new ArrayList<>());
+    private Path directory;
+    private OutboundSpool spool;
+    private volatile boolean failing = false;
+    private volatile long poisonSequence = -1;
+    private SpoolSender sender;
+    private Thread senderThread;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("spool");
+        spool = new OutboundSpool(directory, 256, 1024 * 1024);
+        sender = new SpoolSender(spool, record -> {
+            if (failing) {
+                throw new IOException("Not connected");
+            }
+            if (record.getSequence() == poisonSequence) {
+                throw new IllegalArgumentException("Can't be encoded");
+            }
+            sent.add(record.getSequence());
+        });
+        senderThread = new Thread(sender, "TestSpoolSender");
+        senderThread.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        sender.stop();
+        senderThread.join(5000);
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void sendsOnlyWhileConnected() throws Exception {
+        append(3);
+        Thread.sleep(100);
+        assertTrue(sent.isEmpty());
+
+        sender.onConnected();
+        awaitSent(3);
+        assertEquals(Arrays.asList(1L, 2L, 3L), sent);
+
+        append(1);
+        awaitSent(4);
+        assertEquals(4L, (long) sent.get(3));
+    }
+
+    @Test
+    public void resendsUnacknowledgedRecordsAfterReconnect() throws Exception {
+        sender.onConnected();
+        append(5);
+        awaitSent(5);
+        spool.acknowledge(2);
+
+        sender.onDisconnected();
+        sender.onConnected();
+
+        awaitSent(8);
+        assertEquals(Arrays.asList(3L, 4L, 5L), sent.subList(5, 8));
+    }
+
+    @Test
+    public void failedSendWaitsForNextConnection() throws Exception {
+        failing = true;
+        sender.onConnected();
+        append(2);
+        Thread.sleep(100);
+        assertTrue(sent.isEmpty());
+
+        failing = false;
+        append(1);
+        Thread.sleep(100);
+        assertTrue("Sending should stop till the next connection", sent.isEmpty());
+
+        sender.onConnected();
+        awaitSent(3);
+        assertEquals(Arrays.asList(1L, 2L, 3L), sent);
+    }
+
+    @Test
+    public void failingRecordIsSkipped() throws Exception {
+        poisonSequence = 1;
+        sender.onConnected();
+        append(2);
+
+        awaitSent(1);
+        assertEquals(Collections.singletonList(2L), sent);
+
+        // the connection is still considered up
+        append(1);
+        awaitSent(2);
+        assertEquals(Arrays.asList(2L, 3L), sent);
+    }
+
+    private void append(int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            spool.append(OutboundSpool.KIND_JSON, ByteBuffer.wrap("record".getBytes(StandardCharsets.UTF_8)));
+            sender.onAppended();
+        }
+    }
+
+    private void awaitSent(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (sent.size() < count && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, sent.size());
+    }
+}
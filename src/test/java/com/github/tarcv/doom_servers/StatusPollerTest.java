@@ -0,0 +1,162 @@
+package com.github.tarcv.doom_servers;
+
+import com.github.tarcv.doom_servers.messages.Message;
+import com.github.tarcv.doom_servers.messages.ServerStatus;
+import com.github.tarcv.doom_servers.messages.StatusReport;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class StatusPollerTest {
+    private final TestConnection connection = new TestConnection();
+    private final List<Message> sent = connection.sent;
+    private DatagramSocket responder;
+    private volatile int players = 3;
+    private StatusPoller poller;
+
+    @Before
+    public void setUp() throws IOException {
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        responder = new DatagramSocket(0, loopback);
+        Thread responderThread = new Thread(this::respond, "FakeLauncherServer");
+        responderThread.setDaemon(true);
+        responderThread.start();
+        poller = new StatusPoller(() -> Collections.singletonMap("s1", responder.getLocalPort()),
+                connection, new ZandronumLauncherProtocol(), loopback, 1000, 60000);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        poller.close();
+        responder.close();
+    }
+
+    @Test
+    public void parsesResponse() {
+        LauncherStatus status = new ZandronumLauncherProtocol().parseResponse(response(5));
+
+        assertEquals(new LauncherStatus("Test server", "MAP07", 5, 8, 16), status);
+    }
+
+    @Test
+    public void parsesCompressedResponse() {
+        ByteBuffer response = response(5);
+        byte[] data = new byte[response.remaining() - 1];
+        response.position(1);
+        response.get(data);
+        HuffmanCodec codec = HuffmanCodec.fromTreeDescription(HuffmanCodecTest.balancedTree());
+
+        LauncherStatus status = new ZandronumLauncherProtocol(codec)
+                .parseResponse(HuffmanCodecTest.encodeBalanced(data));
+
+        assertEquals(new LauncherStatus("Test server", "MAP07", 5, 8, 16), status);
+    }
+
+    @Test
+    public void ignoresOtherPackets() {
+        ByteBuffer compressed = response(5);
+        compressed.put(0, (byte) 0x12);
+
+        assertNull(new ZandronumLauncherProtocol().parseResponse(compressed));
+        assertNull(new ZandronumLauncherProtocol().parseResponse(ByteBuffer.wrap(new byte[]{(byte) 0xFF, 1})));
+    }
+
+    @Test
+    public void findsLauncherPort() {
+        assertEquals(10700, StatusPoller.getLauncherPort(Arrays.asList("-iwad", "doom2.wad", "-port", "10700"), 10666));
+        assertEquals(10666, StatusPoller.getLauncherPort(Arrays.asList("-iwad", "doom2.wad"), 10666));
+    }
+
+    @Test
+    public void pollsAndReportsChanges() throws IOException {
+        poller.poll();
+        awaitStatus(3);
+        poller.report();
+
+        assertEquals(1, sent.size());
+        ServerStatus status = ((StatusReport) sent.get(0)).getServers().get(0);
+        assertEquals("s1", status.getServerId());
+        assertTrue(status.isReachable());
+        assertEquals("MAP07", status.getMap());
+        assertEquals(3, status.getPlayers());
+
+        poller.poll();
+        awaitStatus(3);
+        poller.report();
+        assertEquals("Unchanged status is not sent again", 1, sent.size());
+
+        players = 4;
+        poller.poll();
+        awaitStatus(4);
+        poller.report();
+        assertEquals(2, sent.size());
+        assertEquals(4, ((StatusReport) sent.get(1)).getServers().get(0).getPlayers());
+    }
+
+    private void awaitStatus(int expectedPlayers) throws IOException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            poller.receive(100);
+            LauncherStatus status = poller.getStatus("s1");
+            if (status != null && status.getPlayers() == expectedPlayers) {
+                return;
+            }
+        }
+        fail("No status with " + expectedPlayers + " players");
+    }
+
+    private void respond() {
+        byte[] buffer = new byte[1024];
+        while (!responder.isClosed()) {
+            try {
+                DatagramPacket query = new DatagramPacket(buffer, buffer.length);
+                responder.receive(query);
+                ByteBuffer queryData = ByteBuffer.wrap(query.getData(), 0, query.getLength())
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                if ((queryData.get() & 0xFF) != ZandronumLauncherProtocol.UNCOMPRESSED
+                        || queryData.getInt() != ZandronumLauncherProtocol.LAUNCHER_CHALLENGE) {
+                    continue;
+                }
+                ByteBuffer response = response(players);
+                responder.send(new DatagramPacket(response.array(), response.limit(), query.getSocketAddress()));
+            } catch (IOException e) {
+                // closed
+            }
+        }
+    }
+
+    private static ByteBuffer response(int players) {
+        ByteArrayOutputStream packet = new ByteArrayOutputStream();
+        ByteBuffer header = ByteBuffer.allocate(9).order(ByteOrder.LITTLE_ENDIAN);
+        header.put((byte) 0xFF).putInt(ZandronumLauncherProtocol.SERVER_CHALLENGE).putInt(0);
+        packet.write(header.array(), 0, header.position());
+        writeString(packet, "3.1");
+        ByteBuffer flags = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN)
+                .putInt(ZandronumLauncherProtocol.QUERY_FLAGS);
+        packet.write(flags.array(), 0, 4);
+        writeString(packet, "Test server");
+        writeString(packet, "MAP07");
+        packet.write(16);
+        packet.write(8);
+        packet.write(players);
+        return ByteBuffer.wrap(packet.toByteArray());
+    }
+
+    private static void writeString(ByteArrayOutputStream packet, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.ISO_8859_1);
+        packet.write(bytes, 0, bytes.length);
+        packet.write(0);
+    }
+}
@@ -0,0 +1,43 @@
+package com.github.tarcv.doom_servers;
+
+import com.github.tarcv.doom_servers.messages.Message;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Connection stand-in for tests, keeps everything sent through it
+ */
+class TestConnection implements Connection {
+    final List<Message> sent = Collections.synchronizedList(new ArrayList<>());
+    final List<Message> published = Collections.synchronizedList(new ArrayList<>());
+    final List<ByteBuffer> binaryFrames = Collections.synchronizedList(new ArrayList<>());
+
+    @Override
+    public void connect() {
+    }
+
+    @Override
+    public void send(Message message) {
+        sent.add(message);
+    }
+
+    @Override
+    public void publish(Message message) {
+        published.add(message);
+    }
+
+    @Override
+    public void sendBinary(ByteBuffer frame) {
+        binaryFrames.add(copy(frame));
+    }
+
+    static ByteBuffer copy(ByteBuffer frame) {
+        ByteBuffer copy = ByteBuffer.allocate(frame.remaining());
+        copy.put(frame);
+        copy.flip();
+        return copy;
+    }
+}
@@ -0,0 +1,50 @@
+package com.github.tarcv.doom_servers;
+
+import org.junit.Test;
+
+import javax.websocket.Session;
+import javax.websocket.WebSocketContainer;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertTrue;
+
+public class WebsocketConnectionTest {
+    @Test(timeout = 10000)
+    public void reconnectsWhenSessionIsLostBeforeWaiting() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        CountDownLatch reconnected = new CountDownLatch(1);
+        WebSocketContainer container = FakeWebsocket.proxy(WebSocketContainer.class, (method, args) -> {
+            if (!"connectToServer".equals(method)) {
+                return null;
+            }
+            WebsocketConnection.WebsocketEndpoint endpoint = (WebsocketConnection.WebsocketEndpoint) args[0];
+            Session session = new FakeWebsocket().session;
+            endpoint.onOpen(session);
+            if (attempts.incrementAndGet() == 1) {
+                // dropped before connect() starts waiting for the session to end
+                session.close();
+                endpoint.onClose(session);
+            } else {
+                reconnected.countDown();
+            }
+            return session;
+        });
+        OutboundSpool spool = new OutboundSpool(Files.createTempDirectory("spool"), 64 * 1024, 1024 * 1024);
+        WebsocketConnection connection = new WebsocketConnection(message -> null, "ws://localhost/test",
+                new Key("key"), spool, new Heartbeat(60000, 3), new ReconnectBackoff(1, 1, new Random()),
+                () -> container);
+
+        Thread connectThread = new Thread(connection::connect, "TestConnect");
+        connectThread.start();
+        try {
+            assertTrue("Did not reconnect", reconnected.await(5, TimeUnit.SECONDS));
+        } finally {
+            connectThread.interrupt();
+            connectThread.join(5000);
+        }
+    }
+}